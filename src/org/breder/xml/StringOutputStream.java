@@ -0,0 +1,269 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * String para output stream. Codifica em UTF-8 direto num buffer próprio,
+ * com um caminho rápido para ascii, e escreve no stream em blocos inteiros.
+ * Sem stream, o buffer cresce e guarda todos os bytes.
+ * 
+ * @author bernardobreder
+ * 
+ */
+final class StringOutputStream extends OutputStream {
+
+  /** Tamanho do bloco escrito no stream */
+  private static final int CHUNK = 8 * 1024;
+
+  /** Saída ou null para guardar em memória */
+  private final OutputStream output;
+  /** Buffer */
+  private byte[] buffer;
+  /** Quantidade de bytes no buffer */
+  private int count;
+  /** Chars copiados das strings, criado no primeiro uso */
+  private char[] chars;
+
+  /**
+   * Construtor
+   * 
+   * @param output
+   */
+  public StringOutputStream(OutputStream output) {
+    this.output = output;
+    this.buffer = new byte[CHUNK];
+  }
+
+  /**
+   * Construtor para guardar os bytes em memória
+   * 
+   * @param capacity tamanho estimado
+   */
+  public StringOutputStream(int capacity) {
+    this.output = null;
+    this.buffer = new byte[Math.max(capacity, 16)];
+  }
+
+  /**
+   * Acrescenta uma string
+   * 
+   * @param text
+   * @throws IOException
+   */
+  public void append(String text) throws IOException {
+    this.append(text, 0, text.length());
+  }
+
+  /**
+   * Acrescenta uma string escapando os caracteres especiais do xml. Nos
+   * atributos, as aspas também são escapadas.
+   * 
+   * @param text
+   * @param attribute
+   * @throws IOException
+   */
+  public void appendEscaped(String text, boolean attribute) throws IOException {
+    int size = text.length();
+    int start = 0;
+    for (int n = 0; n < size; n++) {
+      char c = text.charAt(n);
+      String entity;
+      if (c == '<') {
+        entity = "&lt;";
+      }
+      else if (c == '>') {
+        entity = "&gt;";
+      }
+      else if (c == '&') {
+        entity = "&amp;";
+      }
+      else if (c == '"' && attribute) {
+        entity = "&quot;";
+      }
+      else {
+        continue;
+      }
+      this.append(text, start, n);
+      this.append(entity, 0, entity.length());
+      start = n + 1;
+    }
+    this.append(text, start, size);
+  }
+
+  /**
+   * Acrescenta um trecho da string, copiado em blocos para um vetor de chars
+   * sem separar os pares de surrogates
+   * 
+   * @param text
+   * @param start
+   * @param end
+   * @throws IOException
+   */
+  public void append(String text, int start, int end) throws IOException {
+    if (this.chars == null) {
+      this.chars = new char[1024];
+    }
+    char[] chars = this.chars;
+    while (start < end) {
+      int size = Math.min(end - start, chars.length);
+      text.getChars(start, start + size, chars, 0);
+      if (start + size < end && Character.isHighSurrogate(chars[size - 1])) {
+        size--;
+      }
+      this.append(chars, 0, size);
+      start += size;
+    }
+  }
+
+  /**
+   * Acrescenta um trecho do vetor de chars. Os trechos em ascii são
+   * codificados de 8 em 8 chars; os pares de surrogates viram 4 bytes e os
+   * surrogates soltos viram '?'.
+   * 
+   * @param chars
+   * @param start
+   * @param end
+   * @throws IOException
+   */
+  public void append(char[] chars, int start, int end) throws IOException {
+    byte[] buffer = this.buffer;
+    int count = this.count;
+    int n = start;
+    while (n < end) {
+      if (buffer.length - count < 8) {
+        this.count = count;
+        this.drain(8);
+        buffer = this.buffer;
+        count = this.count;
+      }
+      if (n + 8 <= end
+        && (chars[n] | chars[n + 1] | chars[n + 2] | chars[n + 3]
+          | chars[n + 4] | chars[n + 5] | chars[n + 6] | chars[n + 7]) < 0x80) {
+        for (int k = 0; k < 8; k++) {
+          buffer[count + k] = (byte) chars[n + k];
+        }
+        count += 8;
+        n += 8;
+        continue;
+      }
+      char c = chars[n++];
+      if (c < 0x80) {
+        buffer[count++] = (byte) c;
+      }
+      else if (c < 0x800) {
+        buffer[count++] = (byte) (0xC0 | (c >> 6));
+        buffer[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+      else if (Character.isHighSurrogate(c) && n < end
+        && Character.isLowSurrogate(chars[n])) {
+        int cp = Character.toCodePoint(c, chars[n++]);
+        buffer[count++] = (byte) (0xF0 | (cp >> 18));
+        buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (cp & 0x3F));
+      }
+      else if (Character.isSurrogate(c)) {
+        buffer[count++] = '?';
+      }
+      else {
+        buffer[count++] = (byte) (0xE0 | (c >> 12));
+        buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    this.count = count;
+  }
+
+  /**
+   * Acrescenta os bytes da origem. Com stream, os bytes pendentes são
+   * escritos e a origem é copiada direto para o stream.
+   * 
+   * @param source
+   * @throws IOException
+   */
+  public void append(XmlContentSource source) throws IOException {
+    if (this.output != null) {
+      this.drain(this.buffer.length);
+      source.writeTo(this.output);
+    }
+    else {
+      long length = source.getLength();
+      if (length > 0) {
+        this.drain((int) Math.min(length, Integer.MAX_VALUE - 8));
+      }
+      source.writeTo(this);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(int n) throws IOException {
+    if (this.count == this.buffer.length) {
+      this.drain(1);
+    }
+    this.buffer[this.count++] = (byte) n;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(byte[] bytes, int off, int len) throws IOException {
+    if (this.output != null && len >= this.buffer.length) {
+      this.drain(this.buffer.length);
+      this.output.write(bytes, off, len);
+      return;
+    }
+    if (this.count + len > this.buffer.length) {
+      this.drain(len);
+    }
+    System.arraycopy(bytes, off, this.buffer, this.count, len);
+    this.count += len;
+  }
+
+  /**
+   * Escreve os bytes pendentes e descarrega o stream
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void flush() throws IOException {
+    if (this.output != null) {
+      this.drain(this.buffer.length);
+      this.output.flush();
+    }
+  }
+
+  /**
+   * @return bytes guardados em memória
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(this.buffer, this.count);
+  }
+
+  /**
+   * Abre espaço no buffer: escreve o bloco no stream ou, em memória, aumenta
+   * o buffer.
+   * 
+   * @param length quantidade de bytes que precisam caber
+   * @throws IOException
+   */
+  private void drain(int length) throws IOException {
+    if (this.output != null) {
+      if (this.count > 0) {
+        this.output.write(this.buffer, 0, this.count);
+        this.count = 0;
+      }
+    }
+    else if (this.count + length > this.buffer.length) {
+      this.buffer =
+        Arrays.copyOf(this.buffer, Math.max(this.count + length,
+          this.buffer.length * 2));
+    }
+  }
+
+}
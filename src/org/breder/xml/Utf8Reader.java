@@ -0,0 +1,226 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Leitor de UTF-8 em blocos. Os bytes são lidos do stream para um buffer
+ * próprio e decodificados direto no vetor de chars pedido; os trechos em
+ * ascii são conferidos de 8 em 8 bytes. Os caracteres fora do plano básico
+ * viram pares de surrogates, e as sequências inválidas viram U+FFFD.
+ * 
+ * Não é sincronizado.
+ * 
+ * @author bernardobreder
+ */
+public class Utf8Reader extends Reader {
+
+  /** Leitura de 8 bytes de uma vez */
+  private static final VarHandle LONG =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  /** Bit mais alto de cada um dos 8 bytes */
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  /** Caractere de substituição */
+  private static final char REPLACEMENT = '\uFFFD';
+
+  /** Stream */
+  private final InputStream input;
+  /** Buffer */
+  private final byte[] buffer;
+  /** Posição de leitura no buffer */
+  private int position;
+  /** Quantidade de bytes no buffer */
+  private int limit;
+  /** Surrogate baixo que não coube na última leitura ou 0 */
+  private char pending;
+  /** Indica se o stream terminou */
+  private boolean eof;
+
+  /**
+   * Construtor
+   * 
+   * @param input
+   */
+  public Utf8Reader(InputStream input) {
+    this(input, 8 * 1024);
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param input
+   * @param size tamanho do buffer
+   */
+  public Utf8Reader(InputStream input, int size) {
+    this.input = input;
+    this.buffer = new byte[Math.max(size, 16)];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read() throws IOException {
+    char[] chars = new char[1];
+    return this.read(chars, 0, 1) < 0 ? -1 : chars[0];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read(char[] chars, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int end = off + len;
+    int n = off;
+    if (this.pending != 0) {
+      chars[n++] = this.pending;
+      this.pending = 0;
+    }
+    for (;;) {
+      n = this.decode(chars, n, end);
+      if (n == end || n > off || this.eof) {
+        break;
+      }
+      this.fill();
+    }
+    return n == off ? -1 : n - off;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean ready() throws IOException {
+    return this.pending != 0 || this.position < this.limit
+      || this.input.available() > 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    this.input.close();
+  }
+
+  /**
+   * Decodifica os bytes do buffer enquanto houver espaço nos chars e as
+   * sequências estiverem completas no buffer
+   * 
+   * @param chars
+   * @param n posição nos chars
+   * @param end fim dos chars
+   * @return nova posição nos chars
+   */
+  private int decode(char[] chars, int n, int end) {
+    byte[] buffer = this.buffer;
+    int position = this.position;
+    int limit = this.limit;
+    while (n < end && position < limit) {
+      if (n + 8 <= end && position + 8 <= limit
+        && ((long) LONG.get(buffer, position) & HIGH_BITS) == 0) {
+        for (int k = 0; k < 8; k++) {
+          chars[n + k] = (char) buffer[position + k];
+        }
+        n += 8;
+        position += 8;
+        continue;
+      }
+      int b = buffer[position];
+      if (b >= 0) {
+        chars[n++] = (char) b;
+        position++;
+        continue;
+      }
+      int size = b >= -32 ? b >= -16 ? 4 : 3 : 2;
+      if (position + size > limit && !this.eof) {
+        break;
+      }
+      int cp = this.sequence(buffer, position, limit, size);
+      if (cp < 0) {
+        chars[n++] = REPLACEMENT;
+        position += -cp;
+      }
+      else if (cp < 0x10000) {
+        chars[n++] = (char) cp;
+        position += size;
+      }
+      else {
+        chars[n++] = Character.highSurrogate(cp);
+        if (n < end) {
+          chars[n++] = Character.lowSurrogate(cp);
+        }
+        else {
+          this.pending = Character.lowSurrogate(cp);
+        }
+        position += size;
+      }
+    }
+    this.position = position;
+    return n;
+  }
+
+  /**
+   * Decodifica uma sequência de mais de um byte
+   * 
+   * @param buffer
+   * @param position início da sequência
+   * @param limit
+   * @param size tamanho da sequência pelo primeiro byte
+   * @return código do caractere ou, se inválida, o negativo da quantidade de
+   *         bytes a descartar
+   */
+  private int sequence(byte[] buffer, int position, int limit, int size) {
+    int b = buffer[position] & 0xFF;
+    if (b < 0xC2 || b > 0xF4) {
+      return -1;
+    }
+    int cp = b & (0x7F >> size);
+    for (int k = 1; k < size; k++) {
+      if (position + k >= limit || (buffer[position + k] & 0xC0) != 0x80) {
+        return -k;
+      }
+      cp = (cp << 6) | (buffer[position + k] & 0x3F);
+    }
+    if (size == 3 && (cp < 0x800 || Character.isSurrogate((char) cp))) {
+      return -size;
+    }
+    if (size == 4 && (cp < 0x10000 || cp > 0x10FFFF)) {
+      return -size;
+    }
+    return cp;
+  }
+
+  /**
+   * Move os bytes que faltam ler para o início do buffer e faz uma leitura do
+   * stream
+   * 
+   * @throws IOException
+   */
+  private void fill() throws IOException {
+    int rest = this.limit - this.position;
+    System.arraycopy(this.buffer, this.position, this.buffer, 0, rest);
+    this.position = 0;
+    this.limit = rest;
+    int n;
+    do {
+      n =
+        this.input.read(this.buffer, this.limit, this.buffer.length
+          - this.limit);
+    } while (n == 0);
+    if (n < 0) {
+      this.eof = true;
+    }
+    else {
+      this.limit += n;
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Escritor de UTF-8 em blocos, sobre o mesmo codificador da escrita das tags.
+ * Um surrogate alto no fim de uma escrita espera o surrogate baixo da escrita
+ * seguinte, então os pares divididos entre chamadas viram os 4 bytes do
+ * caractere. Os surrogates soltos viram '?'.
+ * 
+ * Não é sincronizado.
+ * 
+ * @author bernardobreder
+ */
+public class Utf8Writer extends Writer {
+
+  /** Stream */
+  private final OutputStream output;
+  /** Codificador */
+  private final StringOutputStream string;
+  /** Surrogate alto da última escrita ou 0 */
+  private char pending;
+
+  /**
+   * Construtor
+   * 
+   * @param output
+   */
+  public Utf8Writer(OutputStream output) {
+    this.output = output;
+    this.string = new StringOutputStream(output);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(char[] chars, int off, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    int end = off + len;
+    if (this.pending != 0) {
+      off = this.pair(chars[off]) ? off + 1 : off;
+    }
+    if (off < end && Character.isHighSurrogate(chars[end - 1])) {
+      this.pending = chars[--end];
+    }
+    this.string.append(chars, off, end);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(String text, int off, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    int end = off + len;
+    if (this.pending != 0) {
+      off = this.pair(text.charAt(off)) ? off + 1 : off;
+    }
+    if (off < end && Character.isHighSurrogate(text.charAt(end - 1))) {
+      this.pending = text.charAt(--end);
+    }
+    this.string.append(text, off, end);
+  }
+
+  /**
+   * Escreve os bytes pendentes e descarrega o stream. Um surrogate alto
+   * ainda sem par continua esperando.
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void flush() throws IOException {
+    this.string.flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.pending != 0) {
+      this.pair('\0');
+    }
+    this.string.flush();
+    this.output.close();
+  }
+
+  /**
+   * Escreve o surrogate alto pendente junto com o próximo char, se formarem
+   * um par, ou sozinho
+   * 
+   * @param c próximo char
+   * @return indica se o char foi usado no par
+   * @throws IOException
+   */
+  private boolean pair(char c) throws IOException {
+    boolean low = Character.isLowSurrogate(c);
+    char[] chars = { this.pending, c };
+    this.pending = 0;
+    this.string.append(chars, 0, low ? 2 : 1);
+    return low;
+  }
+
+}
@@ -0,0 +1,328 @@
+package org.breder.xml;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Atributos de uma tag guardados num vetor único, alternando nome e valor.
+ * Como as tags costumam ter poucos atributos, a busca percorre o vetor
+ * comparando primeiro por identidade, o que é mais rápido e ocupa menos
+ * memória que uma tabela hash. Acima de {@link #THRESHOLD} atributos, um
+ * índice por nome é mantido junto do vetor. A iteração segue a ordem de
+ * inserção.
+ * 
+ * @author bernardobreder
+ */
+final class XmlAttributes extends AbstractMap<String, String> {
+
+  /** Quantidade de atributos a partir da qual o índice é criado */
+  private static final int THRESHOLD = 8;
+
+  /** Nomes e valores alternados */
+  private String[] table;
+  /** Quantidade de atributos */
+  private int size;
+  /** Posição de cada nome no vetor, criado acima do limite */
+  private Map<String, Integer> index;
+  /** Visão das entradas */
+  private Set<Map.Entry<String, String>> entrySet;
+
+  /**
+   * Construtor
+   */
+  public XmlAttributes() {
+    this(2);
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param capacity quantidade esperada de atributos
+   */
+  public XmlAttributes(int capacity) {
+    this.table = new String[Math.max(capacity, 1) * 2];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean containsKey(Object key) {
+    return this.find(key) >= 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String get(Object key) {
+    int n = this.find(key);
+    return n < 0 ? null : this.table[n + 1];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String put(String key, String value) {
+    int n = this.find(key);
+    if (n >= 0) {
+      String old = this.table[n + 1];
+      this.table[n + 1] = value;
+      return old;
+    }
+    n = this.size * 2;
+    if (n == this.table.length) {
+      this.table = Arrays.copyOf(this.table, n * 2);
+    }
+    this.table[n] = key;
+    this.table[n + 1] = value;
+    this.size++;
+    if (this.index != null) {
+      this.index.put(key, n);
+    }
+    else if (this.size > THRESHOLD) {
+      this.reindex();
+    }
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String remove(Object key) {
+    int n = this.find(key);
+    if (n < 0) {
+      return null;
+    }
+    String old = this.table[n + 1];
+    this.removeAt(n);
+    return old;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    Arrays.fill(this.table, 0, this.size * 2, null);
+    this.size = 0;
+    this.index = null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    if (this.entrySet == null) {
+      this.entrySet = new EntrySet();
+    }
+    return this.entrySet;
+  }
+
+  /**
+   * Procura a posição do nome no vetor
+   * 
+   * @param key
+   * @return posição ou -1 se não existir
+   */
+  private int find(Object key) {
+    if (this.index != null) {
+      Integer n = this.index.get(key);
+      return n == null ? -1 : n.intValue();
+    }
+    String[] table = this.table;
+    int end = this.size * 2;
+    for (int n = 0; n < end; n += 2) {
+      if (table[n] == key) {
+        return n;
+      }
+    }
+    if (key != null) {
+      for (int n = 0; n < end; n += 2) {
+        if (key.equals(table[n])) {
+          return n;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Remove o atributo da posição, mantendo a ordem dos demais
+   * 
+   * @param n
+   */
+  private void removeAt(int n) {
+    int end = this.size * 2;
+    System.arraycopy(this.table, n + 2, this.table, n, end - n - 2);
+    this.table[end - 2] = null;
+    this.table[end - 1] = null;
+    this.size--;
+    if (this.index != null) {
+      if (this.size > THRESHOLD) {
+        this.reindex();
+      }
+      else {
+        this.index = null;
+      }
+    }
+  }
+
+  /**
+   * Reconstrói o índice dos nomes
+   */
+  private void reindex() {
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    for (int n = 0; n < this.size * 2; n += 2) {
+      index.put(this.table[n], n);
+    }
+    this.index = index;
+  }
+
+  /**
+   * Visão das entradas, na ordem de inserção
+   * 
+   * @author bernardobreder
+   */
+  private class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+      return XmlAttributes.this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+      return new Iterator<Map.Entry<String, String>>() {
+
+        /** Posição do próximo atributo */
+        private int next;
+        /** Posição do último atributo retornado */
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+          return this.next < XmlAttributes.this.size * 2;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+          if (!this.hasNext()) {
+            throw new NoSuchElementException();
+          }
+          this.last = this.next;
+          this.next += 2;
+          return new Entry(this.last);
+        }
+
+        @Override
+        public void remove() {
+          if (this.last < 0) {
+            throw new IllegalStateException();
+          }
+          XmlAttributes.this.removeAt(this.last);
+          this.next = this.last;
+          this.last = -1;
+        }
+
+      };
+    }
+
+  }
+
+  /**
+   * Entrada que lê e escreve direto no vetor
+   * 
+   * @author bernardobreder
+   */
+  private class Entry implements Map.Entry<String, String> {
+
+    /** Posição no vetor */
+    private final int n;
+
+    /**
+     * Construtor
+     * 
+     * @param n
+     */
+    public Entry(int n) {
+      this.n = n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getKey() {
+      return XmlAttributes.this.table[this.n];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getValue() {
+      return XmlAttributes.this.table[this.n + 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String setValue(String value) {
+      String old = XmlAttributes.this.table[this.n + 1];
+      XmlAttributes.this.table[this.n + 1] = value;
+      return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+      String key = this.getKey();
+      String value = this.getValue();
+      return key.equals(other.getKey())
+        && (value == null ? other.getValue() == null : value.equals(other
+          .getValue()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      String value = this.getValue();
+      return this.getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+    }
+
+  }
+
+}
@@ -0,0 +1,546 @@
+package org.breder.xml;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato binário de uma árvore de {@link XmlNode}. A leitura não analisa
+ * texto: os nomes vêm de um dicionário, os textos têm o tamanho na frente e
+ * as quantidades de atributos e filhos permitem criar as coleções com o
+ * tamanho certo.
+ * 
+ * O arquivo começa por {@link #MAGIC} e a versão, seguidos das tags em
+ * pré-ordem. Cada tag tem o nome, a quantidade e os pares de atributos, e um
+ * tipo: 0 sem conteúdo, 1 com conteúdo, ou 2 mais a quantidade de filhos,
+ * seguido dos textos intercalados com os filhos. Os nomes são uma referência
+ * ao dicionário ou, na primeira vez, 0 seguido do texto. Os números são
+ * varint e os textos são o tamanho em bytes mais 1, ou 0 para null, seguido
+ * dos bytes em UTF-8.
+ * 
+ * A escrita e a leitura percorrem a árvore com uma pilha própria, sem
+ * recursão, então a profundidade é limitada só pela memória. Os tamanhos e
+ * quantidades lidos não são confiáveis num arquivo corrompido:
+ * as coleções só são reservadas até {@link #RESERVE} e os textos grandes
+ * crescem conforme os bytes chegam, então um arquivo corrompido termina em
+ * {@link EOFException} ou {@link IOException} em vez de esgotar a memória.
+ * 
+ * @author bernardobreder
+ */
+final class XmlBinary {
+
+  /** Início do arquivo */
+  private static final byte[] MAGIC = { 'X', 'M', 'L', 'B' };
+  /** Versão do formato */
+  private static final int VERSION = 1;
+  /** Tipo da tag sem conteúdo */
+  private static final int EMPTY = 0;
+  /** Tipo da tag com conteúdo */
+  private static final int CONTENT = 1;
+  /** Tipo da tag com filhos e textos, somado à quantidade de filhos */
+  private static final int MIXED = 2;
+  /** Maior quantidade reservada antes da leitura dos itens */
+  private static final int RESERVE = 1024;
+
+  /**
+   * Construtor
+   */
+  private XmlBinary() {
+  }
+
+  /**
+   * Escreve a árvore no formato binário
+   * 
+   * @param root
+   * @param output
+   * @throws IOException
+   */
+  public static void write(XmlNode root, OutputStream output)
+    throws IOException {
+    StringOutputStream out = new StringOutputStream(output);
+    out.write(MAGIC, 0, MAGIC.length);
+    writeNumber(out, VERSION);
+    writeNode(out, root, new HashMap<String, Integer>());
+    out.flush();
+  }
+
+  /**
+   * Lê uma árvore no formato binário
+   * 
+   * @param input
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
+   */
+  public static XmlNode read(InputStream input) throws ParseException,
+    IOException {
+    Reader reader = new Reader(input);
+    for (byte magic : MAGIC) {
+      if (reader.read() != magic) {
+        throw new ParseException("Formato binário inválido", 0);
+      }
+    }
+    int version = reader.readNumber();
+    if (version != VERSION) {
+      throw new ParseException("Versão do formato binário não suportada: "
+        + version, 0);
+    }
+    return reader.readNode();
+  }
+
+  /**
+   * Escreve a tag e os descendentes, numa passada sem recursão
+   * 
+   * @param out
+   * @param root
+   * @param names dicionário de nomes
+   * @throws IOException
+   */
+  private static void writeNode(StringOutputStream out, XmlNode root,
+    Map<String, Integer> names) throws IOException {
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    int[] indexes = new int[16];
+    if (!writeHead(out, root, names)) {
+      return;
+    }
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      XmlNode node = stack.get(top);
+      int n = indexes[top];
+      int size = node.getNodeCount();
+      writeString(out, node.getText(n));
+      if (n == size) {
+        stack.remove(top);
+        continue;
+      }
+      indexes[top] = n + 1;
+      XmlNode child = node.getNodes().get(n);
+      if (writeHead(out, child, names)) {
+        if (stack.size() == indexes.length) {
+          indexes = Arrays.copyOf(indexes, 2 * indexes.length);
+        }
+        indexes[stack.size()] = 0;
+        stack.add(child);
+      }
+    }
+  }
+
+  /**
+   * Escreve o nome, os atributos e o tipo da tag. Uma tag sem filhos nem
+   * textos é escrita inteira.
+   * 
+   * @param out
+   * @param node
+   * @param names dicionário de nomes
+   * @return indica se ainda faltam os textos e os filhos
+   * @throws IOException
+   */
+  private static boolean writeHead(StringOutputStream out, XmlNode node,
+    Map<String, Integer> names) throws IOException {
+    writeName(out, node.getName(), names);
+    Map<String, String> attributes = node.getAttributes();
+    if (attributes == null) {
+      writeNumber(out, 0);
+    }
+    else {
+      writeNumber(out, attributes.size());
+      for (Map.Entry<String, String> entry : attributes.entrySet()) {
+        writeName(out, entry.getKey(), names);
+        writeString(out, entry.getValue());
+      }
+    }
+    int size = node.getNodeCount();
+    if (size == 0 && node.getText(0) == null) {
+      String content = node.getContent();
+      if (content == null) {
+        writeNumber(out, EMPTY);
+      }
+      else {
+        writeNumber(out, CONTENT);
+        writeString(out, content);
+      }
+      return false;
+    }
+    writeNumber(out, MIXED + size);
+    return true;
+  }
+
+  /**
+   * Escreve a referência ao nome, incluindo o texto na primeira vez
+   * 
+   * @param out
+   * @param name
+   * @param names dicionário de nomes
+   * @throws IOException
+   */
+  private static void writeName(StringOutputStream out, String name,
+    Map<String, Integer> names) throws IOException {
+    Integer id = names.get(name);
+    if (id != null) {
+      writeNumber(out, id);
+      return;
+    }
+    names.put(name, names.size() + 1);
+    writeNumber(out, 0);
+    writeString(out, name);
+  }
+
+  /**
+   * Escreve o tamanho em bytes mais 1 e o texto em UTF-8, ou 0 para null
+   * 
+   * @param out
+   * @param text
+   * @throws IOException
+   */
+  private static void writeString(StringOutputStream out, String text)
+    throws IOException {
+    if (text == null) {
+      writeNumber(out, 0);
+      return;
+    }
+    writeNumber(out, length(text) + 1);
+    out.append(text);
+  }
+
+  /**
+   * Escreve um número não negativo em varint
+   * 
+   * @param out
+   * @param value
+   * @throws IOException
+   */
+  private static void writeNumber(StringOutputStream out, int value)
+    throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Quantidade de bytes do texto em UTF-8, contando como o
+   * {@link StringOutputStream}, que troca surrogates soltos por '?'
+   * 
+   * @param text
+   * @return bytes
+   */
+  private static int length(String text) {
+    int size = text.length();
+    int length = size;
+    for (int n = 0; n < size; n++) {
+      char c = text.charAt(n);
+      if (c < 0x80) {
+        continue;
+      }
+      if (c < 0x800) {
+        length++;
+      }
+      else if (Character.isHighSurrogate(c) && n + 1 < size
+        && Character.isLowSurrogate(text.charAt(n + 1))) {
+        length += 2;
+        n++;
+      }
+      else if (!Character.isSurrogate(c)) {
+        length += 2;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Leitor com buffer próprio
+   * 
+   * @author bernardobreder
+   */
+  private static class Reader {
+
+    /** Entrada */
+    private final InputStream input;
+    /** Buffer */
+    private final byte[] buffer = new byte[8 * 1024];
+    /** Posição de leitura no buffer */
+    private int position;
+    /** Quantidade de bytes no buffer */
+    private int limit;
+    /** Dicionário de nomes */
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * Construtor
+     * 
+     * @param input
+     */
+    public Reader(InputStream input) {
+      this.input = input;
+    }
+
+    /**
+     * Lê a tag e os descendentes, numa passada sem recursão
+     * 
+     * @return tag
+     * @throws ParseException
+     * @throws IOException
+     */
+    public XmlNode readNode() throws ParseException, IOException {
+      List<Frame> stack = new ArrayList<Frame>();
+      XmlNode node = this.readHead(stack);
+      while (!stack.isEmpty()) {
+        Frame frame = stack.get(stack.size() - 1);
+        if (node != null) {
+          frame.nodes.add(node);
+          node = null;
+        }
+        if (frame.index > frame.size) {
+          stack.remove(stack.size() - 1);
+          node = frame.assemble();
+          continue;
+        }
+        frame.putText(this.readString());
+        if (frame.index++ < frame.size) {
+          node = this.readHead(stack);
+        }
+      }
+      return node;
+    }
+
+    /**
+     * Lê o nome, os atributos e o tipo da tag. Uma tag sem filhos nem textos
+     * é lida inteira; as outras ficam no topo da pilha.
+     * 
+     * @param stack tags ainda sem os textos e os filhos
+     * @return tag lida inteira ou null se foi empilhada
+     * @throws ParseException
+     * @throws IOException
+     */
+    private XmlNode readHead(List<Frame> stack) throws ParseException,
+      IOException {
+      XmlNode node = new XmlNode(this.readName());
+      int count = this.readNumber();
+      XmlAttributes attributes = null;
+      if (count > 0) {
+        attributes = new XmlAttributes(Math.min(count, RESERVE));
+        for (int n = 0; n < count; n++) {
+          attributes.put(this.readName(), this.readString());
+        }
+      }
+      int type = this.readNumber();
+      if (type == EMPTY) {
+        node.assemble(attributes, null, null, null);
+        return node;
+      }
+      if (type == CONTENT) {
+        node.assemble(attributes, null, null, this.readString());
+        return node;
+      }
+      stack.add(new Frame(node, attributes, type - MIXED));
+      return null;
+    }
+
+    /**
+     * Lê a referência a um nome do dicionário
+     * 
+     * @return nome
+     * @throws ParseException
+     * @throws IOException
+     */
+    private String readName() throws ParseException, IOException {
+      int id = this.readNumber();
+      if (id == 0) {
+        String name = this.readString();
+        if (name != null) {
+          name = XmlSymbolTable.getDefault().intern(name);
+        }
+        this.names.add(name);
+        return name;
+      }
+      if (id > this.names.size()) {
+        throw new ParseException("Nome inexistente no dicionário: " + id, 0);
+      }
+      return this.names.get(id - 1);
+    }
+
+    /**
+     * Lê um texto. Um texto maior que o buffer é lido direto do stream, num
+     * vetor que dobra conforme os bytes chegam, sem confiar no tamanho.
+     * 
+     * @return texto ou null
+     * @throws IOException
+     */
+    private String readString() throws IOException {
+      int length = this.readNumber() - 1;
+      if (length < 0) {
+        return null;
+      }
+      if (length <= this.limit - this.position) {
+        String text =
+          new String(this.buffer, this.position, length,
+            StandardCharsets.UTF_8);
+        this.position += length;
+        return text;
+      }
+      int count = this.limit - this.position;
+      boolean large = length - count >= this.buffer.length;
+      byte[] bytes =
+        new byte[large ? Math.min(length, 4 * this.buffer.length) : length];
+      System.arraycopy(this.buffer, this.position, bytes, 0, count);
+      this.position = this.limit;
+      if (large) {
+        while (count < length) {
+          if (count == bytes.length) {
+            bytes =
+              Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+          }
+          int n = this.input.read(bytes, count, bytes.length - count);
+          if (n < 0) {
+            throw new EOFException();
+          }
+          count += n;
+        }
+      }
+      else {
+        this.fill();
+        while (count < length) {
+          int n = Math.min(length - count, this.limit - this.position);
+          if (n == 0) {
+            this.fill();
+            continue;
+          }
+          System.arraycopy(this.buffer, this.position, bytes, count, n);
+          this.position += n;
+          count += n;
+        }
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lê um número não negativo em varint
+     * 
+     * @return número
+     * @throws IOException se o número passar de 31 bits
+     */
+    public int readNumber() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = this.read();
+        if (shift == 28 && b > 0x07) {
+          break;
+        }
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Número mal formado no formato binário");
+    }
+
+    /**
+     * Lê um byte
+     * 
+     * @return byte
+     * @throws IOException
+     */
+    public int read() throws IOException {
+      if (this.position == this.limit) {
+        this.fill();
+      }
+      return this.buffer[this.position++] & 0xFF;
+    }
+
+    /**
+     * Preenche o buffer, que deve estar todo lido
+     * 
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+      int n = this.input.read(this.buffer, 0, this.buffer.length);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      this.position = 0;
+      this.limit = n;
+    }
+
+  }
+
+  /**
+   * Tag com filhos ainda em leitura
+   * 
+   * @author bernardobreder
+   */
+  private static class Frame {
+
+    /** Tag */
+    private final XmlNode node;
+    /** Atributos ou null */
+    private final XmlAttributes attributes;
+    /** Quantidade de filhos */
+    private final int size;
+    /** Filhos lidos ou null se não tiver */
+    private final List<XmlNode> nodes;
+    /** Textos lidos ou null se nenhum */
+    private String[] texts;
+    /** Índice do próximo texto */
+    private int index;
+
+    /**
+     * Construtor
+     * 
+     * @param node
+     * @param attributes
+     * @param size
+     */
+    public Frame(XmlNode node, XmlAttributes attributes, int size) {
+      this.node = node;
+      this.attributes = attributes;
+      this.size = size;
+      this.nodes =
+        size == 0 ? null : new ArrayList<XmlNode>(Math.min(size, RESERVE));
+    }
+
+    /**
+     * Guarda o texto do índice corrente
+     * 
+     * @param text texto ou null
+     */
+    public void putText(String text) {
+      if (text == null) {
+        return;
+      }
+      int n = this.index;
+      if (this.texts == null) {
+        this.texts = new String[Math.min(this.size, RESERVE) + 1];
+      }
+      else if (n >= this.texts.length) {
+        this.texts =
+          Arrays.copyOf(this.texts, (int) Math.min(this.size + 1L,
+            2L * this.texts.length));
+      }
+      this.texts[n] = text;
+    }
+
+    /**
+     * @return tag montada com os textos e os filhos lidos
+     */
+    public XmlNode assemble() {
+      String[] texts = this.texts;
+      if (texts != null && texts.length != this.size + 1) {
+        texts = Arrays.copyOf(texts, this.size + 1);
+      }
+      this.node.assemble(this.attributes, this.nodes, texts, null);
+      return this.node;
+    }
+
+  }
+
+}
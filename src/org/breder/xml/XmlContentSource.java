@@ -0,0 +1,523 @@
+package org.breder.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+/**
+ * Conteúdo de uma tag guardado fora do heap, em bytes UTF-8: um trecho de
+ * arquivo, um {@link ByteBuffer} ou um fornecedor de streams. A escrita do
+ * xml copia os bytes da origem direto para a saída, sem escapar e sem criar
+ * uma String, da mesma forma que o conteúdo em String é escrito. Apenas
+ * {@link XmlNode#getContent()} decodifica os bytes, a cada chamada.
+ * 
+ * A origem não deve mudar enquanto for usada por uma tag. As origens dos
+ * arquivos temporários do parse são donas do arquivo: ele é apagado no
+ * {@link #close()} ou, se ninguém fechar, quando a origem deixa de ser
+ * alcançável.
+ * 
+ * @author bernardobreder
+ */
+public abstract class XmlContentSource implements Closeable {
+
+  /** Tamanho do bloco de cópia */
+  private static final int CHUNK = 8 * 1024;
+  /** Limpeza dos arquivos temporários que ninguém fechou */
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  /**
+   * Cria a origem de um arquivo inteiro
+   * 
+   * @param path
+   * @return origem
+   * @throws IOException
+   */
+  public static XmlContentSource of(Path path) throws IOException {
+    return new FileSource(path, 0, Files.size(path));
+  }
+
+  /**
+   * Cria a origem de um trecho de arquivo
+   * 
+   * @param path
+   * @param position início do trecho em bytes
+   * @param length tamanho do trecho em bytes
+   * @return origem
+   */
+  public static XmlContentSource of(Path path, long position, long length) {
+    if (position < 0 || length < 0) {
+      throw new IllegalArgumentException(position + "+" + length);
+    }
+    return new FileSource(path, position, length);
+  }
+
+  /**
+   * Cria a origem dos bytes entre a posição e o limite do buffer. O buffer
+   * pode ser direto ou mapeado, e a posição dele não é alterada.
+   * 
+   * @param buffer
+   * @return origem
+   */
+  public static XmlContentSource of(ByteBuffer buffer) {
+    return new BufferSource(buffer.slice());
+  }
+
+  /**
+   * Cria a origem de um fornecedor, chamado a cada leitura dos bytes
+   * 
+   * @param supplier fornecedor de um novo stream a cada chamada
+   * @param length tamanho em bytes ou -1 se desconhecido
+   * @return origem
+   */
+  public static XmlContentSource of(Callable<InputStream> supplier,
+    long length) {
+    return new StreamSource(supplier, length);
+  }
+
+  /**
+   * Cria a origem de um trecho de arquivo temporário, que passa a pertencer à
+   * origem e é apagado no fechamento dela
+   * 
+   * @param path
+   * @param position início do trecho em bytes
+   * @param length tamanho do trecho em bytes
+   * @param size tamanho do arquivo, com os espaços depois do trecho
+   * @return origem
+   */
+  static XmlContentSource temporary(Path path, long position, long length,
+    long size) {
+    return new TemporarySource(path, position, length, size);
+  }
+
+  /**
+   * @return tamanho em bytes ou -1 se desconhecido
+   */
+  public abstract long getLength();
+
+  /**
+   * Abre um stream dos bytes
+   * 
+   * @return stream
+   * @throws IOException
+   */
+  public abstract InputStream openStream() throws IOException;
+
+  /**
+   * Copia os bytes para a saída
+   * 
+   * @param output
+   * @throws IOException
+   */
+  public void writeTo(OutputStream output) throws IOException {
+    InputStream input = this.openStream();
+    try {
+      byte[] bytes = new byte[CHUNK];
+      for (int n; (n = input.read(bytes)) != -1;) {
+        output.write(bytes, 0, n);
+      }
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Decodifica os bytes
+   * 
+   * @return texto
+   * @throws IOException
+   */
+  public String getText() throws IOException {
+    long length = this.getLength();
+    StringBuilder sb =
+      new StringBuilder((int) Math.min(Math.max(length, 16), 1 << 24));
+    Utf8Reader reader = new Utf8Reader(this.openStream());
+    try {
+      char[] chars = new char[CHUNK];
+      for (int n; (n = reader.read(chars, 0, chars.length)) != -1;) {
+        sb.append(chars, 0, n);
+      }
+    }
+    finally {
+      reader.close();
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Decodifica os bytes junto com os espaços das pontas que ficaram fora da
+   * origem, como no texto original da tag
+   * 
+   * @return texto
+   * @throws IOException
+   */
+  String getPaddedText() throws IOException {
+    return this.getText();
+  }
+
+  /**
+   * Libera a origem. Só as origens de arquivos temporários guardam algo, e
+   * apagam o arquivo; as demais não fazem nada. A origem não pode ser lida
+   * depois de fechada.
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+  }
+
+  /**
+   * Trecho de arquivo
+   * 
+   * @author bernardobreder
+   */
+  private static class FileSource extends XmlContentSource {
+
+    /** Arquivo */
+    private final Path path;
+    /** Início do trecho */
+    private final long position;
+    /** Tamanho do trecho */
+    private final long length;
+
+    /**
+     * Construtor
+     * 
+     * @param path
+     * @param position
+     * @param length
+     */
+    public FileSource(Path path, long position, long length) {
+      this.path = path;
+      this.position = position;
+      this.length = length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+      return this.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openStream() throws IOException {
+      FileChannel channel =
+        FileChannel.open(this.path, StandardOpenOption.READ);
+      channel.position(this.position);
+      return new LimitedInputStream(Channels.newInputStream(channel),
+        this.length);
+    }
+
+    /**
+     * Copia pelo {@link FileChannel#transferTo}, que evita a passagem pelo
+     * heap quando a saída é um arquivo ou socket
+     */
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+      FileChannel channel =
+        FileChannel.open(this.path, StandardOpenOption.READ);
+      try {
+        WritableByteChannel target = Channels.newChannel(output);
+        long position = this.position;
+        long end = this.position + this.length;
+        while (position < end) {
+          long n = channel.transferTo(position, end - position, target);
+          if (n <= 0) {
+            throw new IOException("Arquivo truncado: " + this.path);
+          }
+          position += n;
+        }
+      }
+      finally {
+        channel.close();
+      }
+    }
+
+  }
+
+  /**
+   * Arquivo temporário, apagado no fechamento ou pelo {@link Cleaner}
+   * 
+   * @author bernardobreder
+   */
+  private static class TemporarySource extends FileSource {
+
+    /** Apagamento do arquivo, executado uma única vez */
+    private final Cleaner.Cleanable cleanable;
+    /** Arquivo inteiro, com os espaços das pontas */
+    private final FileSource padded;
+
+    /**
+     * Construtor
+     * 
+     * @param path
+     * @param position
+     * @param length
+     * @param size
+     */
+    public TemporarySource(Path path, long position, long length, long size) {
+      super(path, position, length);
+      this.padded = new FileSource(path, 0, size);
+      this.cleanable = CLEANER.register(this, new Delete(path));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    String getPaddedText() throws IOException {
+      return this.padded.getText();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+      this.cleanable.clean();
+    }
+
+  }
+
+  /**
+   * Apaga um arquivo temporário. Não guarda a origem, para não impedir que ela
+   * seja coletada.
+   * 
+   * @author bernardobreder
+   */
+  private static class Delete implements Runnable {
+
+    /** Arquivo */
+    private final Path path;
+
+    /**
+     * Construtor
+     * 
+     * @param path
+     */
+    public Delete(Path path) {
+      this.path = path;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      try {
+        Files.deleteIfExists(this.path);
+      }
+      catch (IOException e) {
+      }
+    }
+
+  }
+
+  /**
+   * Bytes de um buffer
+   * 
+   * @author bernardobreder
+   */
+  private static class BufferSource extends XmlContentSource {
+
+    /** Buffer, com a posição no início dos bytes */
+    private final ByteBuffer buffer;
+
+    /**
+     * Construtor
+     * 
+     * @param buffer
+     */
+    public BufferSource(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+      return this.buffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openStream() {
+      final ByteBuffer buffer = this.buffer.duplicate();
+      return new InputStream() {
+
+        @Override
+        public int read() {
+          return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+          if (!buffer.hasRemaining()) {
+            return len == 0 ? 0 : -1;
+          }
+          len = Math.min(len, buffer.remaining());
+          buffer.get(bytes, off, len);
+          return len;
+        }
+
+        @Override
+        public int available() {
+          return buffer.remaining();
+        }
+
+      };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+      ByteBuffer buffer = this.buffer.duplicate();
+      if (buffer.hasArray()) {
+        output.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+        return;
+      }
+      WritableByteChannel target = Channels.newChannel(output);
+      while (buffer.hasRemaining()) {
+        target.write(buffer);
+      }
+    }
+
+  }
+
+  /**
+   * Bytes de um fornecedor de streams
+   * 
+   * @author bernardobreder
+   */
+  private static class StreamSource extends XmlContentSource {
+
+    /** Fornecedor */
+    private final Callable<InputStream> supplier;
+    /** Tamanho ou -1 */
+    private final long length;
+
+    /**
+     * Construtor
+     * 
+     * @param supplier
+     * @param length
+     */
+    public StreamSource(Callable<InputStream> supplier, long length) {
+      this.supplier = supplier;
+      this.length = length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+      return this.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openStream() throws IOException {
+      try {
+        return this.supplier.call();
+      }
+      catch (IOException e) {
+        throw e;
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+
+  }
+
+  /**
+   * Stream limitado a uma quantidade de bytes
+   * 
+   * @author bernardobreder
+   */
+  private static class LimitedInputStream extends InputStream {
+
+    /** Stream */
+    private final InputStream input;
+    /** Bytes que faltam */
+    private long remaining;
+
+    /**
+     * Construtor
+     * 
+     * @param input
+     * @param remaining
+     */
+    public LimitedInputStream(InputStream input, long remaining) {
+      this.input = input;
+      this.remaining = remaining;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+      int c = this.input.read();
+      if (c >= 0) {
+        this.remaining--;
+      }
+      return c;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+      if (this.remaining <= 0) {
+        return len == 0 ? 0 : -1;
+      }
+      int n = this.input.read(bytes, off, (int) Math.min(len, this.remaining));
+      if (n > 0) {
+        this.remaining -= n;
+      }
+      return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+      this.input.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,489 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Documento Xml guardado em vetores de primitivos, como alternativa compacta
+ * à árvore de {@link XmlNode}. Cada tag é um índice nos vetores de nome, pai,
+ * primeiro filho e próximo irmão; os atributos ficam numa tabela única e os
+ * textos num único vetor de chars. Os textos da própria tag, entre os filhos,
+ * são delimitados pelas posições de texto da tag e dos filhos. O acesso é
+ * feito pelos índices ou pela visão {@link XmlElement}, que tem as mesmas
+ * consultas do {@link XmlNode}.
+ * 
+ * O documento é somente leitura.
+ * 
+ * @author bernardobreder
+ */
+public class XmlDocument {
+
+  /** Tamanho inicial do buffer de leitura de streams */
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Quantidade de tags */
+  private int count;
+  /** Nomes distintos */
+  private String[] names = new String[16];
+  /** Quantidade de nomes distintos */
+  private int nameCount;
+  /** Índice de cada nome */
+  private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+  /** Nome de cada tag */
+  private int[] nameId = new int[64];
+  /** Pai de cada tag */
+  private int[] parent = new int[64];
+  /** Primeiro filho de cada tag */
+  private int[] firstChild = new int[64];
+  /** Próximo irmão de cada tag */
+  private int[] nextSibling = new int[64];
+  /** Primeiro atributo de cada tag, com uma posição a mais no fim */
+  private int[] attributeStart = new int[65];
+  /** Início do texto da tag e dos descendentes */
+  private int[] textStart = new int[64];
+  /** Fim do texto da tag e dos descendentes */
+  private int[] textEnd = new int[64];
+  /** Quantidade de atributos */
+  private int attributeCount;
+  /** Nome de cada atributo */
+  private int[] attributeName = new int[64];
+  /** Início do valor de cada atributo */
+  private int[] valueStart = new int[64];
+  /** Tamanho do valor de cada atributo */
+  private int[] valueLength = new int[64];
+  /** Valores dos atributos */
+  private char[] values = new char[256];
+  /** Quantidade de chars dos valores */
+  private int valuesLength;
+  /** Textos de todas as tags, na ordem do documento */
+  private char[] text = new char[256];
+  /** Quantidade de chars dos textos */
+  private int textLength;
+
+  /**
+   * Construtor
+   * 
+   * @param tokenizer
+   * @throws ParseException
+   * @throws IOException
+   */
+  private XmlDocument(XmlTokenizer tokenizer) throws ParseException,
+    IOException {
+    int[] stack = new int[16];
+    int[] lastChild = new int[64];
+    int depth = 0;
+    for (int event; (event = tokenizer.next()) != XmlTokenizer.END_DOCUMENT;) {
+      if (event == XmlTokenizer.START_ELEMENT) {
+        int index = this.count++;
+        if (index == this.nameId.length) {
+          this.grow();
+          lastChild = Arrays.copyOf(lastChild, this.nameId.length);
+        }
+        int top = depth == 0 ? -1 : stack[depth - 1];
+        this.nameId[index] = this.id(tokenizer.getName());
+        this.parent[index] = top;
+        this.firstChild[index] = -1;
+        this.nextSibling[index] = -1;
+        lastChild[index] = -1;
+        if (top >= 0) {
+          if (lastChild[top] < 0) {
+            this.firstChild[top] = index;
+          }
+          else {
+            this.nextSibling[lastChild[top]] = index;
+          }
+          lastChild[top] = index;
+        }
+        this.attributeStart[index] = this.attributeCount;
+        int size = tokenizer.getAttributeCount();
+        for (int n = 0; n < size; n++) {
+          this.addAttribute(tokenizer.getAttributeName(n), tokenizer
+            .getAttributeValue(n));
+        }
+        this.textStart[index] = this.textLength;
+        if (depth == stack.length) {
+          stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = index;
+      }
+      else if (event == XmlTokenizer.END_ELEMENT) {
+        this.textEnd[stack[--depth]] = this.textLength;
+      }
+      else {
+        int length = tokenizer.decodeText();
+        if (this.textLength + length > this.text.length) {
+          this.text =
+            Arrays.copyOf(this.text, Math.max(this.textLength + length,
+              this.text.length * 2));
+        }
+        System.arraycopy(tokenizer.getChars(), 0, this.text, this.textLength,
+          length);
+        this.textLength += length;
+      }
+    }
+    this.attributeStart[this.count] = this.attributeCount;
+    this.trim();
+  }
+
+  /**
+   * Faz o parse de bytes em UTF-8
+   * 
+   * @param bytes
+   * @return documento
+   * @throws ParseException
+   */
+  public static XmlDocument parse(byte[] bytes) throws ParseException {
+    return parse(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Faz o parse dos bytes em UTF-8 entre a posição e o limite do buffer
+   * 
+   * @param buffer
+   * @return documento
+   * @throws ParseException
+   */
+  public static XmlDocument parse(ByteBuffer buffer) throws ParseException {
+    try {
+      return new XmlDocument(new XmlTokenizer(buffer));
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Faz o parse de um stream em UTF-8
+   * 
+   * @param input
+   * @return documento
+   * @throws ParseException
+   * @throws IOException
+   */
+  public static XmlDocument parse(InputStream input) throws ParseException,
+    IOException {
+    return new XmlDocument(new XmlTokenizer(input, BUFFER_SIZE));
+  }
+
+  /**
+   * Faz o parse de um arquivo em UTF-8, mapeado em memória
+   * 
+   * @param path
+   * @return documento
+   * @throws ParseException
+   * @throws IOException
+   */
+  public static XmlDocument parse(Path path) throws ParseException,
+    IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new XmlDocument(new XmlTokenizer(channel, XmlTokenizer.WINDOW));
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * @return tag raiz
+   */
+  public XmlElement getRoot() {
+    return new XmlElement(this, 0);
+  }
+
+  /**
+   * @return quantidade de tags
+   */
+  public int getElementCount() {
+    return this.count;
+  }
+
+  /**
+   * @param element
+   * @return nome da tag
+   */
+  public String getName(int element) {
+    return this.names[this.nameId[element]];
+  }
+
+  /**
+   * @param element
+   * @return pai da tag ou -1 se for a raiz
+   */
+  public int getParent(int element) {
+    return this.parent[element];
+  }
+
+  /**
+   * @param element
+   * @return primeiro filho da tag ou -1 se não tiver
+   */
+  public int getFirstChild(int element) {
+    return this.firstChild[element];
+  }
+
+  /**
+   * @param element
+   * @return próximo irmão da tag ou -1 se não tiver
+   */
+  public int getNextSibling(int element) {
+    return this.nextSibling[element];
+  }
+
+  /**
+   * Indica se a tag tem o nome, sem criar objetos
+   * 
+   * @param element
+   * @param name
+   * @return tem o nome
+   */
+  public boolean isName(int element, String name) {
+    String value = this.names[this.nameId[element]];
+    return value == name || value.equals(name);
+  }
+
+  /**
+   * @param element
+   * @return quantidade de atributos da tag
+   */
+  public int getAttributeCount(int element) {
+    return this.attributeStart[element + 1] - this.attributeStart[element];
+  }
+
+  /**
+   * @param element
+   * @param index
+   * @return nome do atributo
+   */
+  public String getAttributeName(int element, int index) {
+    return this.names[this.attributeName[this.attributeStart[element] + index]];
+  }
+
+  /**
+   * @param element
+   * @param index
+   * @return valor do atributo
+   */
+  public String getAttributeValue(int element, int index) {
+    int attribute = this.attributeStart[element] + index;
+    return new String(this.values, this.valueStart[attribute],
+      this.valueLength[attribute]);
+  }
+
+  /**
+   * Procura um atributo da tag
+   * 
+   * @param element
+   * @param name
+   * @return índice do atributo na tag ou -1 se não tiver
+   */
+  public int getAttributeIndex(int element, String name) {
+    Integer id = this.nameIds.get(name);
+    if (id == null) {
+      return -1;
+    }
+    int start = this.attributeStart[element];
+    int end = this.attributeStart[element + 1];
+    for (int n = start; n < end; n++) {
+      if (this.attributeName[n] == id.intValue()) {
+        return n - start;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param element
+   * @param name
+   * @return valor do atributo ou null
+   */
+  public String getAttribute(int element, String name) {
+    int index = this.getAttributeIndex(element, name);
+    return index < 0 ? null : this.getAttributeValue(element, index);
+  }
+
+  /**
+   * Compara o valor de um atributo sem criar objetos
+   * 
+   * @param element
+   * @param name
+   * @param value
+   * @return indica se o atributo existe e tem o valor
+   */
+  public boolean isAttribute(int element, String name, String value) {
+    int index = this.getAttributeIndex(element, name);
+    if (index < 0) {
+      return false;
+    }
+    int attribute = this.attributeStart[element] + index;
+    int length = this.valueLength[attribute];
+    if (length != value.length()) {
+      return false;
+    }
+    int start = this.valueStart[attribute];
+    for (int n = 0; n < length; n++) {
+      if (this.values[start + n] != value.charAt(n)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Conteúdo da tag: o texto da tag e dos descendentes, sem os espaços das
+   * pontas.
+   * 
+   * @param element
+   * @return conteúdo ou null se vazio
+   */
+  public String getContent(int element) {
+    int begin = this.textStart[element];
+    int end = this.textEnd[element];
+    while (begin < end && this.text[begin] <= ' ') {
+      begin++;
+    }
+    while (end > begin && this.text[end - 1] <= ' ') {
+      end--;
+    }
+    if (begin == end) {
+      return null;
+    }
+    return new String(this.text, begin, end - begin);
+  }
+
+  /**
+   * Texto da própria tag que fica antes do filho do índice, como em
+   * {@link XmlNode#getText(int)}. O índice igual à quantidade de filhos
+   * retorna o texto depois do último filho. Percorre os filhos até o índice.
+   * 
+   * @param element
+   * @param index
+   * @return texto ou null se vazio
+   */
+  public String getText(int element, int index) {
+    int begin = this.textStart[element];
+    int child = this.firstChild[element];
+    for (int n = 0; n < index; n++) {
+      if (child < 0) {
+        return null;
+      }
+      begin = this.textEnd[child];
+      child = this.nextSibling[child];
+    }
+    return this.text(begin, child < 0 ? this.textEnd[element]
+      : this.textStart[child]);
+  }
+
+  /**
+   * @param element
+   * @return início do texto da tag e dos descendentes
+   */
+  int getTextStart(int element) {
+    return this.textStart[element];
+  }
+
+  /**
+   * @param element
+   * @return fim do texto da tag e dos descendentes
+   */
+  int getTextEnd(int element) {
+    return this.textEnd[element];
+  }
+
+  /**
+   * @param begin
+   * @param end
+   * @return trecho dos textos ou null se vazio
+   */
+  String text(int begin, int end) {
+    return begin == end ? null : new String(this.text, begin, end - begin);
+  }
+
+  /**
+   * Retorna o índice de um nome, registrando se for novo
+   * 
+   * @param name
+   * @return índice
+   */
+  private int id(String name) {
+    Integer id = this.nameIds.get(name);
+    if (id == null) {
+      if (this.nameCount == this.names.length) {
+        this.names = Arrays.copyOf(this.names, this.nameCount * 2);
+      }
+      id = this.nameCount;
+      this.names[this.nameCount++] = name;
+      this.nameIds.put(name, id);
+    }
+    return id.intValue();
+  }
+
+  /**
+   * Acrescenta um atributo na tabela
+   * 
+   * @param name
+   * @param value
+   */
+  private void addAttribute(String name, String value) {
+    int index = this.attributeCount++;
+    if (index == this.attributeName.length) {
+      int size = index * 2;
+      this.attributeName = Arrays.copyOf(this.attributeName, size);
+      this.valueStart = Arrays.copyOf(this.valueStart, size);
+      this.valueLength = Arrays.copyOf(this.valueLength, size);
+    }
+    int length = value.length();
+    if (this.valuesLength + length > this.values.length) {
+      this.values =
+        Arrays.copyOf(this.values, Math.max(this.valuesLength + length,
+          this.values.length * 2));
+    }
+    value.getChars(0, length, this.values, this.valuesLength);
+    this.attributeName[index] = this.id(name);
+    this.valueStart[index] = this.valuesLength;
+    this.valueLength[index] = length;
+    this.valuesLength += length;
+  }
+
+  /**
+   * Dobra a capacidade dos vetores das tags
+   */
+  private void grow() {
+    int size = this.nameId.length * 2;
+    this.nameId = Arrays.copyOf(this.nameId, size);
+    this.parent = Arrays.copyOf(this.parent, size);
+    this.firstChild = Arrays.copyOf(this.firstChild, size);
+    this.nextSibling = Arrays.copyOf(this.nextSibling, size);
+    this.attributeStart = Arrays.copyOf(this.attributeStart, size + 1);
+    this.textStart = Arrays.copyOf(this.textStart, size);
+    this.textEnd = Arrays.copyOf(this.textEnd, size);
+  }
+
+  /**
+   * Libera a capacidade não usada dos vetores
+   */
+  private void trim() {
+    int size = this.count;
+    this.nameId = Arrays.copyOf(this.nameId, size);
+    this.parent = Arrays.copyOf(this.parent, size);
+    this.firstChild = Arrays.copyOf(this.firstChild, size);
+    this.nextSibling = Arrays.copyOf(this.nextSibling, size);
+    this.attributeStart = Arrays.copyOf(this.attributeStart, size + 1);
+    this.textStart = Arrays.copyOf(this.textStart, size);
+    this.textEnd = Arrays.copyOf(this.textEnd, size);
+    this.attributeName = Arrays.copyOf(this.attributeName, this.attributeCount);
+    this.valueStart = Arrays.copyOf(this.valueStart, this.attributeCount);
+    this.valueLength = Arrays.copyOf(this.valueLength, this.attributeCount);
+    this.values = Arrays.copyOf(this.values, this.valuesLength);
+    this.text = Arrays.copyOf(this.text, this.textLength);
+  }
+
+}
@@ -0,0 +1,622 @@
+package org.breder.xml;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Visão de uma tag de um {@link XmlDocument}. Guarda apenas o documento e o
+ * índice da tag, então criar uma visão é barato e nada é copiado até que um
+ * valor seja pedido. Tem as mesmas consultas do {@link XmlNode}, mas é
+ * somente leitura; para editar, use {@link #toXmlNode()}.
+ * 
+ * @author bernardobreder
+ */
+public final class XmlElement {
+
+  /** Filtro pelo nome da tag */
+  private static final int TAG_NAME = 0;
+  /** Filtro pelo valor igual do atributo */
+  private static final int ATTRIBUTE_VALUE = 1;
+  /** Filtro pela existência do atributo */
+  private static final int ATTRIBUTE_KEY = 2;
+  /** Filtro pelo valor do atributo que contém o texto */
+  private static final int ATTRIBUTE_CONTAIN_VALUE = 3;
+
+  /** Documento */
+  private final XmlDocument document;
+  /** Índice da tag no documento */
+  private final int index;
+
+  /**
+   * Construtor
+   * 
+   * @param document
+   * @param index
+   */
+  XmlElement(XmlDocument document, int index) {
+    this.document = document;
+    this.index = index;
+  }
+
+  /**
+   * @return documento
+   */
+  public XmlDocument getDocument() {
+    return this.document;
+  }
+
+  /**
+   * @return índice da tag no documento
+   */
+  public int getIndex() {
+    return this.index;
+  }
+
+  /**
+   * @return the name
+   */
+  public String getName() {
+    return this.document.getName(this.index);
+  }
+
+  /**
+   * Cria um mapa com os atributos, na ordem do documento
+   * 
+   * @return the attributes ou null se não tiver
+   */
+  public Map<String, String> getAttributes() {
+    int size = this.document.getAttributeCount(this.index);
+    if (size == 0) {
+      return null;
+    }
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    for (int n = 0; n < size; n++) {
+      map.put(this.document.getAttributeName(this.index, n), this.document
+        .getAttributeValue(this.index, n));
+    }
+    return map;
+  }
+
+  /**
+   * Indica se tem o atributo
+   * 
+   * @param attribute
+   * @return tem o atributo
+   */
+  public boolean hasAttribute(String attribute) {
+    return this.document.getAttributeIndex(this.index, attribute) >= 0;
+  }
+
+  /**
+   * @param attribute
+   * @return valor do atributo ou null
+   */
+  public String getAttribute(String attribute) {
+    return this.document.getAttribute(this.index, attribute);
+  }
+
+  /**
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   */
+  public String getAttribute(String attribute, String defaultValue) {
+    String value = this.getAttribute(attribute);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   */
+  public Integer getAttribute(String attribute, Integer defaultValue) {
+    try {
+      return Integer.valueOf(this.getAttribute(attribute));
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   */
+  public Long getAttribute(String attribute, Long defaultValue) {
+    try {
+      return Long.valueOf(this.getAttribute(attribute));
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   */
+  public Double getAttribute(String attribute, Double defaultValue) {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.valueOf(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   */
+  public Float getAttribute(String attribute, Float defaultValue) {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Float.valueOf(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   */
+  public Boolean getAttribute(String attribute, Boolean defaultValue) {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    return Boolean.valueOf(value);
+  }
+
+  /**
+   * @return the content
+   */
+  public String getContent() {
+    return this.document.getContent(this.index);
+  }
+
+  /**
+   * Texto da própria tag que fica antes do filho do índice
+   * 
+   * @param index
+   * @return texto ou null
+   * @see XmlNode#getText(int)
+   */
+  public String getText(int index) {
+    return this.document.getText(this.index, index);
+  }
+
+  /**
+   * @return the parent ou null se for a raiz
+   */
+  public XmlElement getParent() {
+    int parent = this.document.getParent(this.index);
+    return parent < 0 ? null : new XmlElement(this.document, parent);
+  }
+
+  /**
+   * @return the nodes ou null se não tiver filhos
+   */
+  public List<XmlElement> getNodes() {
+    int child = this.document.getFirstChild(this.index);
+    if (child < 0) {
+      return null;
+    }
+    List<XmlElement> list = new ArrayList<XmlElement>();
+    for (; child >= 0; child = this.document.getNextSibling(child)) {
+      list.add(new XmlElement(this.document, child));
+    }
+    return list;
+  }
+
+  /**
+   * @return quantidade de filhos
+   */
+  public int getNodeCount() {
+    int count = 0;
+    for (int child = this.document.getFirstChild(this.index); child >= 0;
+      child = this.document.getNextSibling(child)) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Indica se tem filho
+   * 
+   * @return se tem filho
+   */
+  public boolean hasNodes() {
+    return this.document.getFirstChild(this.index) >= 0;
+  }
+
+  /**
+   * @param name
+   * @return the nodes
+   */
+  public List<XmlElement> getNodesByTagName(String name) {
+    return this.find(TAG_NAME, name, null, false);
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the nodes
+   */
+  public List<XmlElement> getNodesByAttributeValue(String attribute,
+    String value) {
+    return this.find(ATTRIBUTE_VALUE, attribute, value, false);
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the nodes
+   */
+  public List<XmlElement> getNodesByAttributeKey(String attribute,
+    String value) {
+    return this.find(ATTRIBUTE_KEY, attribute, value, false);
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the nodes
+   */
+  public List<XmlElement> getNodesByAttributeContainValue(String attribute,
+    String value) {
+    return this.find(ATTRIBUTE_CONTAIN_VALUE, attribute, value, false);
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the nodes
+   */
+  public List<XmlElement> getNodesByAttributeMatchValue(String attribute,
+    String value) {
+    return this.match(attribute, XmlPatterns.compile(value), false);
+  }
+
+  /**
+   * @param attribute
+   * @param pattern
+   * @return the nodes
+   */
+  public List<XmlElement> getNodesByAttributeMatchValue(String attribute,
+    Pattern pattern) {
+    return this.match(attribute, pattern, false);
+  }
+
+  /**
+   * @param name
+   * @return the node
+   */
+  public XmlElement getNodeByTagName(String name) {
+    return first(this.find(TAG_NAME, name, null, true));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the node
+   */
+  public XmlElement getNodeByAttributeValue(String attribute, String value) {
+    return first(this.find(ATTRIBUTE_VALUE, attribute, value, true));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the node
+   */
+  public XmlElement getNodeByAttributeKey(String attribute, String value) {
+    return first(this.find(ATTRIBUTE_KEY, attribute, value, true));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the node
+   */
+  public XmlElement getNodeByAttributeContainValue(String attribute,
+    String value) {
+    return first(this.find(ATTRIBUTE_CONTAIN_VALUE, attribute, value, true));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the node
+   */
+  public XmlElement getNodeByAttributeMatchValue(String attribute,
+    String value) {
+    return first(this.match(attribute, XmlPatterns.compile(value), true));
+  }
+
+  /**
+   * @param attribute
+   * @param pattern
+   * @return the node
+   */
+  public XmlElement getNodeByAttributeMatchValue(String attribute,
+    Pattern pattern) {
+    return first(this.match(attribute, pattern, true));
+  }
+
+  /**
+   * Copia a tag e seus descendentes para uma árvore de {@link XmlNode},
+   * com os textos da própria tag entre os filhos. Percorre os índices de
+   * pai e irmão, sem recursão.
+   * 
+   * @return tag
+   */
+  public XmlNode toXmlNode() {
+    List<List<XmlNode>> stack = new ArrayList<List<XmlNode>>();
+    int element = this.index;
+    for (;;) {
+      int child = this.document.getFirstChild(element);
+      if (child >= 0) {
+        stack.add(new ArrayList<XmlNode>());
+        element = child;
+        continue;
+      }
+      XmlNode node = this.toXmlNode(element, null);
+      while (element != this.index
+        && this.document.getNextSibling(element) < 0) {
+        stack.get(stack.size() - 1).add(node);
+        element = this.document.getParent(element);
+        node = this.toXmlNode(element, stack.remove(stack.size() - 1));
+      }
+      if (element == this.index) {
+        return node;
+      }
+      stack.get(stack.size() - 1).add(node);
+      element = this.document.getNextSibling(element);
+    }
+  }
+
+  /**
+   * Cria a {@link XmlNode} de uma tag com os filhos já criados
+   * 
+   * @param element
+   * @param nodes filhos ou null
+   * @return tag
+   */
+  private XmlNode toXmlNode(int element, List<XmlNode> nodes) {
+    XmlNode node = new XmlNode(this.document.getName(element));
+    int size = this.document.getAttributeCount(element);
+    XmlAttributes attributes = null;
+    if (size > 0) {
+      attributes = new XmlAttributes(size);
+      for (int n = 0; n < size; n++) {
+        attributes.put(this.document.getAttributeName(element, n),
+          this.document.getAttributeValue(element, n));
+      }
+    }
+    if (nodes == null) {
+      node.assemble(attributes, null, null, this.document
+        .getContent(element));
+      return node;
+    }
+    String[] texts = null;
+    int position = this.document.getTextStart(element);
+    int n = 0;
+    for (int child = this.document.getFirstChild(element); child >= 0;
+      child = this.document.getNextSibling(child), n++) {
+      String text =
+        this.document.text(position, this.document.getTextStart(child));
+      if (text != null) {
+        if (texts == null) {
+          texts = new String[nodes.size() + 1];
+        }
+        texts[n] = text;
+      }
+      position = this.document.getTextEnd(child);
+    }
+    String text =
+      this.document.text(position, this.document.getTextEnd(element));
+    if (text != null) {
+      if (texts == null) {
+        texts = new String[nodes.size() + 1];
+      }
+      texts[n] = text;
+    }
+    node.assemble(attributes, nodes, texts, null);
+    return node;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    int element = this.index;
+    for (;;) {
+      this.appendHead(sb, element);
+      int child = this.document.getFirstChild(element);
+      if (child >= 0) {
+        appendText(sb, this.document.text(this.document
+          .getTextStart(element), this.document.getTextStart(child)));
+        element = child;
+        continue;
+      }
+      String content = this.document.getContent(element);
+      if (content != null) {
+        sb.append(content);
+      }
+      sb.append("</").append(this.document.getName(element)).append('>');
+      while (element != this.index
+        && this.document.getNextSibling(element) < 0) {
+        int parent = this.document.getParent(element);
+        appendText(sb, this.document.text(this.document.getTextEnd(element),
+          this.document.getTextEnd(parent)));
+        sb.append("</").append(this.document.getName(parent)).append('>');
+        element = parent;
+      }
+      if (element == this.index) {
+        return sb.toString();
+      }
+      int next = this.document.getNextSibling(element);
+      appendText(sb, this.document.text(this.document.getTextEnd(element),
+        this.document.getTextStart(next)));
+      element = next;
+    }
+  }
+
+  /**
+   * Escreve a abertura da tag no mesmo formato do {@link XmlNode#toString()}
+   * 
+   * @param sb
+   * @param element
+   */
+  private void appendHead(StringBuilder sb, int element) {
+    sb.append('<').append(this.document.getName(element));
+    int size = this.document.getAttributeCount(element);
+    for (int n = 0; n < size; n++) {
+      sb.append(' ').append(this.document.getAttributeName(element, n));
+      sb.append('=').append('\"');
+      sb.append(this.document.getAttributeValue(element, n)).append('\"');
+    }
+    sb.append('>');
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(this.document) + this.index;
+  }
+
+  /**
+   * Duas visões são iguais se apontam para a mesma tag do mesmo documento
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof XmlElement)) {
+      return false;
+    }
+    XmlElement other = (XmlElement) obj;
+    return this.document == other.document && this.index == other.index;
+  }
+
+  /**
+   * Procura os filhos que atendem o filtro
+   * 
+   * @param filter
+   * @param key nome da tag ou do atributo
+   * @param value
+   * @param single para na primeira encontrada
+   * @return tags encontradas
+   */
+  private List<XmlElement> find(int filter, String key, String value,
+    boolean single) {
+    List<XmlElement> list = new ArrayList<XmlElement>();
+    for (int child = this.document.getFirstChild(this.index); child >= 0;
+      child = this.document.getNextSibling(child)) {
+      if (this.accept(child, filter, key, value)) {
+        list.add(new XmlElement(this.document, child));
+        if (single) {
+          break;
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Indica se a tag atende o filtro
+   * 
+   * @param element
+   * @param filter
+   * @param key
+   * @param value
+   * @return atende o filtro
+   */
+  private boolean accept(int element, int filter, String key, String value) {
+    switch (filter) {
+      case TAG_NAME:
+        return this.document.isName(element, key);
+      case ATTRIBUTE_VALUE:
+        return this.document.isAttribute(element, key, value);
+      case ATTRIBUTE_KEY:
+        return this.document.getAttributeIndex(element, key) >= 0;
+      default:
+        String attValue = this.document.getAttribute(element, key);
+        return attValue != null && attValue.contains(value);
+    }
+  }
+
+  /**
+   * Procura os filhos cujo valor do atributo casa com a expressão, usando um
+   * único Matcher
+   * 
+   * @param attribute
+   * @param pattern
+   * @param single para na primeira encontrada
+   * @return tags encontradas
+   */
+  private List<XmlElement> match(String attribute, Pattern pattern,
+    boolean single) {
+    List<XmlElement> list = new ArrayList<XmlElement>();
+    Matcher matcher = pattern.matcher("");
+    for (int child = this.document.getFirstChild(this.index); child >= 0;
+      child = this.document.getNextSibling(child)) {
+      String attValue = this.document.getAttribute(child, attribute);
+      if (attValue != null && matcher.reset(attValue).matches()) {
+        list.add(new XmlElement(this.document, child));
+        if (single) {
+          break;
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Acrescenta um texto da própria tag, pulando os vazios e os só de espaços
+   * como o {@link XmlNode#toString()}
+   * 
+   * @param sb
+   * @param text
+   */
+  private static void appendText(StringBuilder sb, String text) {
+    if (text != null && !XmlNode.isBlank(text)) {
+      sb.append(text);
+    }
+  }
+
+  /**
+   * @param list
+   * @return primeiro da lista ou null
+   */
+  private static XmlElement first(List<XmlElement> list) {
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+}
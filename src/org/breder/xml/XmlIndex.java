@@ -0,0 +1,301 @@
+package org.breder.xml;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice de uma árvore de {@link XmlNode} pelo nome das tags e pelos
+ * atributos de todos os descendentes. As consultas custam uma busca em tabela
+ * hash em vez de percorrer os filhos, e as listas seguem a ordem em que as
+ * tags entraram no índice.
+ * 
+ * O índice é opcional e se mantém atualizado pelo {@link XmlNode#addNode},
+ * {@link XmlNode#setAttribute} e {@link XmlNode#setName} das tags indexadas.
+ * Alterações feitas direto nas coleções de {@link XmlNode#getNodes()} e
+ * {@link XmlNode#getAttributes()} não são vistas. Uma tag pertence a um único
+ * índice e sai dele quando é adicionada a outra árvore; não é sincronizado.
+ * 
+ * @author bernardobreder
+ */
+public class XmlIndex {
+
+  /** Tag raiz */
+  private final XmlNode root;
+  /** Tags por nome */
+  private final Map<String, List<XmlNode>> tags =
+    new HashMap<String, List<XmlNode>>();
+  /** Tags por nome de atributo */
+  private final Map<String, List<XmlNode>> keys =
+    new HashMap<String, List<XmlNode>>();
+  /** Tags por nome e valor de atributo */
+  private final Map<String, Map<String, List<XmlNode>>> values =
+    new HashMap<String, Map<String, List<XmlNode>>>();
+
+  /**
+   * Construtor. Indexa a raiz e todos os descendentes.
+   * 
+   * @param root
+   */
+  public XmlIndex(XmlNode root) {
+    this.root = root;
+    this.add(root);
+  }
+
+  /**
+   * @return tag raiz
+   */
+  public XmlNode getRoot() {
+    return this.root;
+  }
+
+  /**
+   * @param name
+   * @return tags com o nome
+   */
+  public List<XmlNode> getNodesByTagName(String name) {
+    return view(this.tags.get(name));
+  }
+
+  /**
+   * @param name
+   * @return primeira tag com o nome ou null
+   */
+  public XmlNode getNodeByTagName(String name) {
+    return first(this.tags.get(name));
+  }
+
+  /**
+   * @param attribute
+   * @return tags que têm o atributo
+   */
+  public List<XmlNode> getNodesByAttributeKey(String attribute) {
+    return view(this.keys.get(attribute));
+  }
+
+  /**
+   * @param attribute
+   * @return primeira tag que tem o atributo ou null
+   */
+  public XmlNode getNodeByAttributeKey(String attribute) {
+    return first(this.keys.get(attribute));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return tags com o valor do atributo
+   */
+  public List<XmlNode> getNodesByAttributeValue(String attribute, String value) {
+    Map<String, List<XmlNode>> map = this.values.get(attribute);
+    return view(map == null ? null : map.get(value));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return primeira tag com o valor do atributo ou null
+   */
+  public XmlNode getNodeByAttributeValue(String attribute, String value) {
+    Map<String, List<XmlNode>> map = this.values.get(attribute);
+    return first(map == null ? null : map.get(value));
+  }
+
+  /**
+   * Desliga o índice das tags, que deixam de avisá-lo das alterações
+   */
+  public void dispose() {
+    for (List<XmlNode> list : this.tags.values()) {
+      for (XmlNode node : list) {
+        if (node.getIndex() == this) {
+          node.setIndex(null);
+        }
+      }
+    }
+    this.tags.clear();
+    this.keys.clear();
+    this.values.clear();
+  }
+
+  /**
+   * Indexa a tag e seus descendentes
+   * 
+   * @param node
+   */
+  void add(XmlNode node) {
+    Deque<XmlNode> stack = new ArrayDeque<XmlNode>();
+    stack.push(node);
+    while (!stack.isEmpty()) {
+      XmlNode current = stack.pop();
+      XmlIndex index = current.getIndex();
+      if (index == this) {
+        continue;
+      }
+      if (index != null) {
+        index.forget(current);
+      }
+      current.setIndex(this);
+      put(this.tags, current.getName(), current);
+      Map<String, String> attributes = current.getAttributes();
+      if (attributes != null) {
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+          this.attributeChanged(current, entry.getKey(), null, entry
+            .getValue());
+        }
+      }
+      List<XmlNode> nodes = current.getNodes();
+      if (nodes != null) {
+        for (int n = nodes.size() - 1; n >= 0; n--) {
+          stack.push(nodes.get(n));
+        }
+      }
+    }
+  }
+
+  /**
+   * Retira a tag e seus descendentes do índice
+   * 
+   * @param node
+   */
+  void remove(XmlNode node) {
+    Deque<XmlNode> stack = new ArrayDeque<XmlNode>();
+    stack.push(node);
+    while (!stack.isEmpty()) {
+      XmlNode current = stack.pop();
+      if (current.getIndex() == this) {
+        this.forget(current);
+      }
+      List<XmlNode> nodes = current.getNodes();
+      if (nodes != null) {
+        for (int n = nodes.size() - 1; n >= 0; n--) {
+          stack.push(nodes.get(n));
+        }
+      }
+    }
+  }
+
+  /**
+   * Retira a tag do índice, sem os descendentes
+   * 
+   * @param node
+   */
+  private void forget(XmlNode node) {
+    remove(this.tags, node.getName(), node);
+    Map<String, String> attributes = node.getAttributes();
+    if (attributes != null) {
+      for (Map.Entry<String, String> entry : attributes.entrySet()) {
+        this.attributeChanged(node, entry.getKey(), entry.getValue(), null);
+      }
+    }
+    node.setIndex(null);
+  }
+
+  /**
+   * Atualiza o índice com a troca do valor de um atributo
+   * 
+   * @param node
+   * @param key
+   * @param oldValue valor anterior ou null
+   * @param newValue valor novo ou null
+   */
+  void attributeChanged(XmlNode node, String key, String oldValue,
+    String newValue) {
+    if (oldValue != null && oldValue.equals(newValue)) {
+      return;
+    }
+    Map<String, List<XmlNode>> map = this.values.get(key);
+    if (oldValue != null) {
+      remove(map, oldValue, node);
+      if (newValue == null) {
+        remove(this.keys, key, node);
+      }
+    }
+    else if (newValue != null) {
+      put(this.keys, key, node);
+    }
+    if (newValue != null) {
+      if (map == null) {
+        map = new HashMap<String, List<XmlNode>>();
+        this.values.put(key, map);
+      }
+      put(map, newValue, node);
+    }
+  }
+
+  /**
+   * Atualiza o índice com a troca do nome de uma tag
+   * 
+   * @param node
+   * @param oldName
+   * @param newName
+   */
+  void nameChanged(XmlNode node, String oldName, String newName) {
+    remove(this.tags, oldName, node);
+    put(this.tags, newName, node);
+  }
+
+  /**
+   * Acrescenta a tag na lista da chave
+   * 
+   * @param map
+   * @param key
+   * @param node
+   */
+  private static void put(Map<String, List<XmlNode>> map, String key,
+    XmlNode node) {
+    List<XmlNode> list = map.get(key);
+    if (list == null) {
+      list = new ArrayList<XmlNode>(1);
+      map.put(key, list);
+    }
+    list.add(node);
+  }
+
+  /**
+   * Retira a tag da lista da chave, comparando por identidade
+   * 
+   * @param map
+   * @param key
+   * @param node
+   */
+  private static void remove(Map<String, List<XmlNode>> map, String key,
+    XmlNode node) {
+    List<XmlNode> list = map == null ? null : map.get(key);
+    if (list == null) {
+      return;
+    }
+    for (int n = list.size() - 1; n >= 0; n--) {
+      if (list.get(n) == node) {
+        list.remove(n);
+        break;
+      }
+    }
+    if (list.isEmpty()) {
+      map.remove(key);
+    }
+  }
+
+  /**
+   * @param list
+   * @return visão somente leitura da lista
+   */
+  private static List<XmlNode> view(List<XmlNode> list) {
+    if (list == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * @param list
+   * @return primeira tag da lista ou null
+   */
+  private static XmlNode first(List<XmlNode> list) {
+    return list == null ? null : list.get(0);
+  }
+
+}
@@ -1,32 +1,21 @@
 package org.breder.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.Locator;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Estrutura simples de Xml para fazer parse. O parse pode ser feito pelo
@@ -37,6 +26,12 @@ import org.xml.sax.helpers.DefaultHandler;
  */
 public class XmlNode {
 
+  /**
+   * Textos só de espaços compartilhados entre os parses, numa tabela própria
+   * para não ocupar o limite da tabela de nomes
+   */
+  private static final XmlSymbolTable BLANKS = new XmlSymbolTable(1024);
+
   /** Node pai */
   private XmlNode parent;
   /** Nome da tag */
@@ -47,6 +42,22 @@ public class XmlNode {
   private List<XmlNode> nodes;
   /** Conteúdo */
   private String content;
+  /** Conteúdo guardado fora do heap ou null */
+  private XmlContentSource source;
+  /** Indica se o conteúdo ainda será calculado a partir dos textos */
+  private boolean derived;
+  /** Textos da própria tag, o de índice i antes do filho i e o último depois */
+  private String[] texts;
+  /** Bytes ainda não lidos da tag, no parse preguiçoso */
+  private Span span;
+  /** Índice que contém a tag */
+  private XmlIndex index;
+  /** Indica se os bytes do xml da tag ficam guardados */
+  private boolean byteCache;
+  /** Bytes do xml guardados ou null se ainda não calculados */
+  private volatile byte[] bytes;
+  /** Indica se a tag e os descendentes são imutáveis */
+  private boolean frozen;
 
   /**
    * Construtor
@@ -58,81 +69,199 @@ public class XmlNode {
   }
 
   /**
-   * Construtor
+   * Construtor. O parse é feito pelo {@link XmlParser#getDefault()}.
    * 
    * @param input
    * @throws ParseException
    * @throws IOException
    */
   public XmlNode(InputStream input) throws ParseException, IOException {
+    XmlParser.getDefault().parse(input, this);
+  }
+
+  /**
+   * Faz o parse de bytes em UTF-8 com o analisador nativo, sem usar o JAXP.
+   * 
+   * @param bytes
+   * @return tag raiz
+   * @throws ParseException
+   */
+  public static XmlNode parse(byte[] bytes) throws ParseException {
     try {
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      InputSource source = new InputSource(input);
-      source.setEncoding("utf-8");
-      Document document = db.parse(source);
-      if (document.getFirstChild() instanceof Element) {
-        Element element = (Element) document.getFirstChild();
-        this.read(element);
-      }
+      return new XmlNodeBuilder(null).read(new XmlTokenizer(bytes));
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
     }
-    catch (ParserConfigurationException e) {
-      throw new ParseException(e.getMessage(), 0);
+  }
+
+  /**
+   * Faz o parse dos bytes em UTF-8 entre a posição e o limite do buffer com o
+   * analisador nativo, sem usar o JAXP. O buffer pode ser direto.
+   * 
+   * @param buffer
+   * @return tag raiz
+   * @throws ParseException
+   */
+  public static XmlNode parse(ByteBuffer buffer) throws ParseException {
+    try {
+      return new XmlNodeBuilder(null).read(new XmlTokenizer(buffer));
     }
-    catch (SAXException e) {
-      throw new ParseException(e.getMessage(), 0);
+    catch (IOException e) {
+      throw new IllegalStateException(e);
     }
   }
 
   /**
-   * Construtor
+   * Faz o parse de um arquivo em UTF-8 com o analisador nativo. O arquivo é
+   * mapeado em memória, sem cópias intermediárias, e arquivos maiores que 2 GB
+   * são mapeados em janelas.
    * 
-   * @param element
+   * @param path
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
    */
-  private XmlNode(Element element) {
-    this.read(element);
+  public static XmlNode parse(Path path) throws ParseException, IOException {
+    return parse(path, XmlTokenizer.WINDOW);
   }
 
   /**
-   * Realiza a leitura da tag
+   * Faz o parse de um arquivo em UTF-8 mapeado em janelas do tamanho dado
    * 
-   * @param root
+   * @param path
+   * @param window tamanho da janela mapeada
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
    */
-  private void read(Element root) {
-    this.name = root.getNodeName();
-    NamedNodeMap atts = root.getAttributes();
-    if (atts != null) {
-      int size = atts.getLength();
-      if (size > 0) {
-        this.attributes = new HashMap<String, String>(size);
-      }
-      for (int n = 0; n < size; n++) {
-        Node node = atts.item(n);
-        if (node instanceof Attr) {
-          Attr attr = (Attr) node;
-          this.attributes.put(attr.getName(), attr.getValue());
-        }
+  static XmlNode parse(Path path, int window) throws ParseException,
+    IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new XmlNodeBuilder(null).read(new XmlTokenizer(channel, window));
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Faz o parse preguiçoso de bytes em UTF-8. Apenas o nome da raiz é lido;
+   * os atributos, filhos e conteúdo de cada tag são lidos do intervalo de
+   * bytes da tag no primeiro acesso a eles, de forma que o custo é
+   * proporcional à parte da árvore que for usada. Os bytes não podem ser
+   * modificados enquanto a árvore for usada e os erros de parse dos trechos
+   * lidos depois são lançados como {@link IllegalStateException}. A leitura
+   * sob demanda não é sincronizada.
+   * 
+   * @param bytes
+   * @return tag raiz
+   * @throws ParseException
+   */
+  public static XmlNode parseLazy(byte[] bytes) throws ParseException {
+    return parseLazy(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Faz o parse preguiçoso dos bytes em UTF-8 entre a posição e o limite do
+   * buffer, como em {@link #parseLazy(byte[])}.
+   * 
+   * @param buffer
+   * @return tag raiz
+   * @throws ParseException
+   */
+  public static XmlNode parseLazy(ByteBuffer buffer) throws ParseException {
+    ByteBuffer bytes = buffer.duplicate();
+    XmlTokenizer tokenizer = new XmlTokenizer(bytes);
+    try {
+      tokenizer.next();
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    XmlNode root = new XmlNode(tokenizer.getName());
+    root.span = new Span(bytes, tokenizer.getStart(), bytes.limit());
+    root.derived = true;
+    return root;
+  }
+
+  /**
+   * Faz o parse preguiçoso de um arquivo em UTF-8 de até 2 GB, como em
+   * {@link #parseLazy(byte[])}. O arquivo é mapeado em memória.
+   * 
+   * @param path
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
+   */
+  public static XmlNode parseLazy(Path path) throws ParseException,
+    IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Arquivo maior que 2 GB: " + path);
       }
+      return parseLazy(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+    finally {
+      channel.close();
     }
-    String content = root.getTextContent().trim();
-    if (content.length() > 0) {
-      this.content = content;
+  }
+
+  /**
+   * Lê os atributos e os filhos da tag, no parse preguiçoso. Os filhos são
+   * criados apenas com o nome e o intervalo de bytes.
+   */
+  private void expand() {
+    Span span = this.span;
+    if (span == null) {
+      return;
     }
-    NodeList nodes = root.getChildNodes();
-    if (nodes != null) {
-      int size = nodes.getLength();
-      for (int n = 0; n < size; n++) {
-        Node node = nodes.item(n);
-        if (node instanceof Element) {
-          Element element = (Element) node;
+    this.span = null;
+    try {
+      XmlTokenizer tokenizer = span.tokenizer();
+      tokenizer.next();
+      int size = tokenizer.getAttributeCount();
+      if (size > 0) {
+        this.attributes = new XmlAttributes(size);
+        for (int n = 0; n < size; n++) {
+          this.attributes.put(tokenizer.getAttributeName(n), tokenizer
+            .getAttributeValue(n));
+        }
+      }
+      StringBuilder text = new StringBuilder();
+      for (int event; (event = tokenizer.next()) != XmlTokenizer.END_ELEMENT
+        || tokenizer.getDepth() > 0;) {
+        if (event == XmlTokenizer.START_ELEMENT) {
+          this.flushText(text);
+          int start = tokenizer.getStart();
+          XmlNode child = new XmlNode(tokenizer.getName());
+          while (tokenizer.next() != XmlTokenizer.END_ELEMENT
+            || tokenizer.getDepth() > 1) {
+          }
+          child.span = new Span(span.buffer, start, tokenizer.getPosition());
+          child.derived = true;
+          child.byteCache = this.byteCache;
+          child.parent = this;
           if (this.nodes == null) {
             this.nodes = new ArrayList<XmlNode>();
           }
-          XmlNode child = new XmlNode(element);
-          child.parent = this;
           this.nodes.add(child);
         }
+        else if (event == XmlTokenizer.TEXT) {
+          int count = tokenizer.decodeText();
+          text.append(tokenizer.getChars(), 0, count);
+        }
       }
+      this.flushText(text);
+    }
+    catch (ParseException e) {
+      throw new IllegalStateException(e);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
     }
   }
 
@@ -144,9 +273,10 @@ public class XmlNode {
   }
 
   /**
-   * @return the attributes
+   * @return the attributes, na ordem de inserção
    */
   public Map<String, String> getAttributes() {
+    this.expand();
     return attributes;
   }
 
@@ -158,8 +288,10 @@ public class XmlNode {
    * @return this
    */
   public XmlNode addHtmlStyle(String key, String value) {
+    this.checkMutable();
+    this.expand();
     if (this.attributes == null) {
-      this.attributes = new HashMap<String, String>();
+      this.attributes = new XmlAttributes();
     }
     String styleValue = this.attributes.get("style");
     if (styleValue == null) {
@@ -169,8 +301,7 @@ public class XmlNode {
       styleValue += ";";
     }
     styleValue += key + ":" + value;
-    this.attributes.put("style", styleValue);
-    return this;
+    return this.setAttribute("style", styleValue);
   }
 
   /**
@@ -180,8 +311,10 @@ public class XmlNode {
    * @return this
    */
   public XmlNode addHtmlClass(String className) {
+    this.checkMutable();
+    this.expand();
     if (this.attributes == null) {
-      this.attributes = new HashMap<String, String>();
+      this.attributes = new XmlAttributes();
     }
     String value = this.attributes.get("class");
     if (value == null) {
@@ -191,8 +324,7 @@ public class XmlNode {
       value += " ";
     }
     value += className;
-    this.attributes.put("class", value);
-    return this;
+    return this.setAttribute("class", value);
   }
 
   /**
@@ -202,6 +334,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public boolean hasAttribute(String attribute) {
+    this.expand();
     if (this.attributes == null) {
       return false;
     }
@@ -215,6 +348,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public String getAttribute(String attribute) {
+    this.expand();
     if (this.attributes == null) {
       return null;
     }
@@ -229,6 +363,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public Integer getAttribute(String attribute, Integer defaultValue) {
+    this.expand();
     if (this.attributes == null) {
       return defaultValue;
     }
@@ -248,6 +383,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public String getAttribute(String attribute, String defaultValue) {
+    this.expand();
     if (this.attributes == null) {
       return defaultValue;
     }
@@ -262,6 +398,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public Double getAttribute(String attribute, Double defaultValue) {
+    this.expand();
     if (this.attributes == null) {
       return defaultValue;
     }
@@ -281,6 +418,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public Long getAttribute(String attribute, Long defaultValue) {
+    this.expand();
     if (this.attributes == null) {
       return defaultValue;
     }
@@ -300,6 +438,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public Float getAttribute(String attribute, Float defaultValue) {
+    this.expand();
     if (this.attributes == null) {
       return defaultValue;
     }
@@ -319,6 +458,7 @@ public class XmlNode {
    * @return tem o atributo
    */
   public Boolean getAttribute(String attribute, Boolean defaultValue) {
+    this.expand();
     if (this.attributes == null) {
       return defaultValue;
     }
@@ -333,10 +473,16 @@ public class XmlNode {
    * @return owner
    */
   public XmlNode setAttribute(String key, String value) {
+    this.checkMutable();
+    this.expand();
     if (this.attributes == null) {
-      this.attributes = new HashMap<String, String>();
+      this.attributes = new XmlAttributes();
     }
-    this.attributes.put(key, value);
+    String old = this.attributes.put(key, value);
+    if (this.index != null) {
+      this.index.attributeChanged(this, key, old, value);
+    }
+    this.invalidate();
     return this;
   }
 
@@ -345,7 +491,13 @@ public class XmlNode {
    * @return this
    */
   public XmlNode setName(String name) {
+    this.checkMutable();
+    String old = this.name;
     this.name = name;
+    if (this.index != null) {
+      this.index.nameChanged(this, old, name);
+    }
+    this.invalidate();
     return this;
   }
 
@@ -354,10 +506,230 @@ public class XmlNode {
    * @return this
    */
   public XmlNode setContent(String content) {
+    this.checkMutable();
+    this.expand();
     this.content = content;
+    this.source = null;
+    this.derived = false;
+    this.texts = null;
+    this.invalidate();
+    return this;
+  }
+
+  /**
+   * Acrescenta um texto depois do último filho, para montar conteúdo misto
+   * 
+   * @param text
+   * @return this
+   */
+  public XmlNode addText(String text) {
+    this.checkMutable();
+    this.expand();
+    int index = this.nodes == null ? 0 : this.nodes.size();
+    String value = this.getText(index);
+    this.putText(index, value == null ? text : value + text);
+    this.derived = true;
+    this.source = null;
+    this.invalidate();
     return this;
   }
 
+  /**
+   * Texto da própria tag que fica antes do filho do índice. O índice igual à
+   * quantidade de filhos retorna o texto depois do último filho.
+   * 
+   * @param index
+   * @return texto ou null
+   */
+  public String getText(int index) {
+    this.expand();
+    if (this.texts == null || index >= this.texts.length) {
+      return null;
+    }
+    return this.texts[index];
+  }
+
+  /**
+   * Texto da própria tag, sem o texto dos descendentes e sem os espaços das
+   * pontas.
+   * 
+   * @return texto ou null se vazio
+   */
+  public String getText() {
+    this.expand();
+    if (this.texts == null) {
+      return this.nodes == null ? this.getContent() : null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String text : this.texts) {
+      if (text != null) {
+        sb.append(text);
+      }
+    }
+    return trim(sb);
+  }
+
+  /**
+   * Texto da tag e de todos os descendentes, na ordem do documento e sem
+   * retirar espaços. É montado numa única passada a cada chamada.
+   * 
+   * @return texto
+   */
+  public String getTextContent() {
+    StringBuilder sb = new StringBuilder();
+    this.appendText(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Acrescenta o texto da tag e dos descendentes, numa passada sem recursão
+   * 
+   * @param sb
+   */
+  private void appendText(StringBuilder sb) {
+    if (this.appendLeafText(sb)) {
+      return;
+    }
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    int[] indexes = new int[16];
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      XmlNode node = stack.get(top);
+      int n = indexes[top];
+      String text = node.getText(n);
+      if (text != null) {
+        sb.append(text);
+      }
+      if (node.nodes == null || n == node.nodes.size()) {
+        stack.remove(top);
+        continue;
+      }
+      indexes[top] = n + 1;
+      XmlNode child = node.nodes.get(n);
+      if (!child.appendLeafText(sb)) {
+        if (stack.size() == indexes.length) {
+          indexes = Arrays.copyOf(indexes, 2 * indexes.length);
+        }
+        indexes[stack.size()] = 0;
+        stack.add(child);
+      }
+    }
+  }
+
+  /**
+   * Acrescenta o texto de uma tag ainda não lida ou sem filhos nem textos. O
+   * conteúdo fora do heap entra com os espaços das pontas do texto original.
+   * 
+   * @param sb
+   * @return indica se a tag era de um desses tipos
+   */
+  private boolean appendLeafText(StringBuilder sb) {
+    Span span = this.span;
+    if (span != null) {
+      span.appendText(sb);
+      return true;
+    }
+    if (this.texts == null && this.nodes == null) {
+      String content;
+      if (this.content == null && this.source != null && !this.derived) {
+        try {
+          content = this.source.getPaddedText();
+        }
+        catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      else {
+        content = this.getContent();
+      }
+      if (content != null) {
+        sb.append(content);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Guarda o texto acumulado como texto da tag antes do próximo filho. Os
+   * textos só de espaços, comuns na indentação, são compartilhados por uma
+   * {@link XmlSymbolTable} própria, separada da dos nomes. O conteúdo passa a
+   * ser calculado sob demanda.
+   * 
+   * @param text
+   */
+  void flushText(StringBuilder text) {
+    this.derived = true;
+    this.source = null;
+    if (text.length() == 0) {
+      return;
+    }
+    int index = this.nodes == null ? 0 : this.nodes.size();
+    String value;
+    if (isBlank(text)) {
+      value = BLANKS.intern(text.toString());
+    }
+    else {
+      value = text.toString();
+    }
+    this.putText(index, value);
+    text.setLength(0);
+  }
+
+  /**
+   * Altera o texto antes do filho do índice
+   * 
+   * @param index
+   * @param text
+   */
+  private void putText(int index, String text) {
+    if (this.texts == null) {
+      this.texts = new String[index + 1];
+    }
+    else if (index >= this.texts.length) {
+      String[] texts = new String[index + 1];
+      System.arraycopy(this.texts, 0, texts, 0, this.texts.length);
+      this.texts = texts;
+    }
+    this.texts[index] = text;
+  }
+
+  /**
+   * @param text
+   * @return indica se o texto só tem espaços
+   */
+  static boolean isBlank(CharSequence text) {
+    int size = text.length();
+    for (int n = 0; n < size; n++) {
+      if (text.charAt(n) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retira os espaços das pontas
+   * 
+   * @param text
+   * @return texto ou null se vazio
+   */
+  private static String trim(CharSequence text) {
+    int begin = 0;
+    int end = text.length();
+    while (begin < end && text.charAt(begin) <= ' ') {
+      begin++;
+    }
+    while (end > begin && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (begin == end) {
+      return null;
+    }
+    return text.subSequence(begin, end).toString();
+  }
+
   /**
    * @param input the content to set
    * @return this
@@ -365,22 +737,50 @@ public class XmlNode {
    */
   public XmlNode setContent(InputStream input) throws IOException {
     StringBuilder sb = new StringBuilder();
-    StringInputStream in = new StringInputStream(input);
+    Utf8Reader reader = new Utf8Reader(input);
     try {
-      for (int n; ((n = in.read()) != -1);) {
-        sb.append((char) n);
+      char[] chars = new char[8 * 1024];
+      for (int n; ((n = reader.read(chars, 0, chars.length)) != -1);) {
+        sb.append(chars, 0, n);
       }
     }
     finally {
-      in.close();
+      reader.close();
     }
     return this.setContent(sb.toString());
   }
 
+  /**
+   * Guarda o conteúdo fora do heap. A escrita do xml copia os bytes da origem
+   * direto para a saída, e {@link #getContent()} decodifica os bytes a cada
+   * chamada.
+   * 
+   * @param source the content to set
+   * @return this
+   */
+  public XmlNode setContent(XmlContentSource source) {
+    this.checkMutable();
+    this.expand();
+    this.content = null;
+    this.source = source;
+    this.derived = false;
+    this.texts = null;
+    this.invalidate();
+    return this;
+  }
+
+  /**
+   * @return origem do conteúdo guardado fora do heap ou null
+   */
+  public XmlContentSource getContentSource() {
+    return this.source;
+  }
+
   /**
    * @return the nodes
    */
   public List<XmlNode> getNodes() {
+    this.expand();
     return nodes;
   }
 
@@ -388,6 +788,7 @@ public class XmlNode {
    * @return the nodes
    */
   public int getNodeCount() {
+    this.expand();
     return nodes == null ? 0 : nodes.size();
   }
 
@@ -397,6 +798,7 @@ public class XmlNode {
    * @return se tem filho
    */
   public boolean hasNodes() {
+    this.expand();
     return this.nodes != null;
   }
 
@@ -407,11 +809,24 @@ public class XmlNode {
    * @return owner
    */
   public XmlNode addNode(XmlNode node) {
+    this.checkMutable();
+    this.expand();
+    node.checkMutable();
     if (this.nodes == null) {
       this.nodes = new ArrayList<XmlNode>();
     }
     node.parent = this;
     this.nodes.add(node);
+    if (this.index != null) {
+      this.index.add(node);
+    }
+    else if (node.index != null) {
+      node.index.remove(node);
+    }
+    if (this.byteCache) {
+      node.setByteCache(true);
+    }
+    this.invalidate();
     return this;
   }
 
@@ -422,12 +837,11 @@ public class XmlNode {
    * @return this
    */
   public XmlNode addNodes(Collection<XmlNode> list) {
+    this.checkMutable();
+    this.expand();
     if (list != null) {
-      if (this.nodes == null) {
-        this.nodes = new ArrayList<XmlNode>(list);
-      }
-      else {
-        this.nodes.addAll(list);
+      for (XmlNode node : list) {
+        this.addNode(node);
       }
     }
     return this;
@@ -441,19 +855,114 @@ public class XmlNode {
    * @return owner
    */
   public XmlNode addNode(XmlNode node, int index) {
+    this.checkMutable();
+    this.expand();
+    node.checkMutable();
     if (this.nodes == null) {
       this.nodes = new ArrayList<XmlNode>();
     }
     node.parent = this;
     this.nodes.add(index, node);
+    if (this.index != null) {
+      this.index.add(node);
+    }
+    else if (node.index != null) {
+      node.index.remove(node);
+    }
+    if (this.texts != null && index < this.texts.length) {
+      String[] texts = new String[this.texts.length + 1];
+      System.arraycopy(this.texts, 0, texts, 0, index);
+      System.arraycopy(this.texts, index, texts, index + 1, this.texts.length
+        - index);
+      this.texts = texts;
+    }
+    if (this.byteCache) {
+      node.setByteCache(true);
+    }
+    this.invalidate();
+    return this;
+  }
+
+  /**
+   * Liga ou desliga a guarda dos bytes do xml na tag e em todos os
+   * descendentes. Com a guarda ligada, cada tag escrita pelo
+   * {@link #write(OutputStream)} ou {@link #getBytes()} guarda os seus bytes
+   * em UTF-8, e as próximas escritas copiam os bytes de uma vez, sem
+   * codificar de novo. As tags adicionadas depois herdam a guarda.
+   * 
+   * As alterações feitas pelos métodos da tag descartam os bytes dela e dos
+   * ancestrais; as feitas direto nas coleções de {@link #getNodes()} e
+   * {@link #getAttributes()} não são vistas. Cada nível guarda uma cópia dos
+   * bytes dos descendentes, então a memória cresce com a profundidade.
+   * 
+   * Uma tag com a guarda ligada tem sempre os descendentes com a guarda
+   * ligada, então desligar a guarda de uma tag também desliga a dos
+   * ancestrais.
+   * 
+   * @param enabled
+   * @return this
+   */
+  public XmlNode setByteCache(boolean enabled) {
+    this.checkMutable();
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+      node.byteCache = enabled;
+      node.bytes = null;
+      if (node.span == null && node.nodes != null) {
+        stack.addAll(node.nodes);
+      }
+    }
+    for (XmlNode node = this.parent; node != null && node.byteCache; node =
+      node.parent) {
+      node.byteCache = enabled;
+      node.bytes = null;
+    }
     return this;
   }
 
+  /**
+   * @return indica se os bytes do xml ficam guardados
+   */
+  public boolean isByteCache() {
+    return this.byteCache;
+  }
+
+  /**
+   * Descarta os bytes guardados da tag e dos ancestrais. Os ancestrais de uma
+   * tag sem a guarda também estão sem a guarda, e os de uma tag sem bytes
+   * guardados também estão sem bytes, então a subida para na primeira tag
+   * sem a guarda ou sem bytes. Sem a guarda, o custo é constante, o que
+   * mantém linear a montagem da árvore.
+   */
+  private void invalidate() {
+    for (XmlNode node = this; node != null && node.byteCache
+      && node.bytes != null; node = node.parent) {
+      node.bytes = null;
+    }
+  }
+
+  /**
+   * Anexa um filho recém criado, sem as verificações e sem descartar bytes
+   * guardados. Usado na montagem da árvore pelo parse.
+   * 
+   * @param node
+   */
+  void attach(XmlNode node) {
+    if (this.nodes == null) {
+      this.nodes = new ArrayList<XmlNode>();
+    }
+    node.parent = this;
+    this.nodes.add(node);
+  }
+
   /**
    * @param name
    * @return the nodes
    */
   public List<XmlNode> getNodesByTagName(String name) {
+    this.expand();
     List<XmlNode> list = new ArrayList<XmlNode>();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
@@ -471,14 +980,13 @@ public class XmlNode {
    * @return the nodes
    */
   public List<XmlNode> getNodesByAttributeValue(String attribute, String value) {
+    this.expand();
     List<XmlNode> list = new ArrayList<XmlNode>();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null && attValue.equals(value)) {
-            list.add(node);
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null && attValue.equals(value)) {
+          list.add(node);
         }
       }
     }
@@ -491,14 +999,13 @@ public class XmlNode {
    * @return the nodes
    */
   public List<XmlNode> getNodesByAttributeKey(String attribute, String value) {
+    this.expand();
     List<XmlNode> list = new ArrayList<XmlNode>();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null) {
-            list.add(node);
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null) {
+          list.add(node);
         }
       }
     }
@@ -512,14 +1019,13 @@ public class XmlNode {
    */
   public List<XmlNode> getNodesByAttributeContainValue(String attribute,
     String value) {
+    this.expand();
     List<XmlNode> list = new ArrayList<XmlNode>();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null && attValue.contains(value)) {
-            list.add(node);
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null && attValue.contains(value)) {
+          list.add(node);
         }
       }
     }
@@ -533,14 +1039,25 @@ public class XmlNode {
    */
   public List<XmlNode> getNodesByAttributeMatchValue(String attribute,
     String value) {
+    return this.getNodesByAttributeMatchValue(attribute, XmlPatterns
+      .compile(value));
+  }
+
+  /**
+   * @param attribute
+   * @param pattern
+   * @return the nodes
+   */
+  public List<XmlNode> getNodesByAttributeMatchValue(String attribute,
+    Pattern pattern) {
+    this.expand();
     List<XmlNode> list = new ArrayList<XmlNode>();
     if (this.nodes != null) {
+      Matcher matcher = pattern.matcher("");
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null && attValue.matches(value)) {
-            list.add(node);
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null && matcher.reset(attValue).matches()) {
+          list.add(node);
         }
       }
     }
@@ -552,6 +1069,7 @@ public class XmlNode {
    * @return the nodes
    */
   public XmlNode getNodeByTagName(String name) {
+    this.expand();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
         if (node.name.equals(name)) {
@@ -568,13 +1086,12 @@ public class XmlNode {
    * @return the nodes
    */
   public XmlNode getNodeByAttributeValue(String attribute, String value) {
+    this.expand();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null && attValue.equals(value)) {
-            return node;
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null && attValue.equals(value)) {
+          return node;
         }
       }
     }
@@ -587,13 +1104,12 @@ public class XmlNode {
    * @return the nodes
    */
   public XmlNode getNodeByAttributeKey(String attribute, String value) {
+    this.expand();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null) {
-            return node;
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null) {
+          return node;
         }
       }
     }
@@ -606,13 +1122,12 @@ public class XmlNode {
    * @return the nodes
    */
   public XmlNode getNodeByAttributeContainValue(String attribute, String value) {
+    this.expand();
     if (this.nodes != null) {
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null && attValue.contains(value)) {
-            return node;
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null && attValue.contains(value)) {
+          return node;
         }
       }
     }
@@ -625,13 +1140,24 @@ public class XmlNode {
    * @return the nodes
    */
   public XmlNode getNodeByAttributeMatchValue(String attribute, String value) {
+    return this.getNodeByAttributeMatchValue(attribute, XmlPatterns
+      .compile(value));
+  }
+
+  /**
+   * @param attribute
+   * @param pattern
+   * @return the nodes
+   */
+  public XmlNode getNodeByAttributeMatchValue(String attribute,
+    Pattern pattern) {
+    this.expand();
     if (this.nodes != null) {
+      Matcher matcher = pattern.matcher("");
       for (XmlNode node : this.nodes) {
-        if (node.attributes != null) {
-          String attValue = node.attributes.get(attribute);
-          if (attValue != null && attValue.matches(value)) {
-            return node;
-          }
+        String attValue = node.getAttribute(attribute);
+        if (attValue != null && matcher.reset(attValue).matches()) {
+          return node;
         }
       }
     }
@@ -639,45 +1165,596 @@ public class XmlNode {
   }
 
   /**
-   * @return the parent
+   * Procura em todos os descendentes as tags com o nome
+   * 
+   * @param name
+   * @return tags encontradas, na ordem do documento
    */
-  public XmlNode getParent() {
-    return parent;
+  public List<XmlNode> findNodesByTagName(String name) {
+    return XmlSearch.byTagName(name).find(this, false);
   }
 
   /**
-   * @return the content
+   * Procura em todos os descendentes a tag com o nome
+   * 
+   * @param name
+   * @return primeira tag na ordem do documento ou null
    */
-  public String getContent() {
-    return content;
+  public XmlNode findNodeByTagName(String name) {
+    List<XmlNode> list = XmlSearch.byTagName(name).find(this, true);
+    return list.isEmpty() ? null : list.get(0);
   }
 
   /**
-   * {@inheritDoc}
+   * Procura em todos os descendentes as tags com o atributo
+   * 
+   * @param attribute
+   * @return tags encontradas, na ordem do documento
+   */
+  public List<XmlNode> findNodesByAttributeKey(String attribute) {
+    return XmlSearch.byAttributeKey(attribute).find(this, false);
+  }
+
+  /**
+   * Procura em todos os descendentes a tag com o atributo
+   * 
+   * @param attribute
+   * @return primeira tag na ordem do documento ou null
+   */
+  public XmlNode findNodeByAttributeKey(String attribute) {
+    List<XmlNode> list = XmlSearch.byAttributeKey(attribute).find(this, true);
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+  /**
+   * Procura em todos os descendentes as tags com o valor do atributo
+   * 
+   * @param attribute
+   * @param value
+   * @return tags encontradas, na ordem do documento
+   */
+  public List<XmlNode> findNodesByAttributeValue(String attribute,
+    String value) {
+    return XmlSearch.byAttributeValue(attribute, value).find(this, false);
+  }
+
+  /**
+   * Procura em todos os descendentes a tag com o valor do atributo
+   * 
+   * @param attribute
+   * @param value
+   * @return primeira tag na ordem do documento ou null
+   */
+  public XmlNode findNodeByAttributeValue(String attribute, String value) {
+    List<XmlNode> list =
+      XmlSearch.byAttributeValue(attribute, value).find(this, true);
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+  /**
+   * Procura em todos os descendentes as tags cujo valor do atributo contém o
+   * texto
+   * 
+   * @param attribute
+   * @param value
+   * @return tags encontradas, na ordem do documento
+   */
+  public List<XmlNode> findNodesByAttributeContainValue(String attribute,
+    String value) {
+    return XmlSearch.byAttributeContainValue(attribute, value).find(this,
+      false);
+  }
+
+  /**
+   * Procura em todos os descendentes a tag cujo valor do atributo contém o
+   * texto
+   * 
+   * @param attribute
+   * @param value
+   * @return primeira tag na ordem do documento ou null
+   */
+  public XmlNode findNodeByAttributeContainValue(String attribute,
+    String value) {
+    List<XmlNode> list =
+      XmlSearch.byAttributeContainValue(attribute, value).find(this, true);
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+  /**
+   * Procura em todos os descendentes as tags cujo valor do atributo casa com
+   * a expressão regular
+   * 
+   * @param attribute
+   * @param regex
+   * @return tags encontradas, na ordem do documento
+   */
+  public List<XmlNode> findNodesByAttributeMatchValue(String attribute,
+    String regex) {
+    return this.findNodesByAttributeMatchValue(attribute, XmlPatterns
+      .compile(regex));
+  }
+
+  /**
+   * Procura em todos os descendentes as tags cujo valor do atributo casa com
+   * a expressão regular
+   * 
+   * @param attribute
+   * @param pattern
+   * @return tags encontradas, na ordem do documento
+   */
+  public List<XmlNode> findNodesByAttributeMatchValue(String attribute,
+    Pattern pattern) {
+    return XmlSearch.byAttributeMatchValue(attribute, pattern).find(this,
+      false);
+  }
+
+  /**
+   * Procura em todos os descendentes a tag cujo valor do atributo casa com a
+   * expressão regular
+   * 
+   * @param attribute
+   * @param regex
+   * @return primeira tag na ordem do documento ou null
+   */
+  public XmlNode findNodeByAttributeMatchValue(String attribute,
+    String regex) {
+    return this.findNodeByAttributeMatchValue(attribute, XmlPatterns
+      .compile(regex));
+  }
+
+  /**
+   * Procura em todos os descendentes a tag cujo valor do atributo casa com a
+   * expressão regular
+   * 
+   * @param attribute
+   * @param pattern
+   * @return primeira tag na ordem do documento ou null
+   */
+  public XmlNode findNodeByAttributeMatchValue(String attribute,
+    Pattern pattern) {
+    List<XmlNode> list =
+      XmlSearch.byAttributeMatchValue(attribute, pattern).find(this, true);
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+  /**
+   * Seleciona as tags que casam com a expressão, como em {@link XmlSelector}.
+   * A expressão compilada fica em cache.
+   * 
+   * @param selector
+   * @return tags na ordem do documento, produzidas sob demanda
+   */
+  public Iterable<XmlNode> select(String selector) {
+    return XmlSelector.compile(selector).select(this);
+  }
+
+  /**
+   * Primeira tag que casa com a expressão, como em {@link XmlSelector}
+   * 
+   * @param selector
+   * @return tag ou null
+   */
+  public XmlNode selectFirst(String selector) {
+    return XmlSelector.compile(selector).selectFirst(this);
+  }
+
+  /**
+   * Monta a tag com as partes já lidas, sem avisar índice nem guarda de
+   * bytes. Com filhos ou textos, o conteúdo passa a ser calculado sob demanda.
+   * 
+   * @param attributes
+   * @param nodes
+   * @param texts
+   * @param content
+   */
+  void assemble(Map<String, String> attributes, List<XmlNode> nodes,
+    String[] texts, String content) {
+    this.attributes = attributes;
+    this.nodes = nodes;
+    this.texts = texts;
+    this.content = content;
+    this.source = null;
+    this.derived = nodes != null || texts != null;
+    if (nodes != null) {
+      for (XmlNode node : nodes) {
+        node.parent = this;
+      }
+    }
+  }
+
+  /**
+   * @return índice que contém a tag ou null
+   */
+  XmlIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * @param index índice que contém a tag
+   */
+  void setIndex(XmlIndex index) {
+    this.checkMutable();
+    this.index = index;
+  }
+
+  /**
+   * @return the parent, sempre null nas tags congeladas, que podem estar em
+   *         várias árvores
+   */
+  public XmlNode getParent() {
+    return parent;
+  }
+
+  /**
+   * Cria uma cópia imutável da tag e dos descendentes, que pode ser lida por
+   * várias threads ao mesmo tempo sem sincronização. Os atributos e os filhos
+   * da cópia são visões somente leitura e os métodos que alteram a tag lançam
+   * {@link UnsupportedOperationException}. O conteúdo das tags sem filhos já
+   * vem calculado; o das tags com filhos é montado a cada
+   * {@link #getContent()}, sem ser guardado, já que a cópia não muda depois
+   * de criada.
+   * 
+   * Os campos da tag não são final, então a cópia precisa ser publicada com
+   * segurança para as outras threads: por um campo volatile ou final, uma
+   * coleção concorrente, um lock, um {@link java.util.concurrent.Future} ou
+   * antes do início da thread. Uma tag passada por um campo comum pode ser
+   * vista incompleta. O {@link XmlNodeCache} já entrega as árvores assim.
+   * 
+   * As alterações são feitas pelos métodos with, que retornam uma nova tag
+   * congelada compartilhando os filhos que não mudaram. Para alterar um
+   * descendente, a nova versão dele é colocada no pai com
+   * {@link #withNode(int, XmlNode)}, e assim até a raiz. Como um filho pode
+   * estar em várias árvores, as tags congeladas não têm pai e não podem ser
+   * adicionadas numa tag que não esteja congelada.
+   * 
+   * @return cópia congelada ou a própria tag, se já estiver congelada
+   */
+  public XmlNode freeze() {
+    if (this.frozen) {
+      return this;
+    }
+    return this.frozenCopy();
+  }
+
+  /**
+   * @return indica se a tag é imutável
+   */
+  public boolean isFrozen() {
+    return this.frozen;
+  }
+
+  /**
+   * @param name
+   * @return nova tag congelada com o nome
+   */
+  public XmlNode withName(String name) {
+    XmlNode node = this.freeze().shallowCopy();
+    node.name = name;
+    return node.publish(false);
+  }
+
+  /**
+   * @param key
+   * @param value
+   * @return nova tag congelada com o atributo alterado ou adicionado
+   */
+  public XmlNode withAttribute(String key, String value) {
+    XmlNode node = this.freeze().shallowCopy();
+    XmlAttributes attributes =
+      new XmlAttributes(node.attributes == null ? 1
+        : node.attributes.size() + 1);
+    if (node.attributes != null) {
+      attributes.putAll(node.attributes);
+    }
+    attributes.put(key, value);
+    node.attributes = Collections.unmodifiableMap(attributes);
+    return node.publish(false);
+  }
+
+  /**
+   * @param content
+   * @return nova tag congelada com o conteúdo, sem os textos da tag
+   */
+  public XmlNode withContent(String content) {
+    XmlNode node = this.freeze().shallowCopy();
+    node.content = content;
+    node.source = null;
+    node.derived = false;
+    node.texts = null;
+    return node.publish(false);
+  }
+
+  /**
+   * @param child
+   * @return nova tag congelada com o filho congelado no fim
+   */
+  public XmlNode withAddedNode(XmlNode child) {
+    XmlNode node = this.freeze().shallowCopy();
+    List<XmlNode> nodes =
+      new ArrayList<XmlNode>(node.nodes == null ? 1 : node.nodes.size() + 1);
+    if (node.nodes != null) {
+      nodes.addAll(node.nodes);
+    }
+    nodes.add(child.freeze());
+    node.nodes = Collections.unmodifiableList(nodes);
+    return node.publish(true);
+  }
+
+  /**
+   * @param index
+   * @param child
+   * @return nova tag congelada com o filho do índice trocado pelo filho
+   *         congelado
+   */
+  public XmlNode withNode(int index, XmlNode child) {
+    XmlNode node = this.freeze().shallowCopy();
+    List<XmlNode> nodes = new ArrayList<XmlNode>(node.getNodeList());
+    nodes.set(index, child.freeze());
+    node.nodes = Collections.unmodifiableList(nodes);
+    return node.publish(true);
+  }
+
+  /**
+   * @param index
+   * @return nova tag congelada sem o filho do índice. Os textos antes e
+   *         depois dele são juntados.
+   */
+  public XmlNode withoutNode(int index) {
+    XmlNode node = this.freeze().shallowCopy();
+    List<XmlNode> nodes = new ArrayList<XmlNode>(node.getNodeList());
+    nodes.remove(index);
+    node.nodes = nodes.isEmpty() ? null : Collections.unmodifiableList(nodes);
+    if (node.texts != null && index < node.texts.length) {
+      int size = node.texts.length;
+      String before = node.texts[index];
+      String after = index + 1 < size ? node.texts[index + 1] : null;
+      String[] texts = new String[Math.max(size - 1, index + 1)];
+      System.arraycopy(node.texts, 0, texts, 0, index);
+      if (index + 2 < size) {
+        System.arraycopy(node.texts, index + 2, texts, index + 1, size
+          - index - 2);
+      }
+      texts[index] =
+        before == null ? after : after == null ? before : before + after;
+      node.texts = texts;
+    }
+    return node.publish(true);
+  }
+
+  /**
+   * Copia a tag e os descendentes, congelando, numa passada sem recursão
+   * 
+   * @return cópia congelada
+   */
+  private XmlNode frozenCopy() {
+    XmlNode root = this.frozenNode();
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(this);
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      XmlNode copy = stack.remove(stack.size() - 1);
+      XmlNode node = stack.remove(stack.size() - 1);
+      if (node.nodes != null) {
+        List<XmlNode> nodes = new ArrayList<XmlNode>(node.nodes.size());
+        for (XmlNode child : node.nodes) {
+          if (child.frozen) {
+            nodes.add(child);
+          }
+          else {
+            XmlNode frozen = child.frozenNode();
+            nodes.add(frozen);
+            stack.add(child);
+            stack.add(frozen);
+          }
+        }
+        copy.nodes = Collections.unmodifiableList(nodes);
+      }
+    }
+    return root;
+  }
+
+  /**
+   * Copia as partes da própria tag, congelando, sem os filhos. O conteúdo só
+   * é calculado nas tags sem filhos, a partir dos textos delas; nas tags com
+   * filhos, continua derivado.
+   * 
+   * @return cópia congelada, ainda sem os filhos
+   */
+  private XmlNode frozenNode() {
+    this.expand();
+    XmlNode node = new XmlNode(this.name);
+    node.frozen = true;
+    node.source = this.source;
+    if (this.nodes == null) {
+      if (this.source == null) {
+        node.content = this.getContent();
+      }
+    }
+    else if (this.derived) {
+      node.derived = true;
+    }
+    else {
+      node.content = this.content;
+    }
+    if (this.attributes != null) {
+      XmlAttributes attributes = new XmlAttributes(this.attributes.size());
+      attributes.putAll(this.attributes);
+      node.attributes = Collections.unmodifiableMap(attributes);
+    }
+    if (this.texts != null) {
+      node.texts = this.texts.clone();
+    }
+    return node;
+  }
+
+  /**
+   * @return cópia rasa de uma tag congelada, que compartilha os atributos,
+   *         os filhos e os textos
+   */
+  private XmlNode shallowCopy() {
+    XmlNode node = new XmlNode(this.name);
+    node.frozen = true;
+    node.attributes = this.attributes;
+    node.nodes = this.nodes;
+    node.texts = this.texts;
+    node.content = this.content;
+    node.source = this.source;
+    node.derived = this.derived;
+    return node;
+  }
+
+  /**
+   * Termina a cópia
+   * 
+   * @param derived o conteúdo passa a vir dos filhos e dos textos
+   * @return this
+   */
+  private XmlNode publish(boolean derived) {
+    if (derived && this.nodes != null) {
+      this.content = null;
+      this.source = null;
+      this.derived = true;
+    }
+    else if (derived && this.texts != null) {
+      StringBuilder sb = new StringBuilder();
+      for (String text : this.texts) {
+        if (text != null) {
+          sb.append(text);
+        }
+      }
+      this.content = trim(sb);
+      this.source = null;
+      this.derived = false;
+    }
+    return this;
+  }
+
+  /**
+   * @return filhos ou lista vazia
+   */
+  private List<XmlNode> getNodeList() {
+    if (this.nodes == null) {
+      return Collections.emptyList();
+    }
+    return this.nodes;
+  }
+
+  /**
+   * Impede a alteração das tags congeladas
+   */
+  private void checkMutable() {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Tag congelada: " + this.name);
+    }
+  }
+
+  /**
+   * @return the content
+   */
+  public String getContent() {
+    if (this.derived && this.frozen) {
+      StringBuilder sb = new StringBuilder();
+      this.appendText(sb);
+      return trim(sb);
+    }
+    if (this.derived) {
+      this.derived = false;
+      StringBuilder sb = new StringBuilder();
+      this.appendText(sb);
+      this.content = trim(sb);
+    }
+    if (this.content == null && this.source != null) {
+      try {
+        return this.source.getText();
+      }
+      catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return content;
+  }
+
+  /**
+   * {@inheritDoc}
    */
   @Override
   public String toString() {
-    StringBuilder atts = new StringBuilder();
+    StringBuilder sb = new StringBuilder();
+    try {
+      this.writeTo(sb);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Escreve a tag e seus descendentes numa única passada, no mesmo formato do
+   * {@link #toString()}. A árvore é percorrida com uma pilha própria, sem
+   * recursão, então a profundidade é limitada só pela memória.
+   * 
+   * @param output
+   * @throws IOException
+   */
+  public void writeTo(Appendable output) throws IOException {
+    if (!this.writeHead(output)) {
+      return;
+    }
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    int[] indexes = new int[16];
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      XmlNode node = stack.get(top);
+      int n = indexes[top];
+      String text = node.getText(n);
+      if (text != null && !isBlank(text)) {
+        output.append(text);
+      }
+      if (n == node.nodes.size()) {
+        output.append('<').append('/').append(node.name).append('>');
+        stack.remove(top);
+        continue;
+      }
+      indexes[top] = n + 1;
+      XmlNode child = node.nodes.get(n);
+      if (child.writeHead(output)) {
+        if (stack.size() == indexes.length) {
+          indexes = Arrays.copyOf(indexes, 2 * indexes.length);
+        }
+        indexes[stack.size()] = 0;
+        stack.add(child);
+      }
+    }
+  }
+
+  /**
+   * Escreve a abertura da tag. Uma tag sem filhos é escrita inteira.
+   * 
+   * @param output
+   * @return indica se ainda faltam os filhos e o fechamento
+   * @throws IOException
+   */
+  private boolean writeHead(Appendable output) throws IOException {
+    this.expand();
+    output.append('<').append(this.name);
     if (this.attributes != null) {
-      for (String key : this.attributes.keySet()) {
-        atts.append(' ');
-        atts.append(key);
-        atts.append('=');
-        atts.append('\"');
-        atts.append(this.attributes.get(key));
-        atts.append('\"');
+      for (Map.Entry<String, String> entry : this.attributes.entrySet()) {
+        output.append(' ').append(entry.getKey()).append('=').append('\"');
+        output.append(entry.getValue()).append('\"');
       }
     }
-    StringBuilder list = new StringBuilder();
+    output.append('>');
     if (this.nodes != null) {
-      for (XmlNode node : this.nodes) {
-        list.append(node.toString());
-      }
+      return true;
     }
-    else if (this.content != null) {
-      list.append(this.content);
+    String content = this.getContent();
+    if (content != null) {
+      output.append(content);
     }
-    return "<" + this.name + atts + ">" + list + "</" + this.name + ">";
+    output.append('<').append('/').append(this.name).append('>');
+    return false;
   }
 
   /**
@@ -687,21 +1764,180 @@ public class XmlNode {
    * @throws IOException
    */
   public byte[] getBytes() throws IOException {
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
-    StringOutputStream string = new StringOutputStream(output);
-    getBytes(string, this);
-    return output.toByteArray();
+    if (this.byteCache) {
+      return this.cachedBytes().clone();
+    }
+    StringOutputStream string = new StringOutputStream(estimate(this));
+    encode(string, this);
+    return string.toByteArray();
   }
 
   /**
-   * Recupera os bytes do xml
+   * Recupera os bytes guardados do xml, calculando se preciso
+   * 
+   * @return bytes guardados, que não devem ser alterados
+   * @throws IOException
+   */
+  private byte[] cachedBytes() throws IOException {
+    byte[] bytes = this.bytes;
+    if (bytes == null) {
+      fillBytes(this);
+      bytes = this.bytes;
+    }
+    return bytes;
+  }
+
+  /**
+   * Calcula os bytes guardados da tag e dos descendentes com a guarda e sem
+   * bytes, dos mais fundos para a raiz. Cada tag então só copia os bytes dos
+   * filhos, e a estimativa de tamanho de cada uma olha só os filhos.
+   * 
+   * @param root
+   * @throws IOException
+   */
+  private static void fillBytes(XmlNode root) throws IOException {
+    List<XmlNode> order = new ArrayList<XmlNode>();
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+      if (node.byteCache && node.bytes == null) {
+        order.add(node);
+        node.expand();
+        if (node.nodes != null) {
+          stack.addAll(node.nodes);
+        }
+      }
+    }
+    for (int n = order.size() - 1; n >= 0; n--) {
+      XmlNode node = order.get(n);
+      StringOutputStream string = new StringOutputStream(estimate(node));
+      encode(string, node);
+      node.bytes = string.toByteArray();
+    }
+  }
+
+  /**
+   * Estima a quantidade de bytes do xml, contando um byte por caractere. As
+   * tags com bytes guardados contam o tamanho deles, sem descer nos filhos.
+   * 
+   * @param root
+   * @return bytes estimados
+   */
+  private static int estimate(XmlNode root) {
+    long size = 0;
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+      byte[] bytes = node.bytes;
+      if (bytes != null) {
+        size += bytes.length;
+        continue;
+      }
+      node.expand();
+      size += 5 + 2 * (node.name == null ? 4 : node.name.length());
+      if (node.attributes != null) {
+        for (Map.Entry<String, String> entry : node.attributes.entrySet()) {
+          String value = entry.getValue();
+          size += 4 + entry.getKey().length();
+          size += value == null ? 4 : value.length();
+        }
+      }
+      if (node.nodes != null) {
+        if (node.texts != null) {
+          for (String text : node.texts) {
+            size += text == null ? 0 : text.length();
+          }
+        }
+        stack.addAll(node.nodes);
+      }
+      else if (node.source != null) {
+        size += Math.max(node.source.getLength(), 0);
+      }
+      else {
+        String content = node.getContent();
+        size += content == null ? 0 : content.length();
+      }
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE - 8);
+  }
+
+  /**
+   * Recupera os bytes do xml, copiando os bytes guardados das tags com a
+   * guarda ligada
+   * 
+   * @param output
+   * @param root
+   * @throws IOException
+   */
+  static void getBytes(StringOutputStream output, XmlNode root)
+    throws IOException {
+    if (root.byteCache) {
+      byte[] bytes = root.cachedBytes();
+      output.write(bytes, 0, bytes.length);
+    }
+    else {
+      encode(output, root);
+    }
+  }
+
+  /**
+   * Codifica a tag e os descendentes, numa passada sem recursão, copiando os
+   * bytes guardados dos filhos com a guarda ligada
+   * 
+   * @param output
+   * @param root
+   * @throws IOException
+   */
+  private static void encode(StringOutputStream output, XmlNode root)
+    throws IOException {
+    if (!encodeHead(output, root)) {
+      return;
+    }
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    int[] indexes = new int[16];
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      XmlNode node = stack.get(top);
+      int n = indexes[top];
+      String text = node.getText(n);
+      if (text != null && !isBlank(text)) {
+        output.append(text);
+      }
+      if (n == node.nodes.size()) {
+        encodeTail(output, node);
+        stack.remove(top);
+        continue;
+      }
+      indexes[top] = n + 1;
+      XmlNode child = node.nodes.get(n);
+      if (child.byteCache) {
+        byte[] bytes = child.cachedBytes();
+        output.write(bytes, 0, bytes.length);
+      }
+      else if (encodeHead(output, child)) {
+        if (stack.size() == indexes.length) {
+          indexes = Arrays.copyOf(indexes, 2 * indexes.length);
+        }
+        indexes[stack.size()] = 0;
+        stack.add(child);
+      }
+    }
+  }
+
+  /**
+   * Codifica a abertura da tag. Uma tag sem filhos é codificada inteira.
    * 
    * @param output
    * @param root
+   * @return indica se ainda faltam os filhos e o fechamento
    * @throws IOException
    */
-  private static void getBytes(StringOutputStream output, XmlNode root)
+  private static boolean encodeHead(StringOutputStream output, XmlNode root)
     throws IOException {
+    root.expand();
     output.write('<');
     output.append(root.name);
     if (root.attributes != null) {
@@ -716,13 +1952,30 @@ public class XmlNode {
     }
     output.write('>');
     if (root.nodes != null) {
-      for (XmlNode node : root.nodes) {
-        getBytes(output, node);
-      }
+      return true;
     }
-    else if (root.content != null) {
-      output.append(root.content);
+    if (root.source != null) {
+      output.append(root.source);
     }
+    else {
+      String content = root.getContent();
+      if (content != null) {
+        output.append(content);
+      }
+    }
+    encodeTail(output, root);
+    return false;
+  }
+
+  /**
+   * Codifica o fechamento da tag
+   * 
+   * @param output
+   * @param root
+   * @throws IOException
+   */
+  private static void encodeTail(StringOutputStream output, XmlNode root)
+    throws IOException {
     output.write('<');
     output.write('/');
     output.append(root.name);
@@ -738,25 +1991,57 @@ public class XmlNode {
   public void write(OutputStream output) throws IOException {
     StringOutputStream out = new StringOutputStream(output);
     getBytes(out, this);
+    out.flush();
   }
 
   /**
-   * {@inheritDoc}
+   * Escreve a tag e seus descendentes no formato binário, que é lido sem
+   * análise de texto pelo {@link #readBinary(InputStream)}
+   * 
+   * @param output
+   * @throws IOException
+   */
+  public void writeBinary(OutputStream output) throws IOException {
+    XmlBinary.write(this, output);
+  }
+
+  /**
+   * Lê uma árvore escrita pelo {@link #writeBinary(OutputStream)}
+   * 
+   * @param input
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
+   */
+  public static XmlNode readBinary(InputStream input) throws ParseException,
+    IOException {
+    return XmlBinary.read(input);
+  }
+
+  /**
+   * Calculado pelas partes de cada tag, numa passada sem recursão, sem montar
+   * o conteúdo com o texto dos descendentes.
    */
   @Override
   public int hashCode() {
-    final int prime = 31;
     int result = 1;
-    result =
-      prime * result + ((attributes == null) ? 0 : attributes.hashCode());
-    result = prime * result + ((content == null) ? 0 : content.hashCode());
-    result = prime * result + ((name == null) ? 0 : name.hashCode());
-    result = prime * result + ((nodes == null) ? 0 : nodes.hashCode());
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+      result = 31 * result + node.localHashCode();
+      if (node.nodes != null) {
+        stack.addAll(node.nodes);
+      }
+    }
     return result;
   }
 
   /**
-   * {@inheritDoc}
+   * Compara o nome, os atributos, os textos da própria tag e os filhos de
+   * cada tag, numa passada sem recursão, sem montar o conteúdo com o texto
+   * dos descendentes. Os textos só de espaços entre filhos, que não são
+   * escritos, não contam.
    */
   @Override
   public boolean equals(Object obj) {
@@ -766,24 +2051,58 @@ public class XmlNode {
     if (obj == null) {
       return false;
     }
-    if (getClass() != obj.getClass()) {
-      return false;
-    }
-    XmlNode other = (XmlNode) obj;
-    if (attributes == null) {
-      if (other.attributes != null) {
+    List<XmlNode> stack = new ArrayList<XmlNode>();
+    List<XmlNode> others = new ArrayList<XmlNode>();
+    stack.add(this);
+    others.add((XmlNode) (getClass() == obj.getClass() ? obj : null));
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.remove(stack.size() - 1);
+      XmlNode other = others.remove(others.size() - 1);
+      if (other == null || node.getClass() != other.getClass()
+        || !node.localEquals(other)) {
         return false;
       }
+      if (node.nodes != null) {
+        stack.addAll(node.nodes);
+        others.addAll(other.nodes);
+      }
     }
-    else if (!attributes.equals(other.attributes)) {
-      return false;
+    return true;
+  }
+
+  /**
+   * @return código das partes da própria tag
+   */
+  private int localHashCode() {
+    this.expand();
+    final int prime = 31;
+    int result = 1;
+    result =
+      prime * result + ((attributes == null) ? 0 : attributes.hashCode());
+    result = prime * result + ((name == null) ? 0 : name.hashCode());
+    int size = this.nodes == null ? 0 : this.nodes.size();
+    result = prime * result + size;
+    for (int n = 0; n <= size; n++) {
+      String text = this.localText(n);
+      result = prime * result + ((text == null) ? 0 : text.hashCode());
     }
-    if (content == null) {
-      if (other.content != null) {
+    return result;
+  }
+
+  /**
+   * @param other
+   * @return indica se as partes da própria tag são iguais, inclusive a
+   *         quantidade de filhos
+   */
+  private boolean localEquals(XmlNode other) {
+    this.expand();
+    other.expand();
+    if (attributes == null) {
+      if (other.attributes != null) {
         return false;
       }
     }
-    else if (!content.equals(other.content)) {
+    else if (!attributes.equals(other.attributes)) {
       return false;
     }
     if (name == null) {
@@ -794,75 +2113,54 @@ public class XmlNode {
     else if (!name.equals(other.name)) {
       return false;
     }
-    if (nodes == null) {
-      if (other.nodes != null) {
+    int size = this.nodes == null ? 0 : this.nodes.size();
+    if (size != (other.nodes == null ? 0 : other.nodes.size())
+      || (this.nodes == null) != (other.nodes == null)) {
+      return false;
+    }
+    for (int n = 0; n <= size; n++) {
+      String text = this.localText(n);
+      if (text == null ? other.localText(n) != null : !text.equals(other
+        .localText(n))) {
         return false;
       }
     }
-    else if (!nodes.equals(other.nodes)) {
-      return false;
-    }
     return true;
   }
 
   /**
-   * String para output stream
-   * 
-   * @author bernardobreder
+   * Texto da própria tag como é escrito: numa tag sem filhos, o conteúdo; numa
+   * tag com filhos, o texto antes do filho do índice, ou null se só tiver
+   * espaços. Nada é guardado na tag.
    * 
+   * @param index
+   * @return texto ou null
    */
-  private static class StringOutputStream extends OutputStream {
-
-    /** Saída */
-    private final OutputStream output;
-
-    /**
-     * Construtor
-     * 
-     * @param output
-     */
-    public StringOutputStream(OutputStream output) {
-      this.output = output;
-    }
-
-    /**
-     * Acrescenta uma string
-     * 
-     * @param text
-     * @throws IOException
-     */
-    public void append(String text) throws IOException {
-      int size = text.length();
-      for (int n = 0; n < size; n++) {
-        char c = text.charAt(n);
-        if (c <= 0x7F) {
-          output.write(c);
-        }
-        else if (c <= 0x7FF) {
-          output.write(((c >> 6) & 0x1F) + 0xC0);
-          output.write((c & 0x3F) + 0x80);
-        }
-        else {
-          output.write(((c >> 12) & 0xF) + 0xE0);
-          output.write(((c >> 6) & 0x3F) + 0x80);
-          output.write((c & 0x3F) + 0x80);
+  private String localText(int index) {
+    if (this.nodes != null) {
+      String text = this.getText(index);
+      return text == null || isBlank(text) ? null : text;
+    }
+    if (this.texts != null) {
+      StringBuilder sb = new StringBuilder();
+      for (String text : this.texts) {
+        if (text != null) {
+          sb.append(text);
         }
       }
+      return trim(sb);
     }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void write(int n) throws IOException {
-      output.write(n);
+    if (this.content == null && this.source != null) {
+      return this.getContent();
     }
-
+    return this.content;
   }
 
   /**
-   * Leitor de String em UTF8
-   * 
+   * Leitor de String em UTF8. Cada leitura devolve um char, e não um byte: os
+   * caracteres fora do plano básico são devolvidos como dois surrogates. A
+   * decodificação é feita em blocos pelo {@link Utf8Reader}, e
+   * {@link #read(char[], int, int)} lê vários chars de uma vez.
    * 
    * @author Tecgraf
    */
@@ -870,12 +2168,15 @@ public class XmlNode {
 
     /** Stream */
     private final InputStream input;
+    /** Leitor */
+    private final Utf8Reader reader;
 
     /**
      * @param input
      */
     public StringInputStream(InputStream input) {
       this.input = input;
+      this.reader = new Utf8Reader(input);
     }
 
     /**
@@ -883,19 +2184,20 @@ public class XmlNode {
      */
     @Override
     public int read() throws IOException {
-      int c = this.input.read();
-      if (c <= 0x7F) {
-        return c;
-      }
-      else if ((c >> 5) == 0x6) {
-        int i2 = this.input.read();
-        return ((c & 0x1F) << 6) + (i2 & 0x3F);
-      }
-      else {
-        int i2 = this.input.read();
-        int i3 = this.input.read();
-        return ((c & 0xF) << 12) + ((i2 & 0x3F) << 6) + (i3 & 0x3F);
-      }
+      return this.reader.read();
+    }
+
+    /**
+     * Lê vários chars de uma vez
+     * 
+     * @param chars
+     * @param off
+     * @param len
+     * @return quantidade de chars lidos ou -1 no fim do stream
+     * @throws IOException
+     */
+    public int read(char[] chars, int off, int len) throws IOException {
+      return this.reader.read(chars, off, len);
     }
 
     /**
@@ -911,96 +2213,71 @@ public class XmlNode {
      */
     @Override
     public void close() throws IOException {
-      this.input.close();
+      this.reader.close();
     }
 
   }
 
   /**
-   * Handler para contar as linhas
+   * Intervalo de bytes de uma tag ainda não lida, no parse preguiçoso
    * 
-   * @author Tecgraf
+   * @author bernardobreder
    */
-  private static class MyHandler extends DefaultHandler {
+  private static class Span {
 
-    /** Documento */
-    private final Document doc;
-    /** Locator */
-    private Locator locator;
-    /** Pilha */
-    private final Stack<Element> elementStack = new Stack<Element>();
-    /** Texto */
-    private final StringBuilder textBuffer = new StringBuilder();
+    /** Bytes do documento */
+    private final ByteBuffer buffer;
+    /** Início da tag */
+    private final int start;
+    /** Fim da tag */
+    private final int end;
 
     /**
      * Construtor
      * 
-     * @param doc
+     * @param buffer
+     * @param start
+     * @param end
      */
-    public MyHandler(Document doc) {
-      this.doc = doc;
+    public Span(ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
     }
 
     /**
-     * {@inheritDoc}
+     * @return analisador sobre o intervalo da tag
      */
-    @Override
-    public void setDocumentLocator(Locator locator) {
-      this.locator = locator;
+    public XmlTokenizer tokenizer() {
+      ByteBuffer bytes = this.buffer.duplicate();
+      bytes.limit(this.end).position(this.start);
+      return new XmlTokenizer(bytes);
     }
 
     /**
-     * {@inheritDoc}
+     * Acrescenta o texto da tag e dos descendentes, sem criar as tags
+     * 
+     * @param sb
      */
-    @Override
-    public void startElement(final String uri, final String localName,
-      final String qName, final Attributes attributes) throws SAXException {
-      addTextIfNeeded();
-      final Element el = doc.createElement(qName);
-      for (int i = 0; i < attributes.getLength(); i++) {
-        el.setAttribute(attributes.getQName(i), attributes.getValue(i));
+    public void appendText(StringBuilder sb) {
+      try {
+        XmlTokenizer tokenizer = this.tokenizer();
+        for (int event; (event = tokenizer.next()) != XmlTokenizer.END_ELEMENT
+          || tokenizer.getDepth() > 0;) {
+          if (event == XmlTokenizer.TEXT) {
+            int count = tokenizer.decodeText();
+            sb.append(tokenizer.getChars(), 0, count);
+          }
+        }
       }
-      el.setUserData("line", String.valueOf(this.locator.getLineNumber()), null);
-      elementStack.push(el);
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void endElement(final String uri, final String localName,
-      final String qName) {
-      addTextIfNeeded();
-      final Element closedEl = elementStack.pop();
-      if (elementStack.isEmpty()) {
-        doc.appendChild(closedEl);
+      catch (ParseException e) {
+        throw new IllegalStateException(e);
       }
-      else {
-        final Element parentEl = elementStack.peek();
-        parentEl.appendChild(closedEl);
+      catch (IOException e) {
+        throw new IllegalStateException(e);
       }
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void characters(final char ch[], final int start, final int length)
-      throws SAXException {
-      textBuffer.append(ch, start, length);
-    }
-
-    /**
-     * Adiciona o texto se precisar
-     */
-    private void addTextIfNeeded() {
-      if (textBuffer.length() > 0) {
-        final Element el = elementStack.peek();
-        final Node textNode = doc.createTextNode(textBuffer.toString());
-        el.appendChild(textNode);
-        textBuffer.delete(0, textBuffer.length());
-      }
-    }
   }
 
 }
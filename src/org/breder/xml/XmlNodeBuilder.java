@@ -0,0 +1,301 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Constrói uma árvore de {@link XmlNode} a partir de eventos de abertura,
+ * texto e fechamento de tags. É usado tanto pelo parse via SAX quanto pelo
+ * {@link XmlTokenizer}.
+ * 
+ * Com um limite de derramamento, o texto de uma tag que passa do limite é
+ * escrito num arquivo temporário em vez de ficar no heap. Se a tag não tiver
+ * filhos, o conteúdo dela fica como um {@link XmlContentSource} do trecho do
+ * arquivo sem os espaços das pontas; se tiver, o texto é lido de volta
+ * inteiro, com os espaços, e a árvore fica igual à do parse sem
+ * derramamento. Cada arquivo
+ * pertence à origem criada para ele e é apagado quando ela é fechada ou
+ * coletada; se o parse falhar, {@link #discard()} apaga todos os arquivos
+ * dele.
+ * 
+ * @author bernardobreder
+ */
+final class XmlNodeBuilder {
+
+  /** Tag raiz */
+  private XmlNode root;
+  /** Tag corrente */
+  private XmlNode node;
+  /** Texto da tag corrente desde a última abertura ou fechamento de tag */
+  private final StringBuilder text = new StringBuilder();
+  /** Limite de chars do texto em memória ou 0 para nunca derramar */
+  private int spill;
+  /** Diretório dos arquivos derramados ou null para o temporário padrão */
+  private Path spillDirectory;
+  /** Origens criadas por este construtor */
+  private final List<XmlContentSource> spilled =
+    new ArrayList<XmlContentSource>();
+  /** Arquivo do texto derramado ou null */
+  private Path spillPath;
+  /** Escritor do texto derramado ou null */
+  private Utf8Writer spillWriter;
+  /** Bytes de espaços no início do texto derramado */
+  private long spillLeading;
+  /** Bytes de espaços no fim do texto derramado */
+  private long spillTrailing;
+  /** Indica se o texto derramado até agora só tem espaços */
+  private boolean spillBlank;
+
+  /**
+   * Construtor
+   * 
+   * @param root tag que receberá a raiz ou null para criar uma nova
+   */
+  public XmlNodeBuilder(XmlNode root) {
+    this.root = root;
+  }
+
+  /**
+   * @param spill limite de chars do texto em memória ou 0 para nunca
+   *        derramar
+   * @param directory diretório dos arquivos ou null para o temporário padrão
+   * @return this
+   */
+  public XmlNodeBuilder setSpill(int spill, Path directory) {
+    this.spill = spill;
+    this.spillDirectory = directory;
+    return this;
+  }
+
+  /**
+   * Lê todos os eventos do analisador
+   * 
+   * @param tokenizer
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
+   */
+  public XmlNode read(XmlTokenizer tokenizer) throws ParseException,
+    IOException {
+    for (int event; (event = tokenizer.next()) != XmlTokenizer.END_DOCUMENT;) {
+      if (event == XmlTokenizer.START_ELEMENT) {
+        this.startElement(tokenizer.getName());
+        int size = tokenizer.getAttributeCount();
+        for (int n = 0; n < size; n++) {
+          this.attribute(tokenizer.getAttributeName(n), tokenizer
+            .getAttributeValue(n));
+        }
+      }
+      else if (event == XmlTokenizer.END_ELEMENT) {
+        this.endElement();
+      }
+      else {
+        int count = tokenizer.decodeText();
+        this.characters(tokenizer.getChars(), 0, count);
+      }
+    }
+    return this.root;
+  }
+
+  /**
+   * Abre uma tag
+   * 
+   * @param name
+   * @throws IOException
+   */
+  public void startElement(String name) throws IOException {
+    if (this.node != null) {
+      if (this.spillWriter != null) {
+        this.unspill();
+      }
+      this.node.flushText(this.text);
+    }
+    XmlNode child;
+    if (this.node == null && this.root != null && this.root.getName() == null) {
+      child = this.root.setName(name);
+    }
+    else {
+      child = new XmlNode(name);
+      if (this.node == null) {
+        this.root = child;
+      }
+      else {
+        this.node.attach(child);
+      }
+    }
+    this.node = child;
+  }
+
+  /**
+   * Adiciona um atributo na tag aberta
+   * 
+   * @param key
+   * @param value
+   */
+  public void attribute(String key, String value) {
+    this.node.setAttribute(key, value);
+  }
+
+  /**
+   * Acrescenta texto na tag aberta
+   * 
+   * @param ch
+   * @param start
+   * @param length
+   * @throws IOException
+   */
+  public void characters(char[] ch, int start, int length)
+    throws IOException {
+    if (this.node == null) {
+      return;
+    }
+    if (this.spillWriter != null) {
+      this.spillWriter.write(ch, start, length);
+      this.count(ch, start, length);
+      return;
+    }
+    this.text.append(ch, start, length);
+    if (this.spill > 0 && this.text.length() > this.spill
+      && this.node.getNodeCount() == 0) {
+      this.startSpill();
+    }
+  }
+
+  /**
+   * Fecha a tag aberta. Cada texto é copiado uma única vez, para a tag que o
+   * contém; o conteúdo com o texto dos descendentes é montado sob demanda por
+   * {@link XmlNode#getContent()}.
+   * 
+   * @throws IOException
+   */
+  public void endElement() throws IOException {
+    if (this.spillWriter != null && this.spillBlank) {
+      this.unspill();
+      this.node.flushText(this.text);
+    }
+    else if (this.spillWriter != null) {
+      this.spillWriter.close();
+      this.spillWriter = null;
+      long size = Files.size(this.spillPath);
+      long length = size - this.spillLeading - this.spillTrailing;
+      XmlContentSource source =
+        XmlContentSource.temporary(this.spillPath, this.spillLeading, length,
+          size);
+      this.spilled.add(source);
+      this.spillPath = null;
+      this.node.setContent(source);
+    }
+    else {
+      this.node.flushText(this.text);
+    }
+    this.node = this.node.getParent();
+  }
+
+  /**
+   * @return tag raiz
+   */
+  public XmlNode getRoot() {
+    return this.root;
+  }
+
+  /**
+   * Descarta a árvore de um parse que falhou: fecha e apaga o arquivo que
+   * estava sendo escrito e os arquivos das origens já criadas
+   */
+  public void discard() {
+    if (this.spillWriter != null) {
+      try {
+        this.spillWriter.close();
+      }
+      catch (IOException e) {
+      }
+      this.spillWriter = null;
+    }
+    if (this.spillPath != null) {
+      try {
+        Files.deleteIfExists(this.spillPath);
+      }
+      catch (IOException e) {
+      }
+      this.spillPath = null;
+    }
+    for (XmlContentSource source : this.spilled) {
+      try {
+        source.close();
+      }
+      catch (IOException e) {
+      }
+    }
+    this.spilled.clear();
+  }
+
+  /**
+   * Começa a derramar o texto da tag corrente. O texto é escrito inteiro, e
+   * os espaços das pontas são contados à parte.
+   * 
+   * @throws IOException
+   */
+  private void startSpill() throws IOException {
+    this.spillPath =
+      this.spillDirectory == null ? Files.createTempFile("xml", ".txt")
+        : Files.createTempFile(this.spillDirectory, "xml", ".txt");
+    this.spillWriter = new Utf8Writer(Files.newOutputStream(this.spillPath));
+    this.spillLeading = 0;
+    this.spillTrailing = 0;
+    this.spillBlank = true;
+    int length = this.text.length();
+    char[] chars = new char[length];
+    this.text.getChars(0, length, chars, 0);
+    this.text.setLength(0);
+    this.spillWriter.write(chars, 0, length);
+    this.count(chars, 0, length);
+  }
+
+  /**
+   * Conta os espaços no início e no fim do texto derramado, que têm um byte
+   * cada
+   * 
+   * @param ch
+   * @param start
+   * @param length
+   */
+  private void count(char[] ch, int start, int length) {
+    int end = start + length;
+    if (this.spillBlank) {
+      int n = start;
+      while (n < end && ch[n] <= ' ') {
+        n++;
+      }
+      this.spillLeading += n - start;
+      if (n == end) {
+        return;
+      }
+      this.spillBlank = false;
+      this.spillTrailing = 0;
+    }
+    int n = end;
+    while (n > start && ch[n - 1] <= ' ') {
+      n--;
+    }
+    this.spillTrailing = n == start ? this.spillTrailing + length : end - n;
+  }
+
+  /**
+   * Lê de volta o texto derramado, quando a tag ganha um filho
+   * 
+   * @throws IOException
+   */
+  private void unspill() throws IOException {
+    this.spillWriter.close();
+    this.spillWriter = null;
+    String text = XmlContentSource.of(this.spillPath).getText();
+    Files.delete(this.spillPath);
+    this.spillPath = null;
+    this.text.insert(0, text);
+  }
+
+}
@@ -0,0 +1,316 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache de arquivos Xml já lidos, pelo caminho do arquivo. Cada consulta
+ * confere a data de modificação e o tamanho do arquivo e lê de novo apenas se
+ * algum mudou. As árvores são congeladas com {@link XmlNode#freeze()}, então
+ * podem ser usadas por várias threads ao mesmo tempo.
+ * 
+ * O cache tem um limite de memória, medido por uma estimativa dos bytes
+ * retidos por cada árvore, e descarta primeiro os arquivos usados há mais
+ * tempo. Consultas simultâneas do mesmo arquivo esperam uma única leitura. É
+ * sincronizado.
+ * 
+ * @author bernardobreder
+ */
+public class XmlNodeCache {
+
+  /** Limite de memória em bytes */
+  private final long capacity;
+  /** Arquivos do menos para o mais usado */
+  private final LinkedHashMap<Path, Entry> entries =
+    new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+  /** Memória estimada das árvores guardadas */
+  private long weight;
+  /** Consultas atendidas pelo cache */
+  private long hits;
+  /** Consultas que leram o arquivo */
+  private long misses;
+  /** Árvores descartadas pelo limite de memória */
+  private long evictions;
+
+  /**
+   * Construtor
+   * 
+   * @param capacity limite de memória em bytes
+   */
+  public XmlNodeCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Recupera a árvore do arquivo, lendo se não estiver no cache ou se o
+   * arquivo mudou
+   * 
+   * @param path
+   * @return tag raiz congelada
+   * @throws ParseException
+   * @throws IOException
+   */
+  public XmlNode get(Path path) throws ParseException, IOException {
+    final Path key = path.toAbsolutePath().normalize();
+    BasicFileAttributes attributes =
+      Files.readAttributes(key, BasicFileAttributes.class);
+    Entry entry;
+    boolean owner = false;
+    synchronized (this) {
+      entry = this.entries.get(key);
+      if (entry != null && entry.isValid(attributes)) {
+        this.hits++;
+      }
+      else {
+        if (entry != null) {
+          this.remove(key, entry);
+        }
+        entry = new Entry(key, attributes);
+        this.entries.put(key, entry);
+        this.misses++;
+        owner = true;
+      }
+    }
+    if (owner) {
+      entry.task.run();
+    }
+    XmlNode node;
+    try {
+      node = entry.task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(key.toString());
+    }
+    catch (ExecutionException e) {
+      synchronized (this) {
+        this.remove(key, entry);
+      }
+      Throwable cause = e.getCause();
+      if (cause instanceof ParseException) {
+        throw (ParseException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw (Error) cause;
+    }
+    if (owner) {
+      long weight = weigh(node);
+      synchronized (this) {
+        if (this.entries.get(key) == entry) {
+          entry.weight = weight;
+          this.weight += weight;
+          this.evict();
+        }
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Descarta o arquivo do cache
+   * 
+   * @param path
+   */
+  public synchronized void invalidate(Path path) {
+    Path key = path.toAbsolutePath().normalize();
+    Entry entry = this.entries.get(key);
+    if (entry != null) {
+      this.remove(key, entry);
+    }
+  }
+
+  /**
+   * Descarta todos os arquivos do cache
+   */
+  public synchronized void clear() {
+    this.entries.clear();
+    this.weight = 0;
+  }
+
+  /**
+   * @return quantidade de arquivos no cache
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * @return memória estimada das árvores guardadas, em bytes
+   */
+  public synchronized long getWeight() {
+    return this.weight;
+  }
+
+  /**
+   * @return limite de memória em bytes
+   */
+  public long getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * @return consultas atendidas pelo cache
+   */
+  public synchronized long getHitCount() {
+    return this.hits;
+  }
+
+  /**
+   * @return consultas que leram o arquivo
+   */
+  public synchronized long getMissCount() {
+    return this.misses;
+  }
+
+  /**
+   * @return árvores descartadas pelo limite de memória
+   */
+  public synchronized long getEvictionCount() {
+    return this.evictions;
+  }
+
+  /**
+   * Descarta os arquivos usados há mais tempo até caber no limite. As
+   * leituras em andamento não são descartadas.
+   */
+  private void evict() {
+    Iterator<Entry> iterator = this.entries.values().iterator();
+    while (this.weight > this.capacity && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.task.isDone()) {
+        iterator.remove();
+        this.weight -= entry.weight;
+        this.evictions++;
+      }
+    }
+  }
+
+  /**
+   * Retira a entrada, se ainda for a do caminho
+   * 
+   * @param key
+   * @param entry
+   */
+  private void remove(Path key, Entry entry) {
+    if (this.entries.get(key) == entry) {
+      this.entries.remove(key);
+      this.weight -= entry.weight;
+    }
+  }
+
+  /**
+   * Estima os bytes retidos pela árvore: o objeto de cada tag, as coleções
+   * e as strings de valores e textos. Os nomes são compartilhados pela
+   * {@link XmlSymbolTable} e não são contados, e o conteúdo só conta nas
+   * tags sem filhos: nas outras ele é montado a cada leitura e não fica
+   * guardado. O conteúdo fora do heap também não conta.
+   * 
+   * @param root
+   * @return bytes estimados
+   */
+  private static long weigh(XmlNode root) {
+    long weight = 0;
+    Deque<XmlNode> stack = new ArrayDeque<XmlNode>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      XmlNode node = stack.pop();
+      weight += 64;
+      Map<String, String> attributes = node.getAttributes();
+      if (attributes != null) {
+        weight += 32 + 8 * attributes.size();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+          weight += weigh(entry.getValue());
+        }
+      }
+      List<XmlNode> nodes = node.getNodes();
+      if (nodes != null) {
+        weight += 32 + 8 * nodes.size();
+        for (int n = 0; n <= nodes.size(); n++) {
+          weight += weigh(node.getText(n));
+        }
+        for (XmlNode child : nodes) {
+          stack.push(child);
+        }
+      }
+      else {
+        weight += weigh(node.getText(0));
+        if (node.getContentSource() == null) {
+          weight += weigh(node.getContent());
+        }
+      }
+    }
+    return weight;
+  }
+
+  /**
+   * @param text
+   * @return bytes estimados da string
+   */
+  private static long weigh(String text) {
+    return text == null ? 0 : 40 + 2L * text.length();
+  }
+
+  /**
+   * Árvore guardada de um arquivo
+   * 
+   * @author bernardobreder
+   */
+  private static class Entry {
+
+    /** Leitura do arquivo */
+    private final FutureTask<XmlNode> task;
+    /** Data de modificação do arquivo lido */
+    private final FileTime time;
+    /** Tamanho do arquivo lido */
+    private final long size;
+    /** Memória estimada da árvore, conhecida depois da leitura */
+    private long weight;
+
+    /**
+     * Construtor
+     * 
+     * @param path
+     * @param attributes
+     */
+    public Entry(final Path path, BasicFileAttributes attributes) {
+      this.time = attributes.lastModifiedTime();
+      this.size = attributes.size();
+      this.task = new FutureTask<XmlNode>(new Callable<XmlNode>() {
+        @Override
+        public XmlNode call() throws Exception {
+          return XmlNode.parse(path).freeze();
+        }
+      });
+    }
+
+    /**
+     * @param attributes
+     * @return indica se o arquivo não mudou desde a leitura
+     */
+    public boolean isValid(BasicFileAttributes attributes) {
+      return this.size == attributes.size()
+        && this.time.equals(attributes.lastModifiedTime());
+    }
+
+  }
+
+}
@@ -0,0 +1,351 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Analisador de Xml via JAXP configurado uma única vez. A fábrica do SAX é
+ * procurada na criação do analisador, e cada thread reaproveita o seu
+ * próprio {@link SAXParser} entre as chamadas, em vez de procurar a fábrica e
+ * criar um analisador a cada documento.
+ * 
+ * Por padrão, a validação, o carregamento de DTDs externos e as entidades
+ * externas ficam desligados, e os textos são lidos em UTF-8. Os textos já são
+ * juntados pela montagem da árvore, então não há opção para isso. Com
+ * {@link #setSpillThreshold(int)}, os textos grandes são derramados em
+ * arquivos temporários em vez de ficarem no heap. O
+ * {@link XmlNode#XmlNode(InputStream)} usa a instância de
+ * {@link #getDefault()}, que não pode ser alterada.
+ * 
+ * @author bernardobreder
+ */
+public class XmlParser {
+
+  /** Recurso de entidades gerais externas */
+  private static final String EXTERNAL_GENERAL_ENTITIES =
+    "http://xml.org/sax/features/external-general-entities";
+  /** Recurso de entidades de parâmetro externas */
+  private static final String EXTERNAL_PARAMETER_ENTITIES =
+    "http://xml.org/sax/features/external-parameter-entities";
+  /** Recurso de carregamento de DTD externo */
+  private static final String LOAD_EXTERNAL_DTD =
+    "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+  /** Instância padrão */
+  private static final XmlParser DEFAULT = new XmlParser();
+
+  /** Fábrica */
+  private final SAXParserFactory factory;
+  /** Codificação dos textos ou null para usar a do documento */
+  private volatile String encoding = "utf-8";
+  /** Indica se as entidades externas são resolvidas */
+  private volatile boolean externalEntities;
+  /** Limite de chars de um texto no heap ou 0 para nunca derramar */
+  private volatile int spillThreshold;
+  /** Diretório dos arquivos derramados ou null para o temporário padrão */
+  private volatile Path spillDirectory;
+  /** Analisador de cada thread, trocado quando a configuração muda */
+  private volatile ThreadLocal<SAXParser> parsers =
+    new ThreadLocal<SAXParser>();
+
+  /**
+   * Construtor
+   */
+  public XmlParser() {
+    this.factory = SAXParserFactory.newInstance();
+    this.factory.setValidating(false);
+    this.factory.setNamespaceAware(false);
+    this.setFeature(EXTERNAL_GENERAL_ENTITIES, false);
+    this.setFeature(EXTERNAL_PARAMETER_ENTITIES, false);
+    this.setFeature(LOAD_EXTERNAL_DTD, false);
+  }
+
+  /**
+   * @return instância padrão, compartilhada e sem alterações
+   */
+  public static XmlParser getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param encoding codificação dos textos ou null para usar a do documento
+   * @return this
+   */
+  public XmlParser setEncoding(String encoding) {
+    this.checkModifiable();
+    this.encoding = encoding;
+    return this;
+  }
+
+  /**
+   * @param validating valida o documento pelo DTD
+   * @return this
+   */
+  public synchronized XmlParser setValidating(boolean validating) {
+    this.checkModifiable();
+    this.factory.setValidating(validating);
+    this.parsers = new ThreadLocal<SAXParser>();
+    return this;
+  }
+
+  /**
+   * @param namespaceAware trata os namespaces
+   * @return this
+   */
+  public synchronized XmlParser setNamespaceAware(boolean namespaceAware) {
+    this.checkModifiable();
+    this.factory.setNamespaceAware(namespaceAware);
+    this.parsers = new ThreadLocal<SAXParser>();
+    return this;
+  }
+
+  /**
+   * @param load carrega o DTD externo, mesmo sem validação
+   * @return this
+   */
+  public synchronized XmlParser setLoadExternalDtd(boolean load) {
+    this.checkModifiable();
+    this.setFeature(LOAD_EXTERNAL_DTD, load);
+    this.parsers = new ThreadLocal<SAXParser>();
+    return this;
+  }
+
+  /**
+   * @param external resolve as entidades externas
+   * @return this
+   */
+  public synchronized XmlParser setExternalEntities(boolean external) {
+    this.checkModifiable();
+    this.setFeature(EXTERNAL_GENERAL_ENTITIES, external);
+    this.setFeature(EXTERNAL_PARAMETER_ENTITIES, external);
+    this.externalEntities = external;
+    this.parsers = new ThreadLocal<SAXParser>();
+    return this;
+  }
+
+  /**
+   * Liga o derramamento dos textos grandes. O texto de uma tag sem filhos que
+   * passa do limite é escrito num arquivo temporário, e o conteúdo da tag
+   * fica como um {@link XmlContentSource} do arquivo. O arquivo é apagado no
+   * {@link XmlContentSource#close()} ou quando a origem é coletada, e na hora
+   * se o parse falhar.
+   * 
+   * @param threshold limite de chars de um texto no heap ou 0 para nunca
+   *        derramar
+   * @return this
+   */
+  public XmlParser setSpillThreshold(int threshold) {
+    this.checkModifiable();
+    this.spillThreshold = threshold;
+    return this;
+  }
+
+  /**
+   * @param directory diretório dos arquivos derramados ou null para o
+   *        temporário padrão
+   * @return this
+   */
+  public XmlParser setSpillDirectory(Path directory) {
+    this.checkModifiable();
+    this.spillDirectory = directory;
+    return this;
+  }
+
+  /**
+   * Faz o parse do stream
+   * 
+   * @param input
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
+   */
+  public XmlNode parse(InputStream input) throws ParseException, IOException {
+    return this.parse(input, null);
+  }
+
+  /**
+   * Faz o parse do stream
+   * 
+   * @param input
+   * @param root tag que receberá a raiz ou null para criar uma nova
+   * @return tag raiz
+   * @throws ParseException
+   * @throws IOException
+   */
+  XmlNode parse(InputStream input, XmlNode root) throws ParseException,
+    IOException {
+    SAXParser parser = this.parser();
+    InputSource source = new InputSource(input);
+    String encoding = this.encoding;
+    if (encoding != null) {
+      source.setEncoding(encoding);
+    }
+    Handler handler = new Handler(root, this.externalEntities);
+    handler.builder.setSpill(this.spillThreshold, this.spillDirectory);
+    boolean done = false;
+    try {
+      parser.parse(source, handler);
+      done = true;
+    }
+    catch (SAXException e) {
+      throw new ParseException(e.getMessage(), 0);
+    }
+    finally {
+      parser.reset();
+      if (!done) {
+        handler.builder.discard();
+      }
+    }
+    return handler.builder.getRoot();
+  }
+
+  /**
+   * @return analisador da thread
+   * @throws ParseException
+   */
+  private SAXParser parser() throws ParseException {
+    ThreadLocal<SAXParser> parsers = this.parsers;
+    SAXParser parser = parsers.get();
+    if (parser == null) {
+      try {
+        synchronized (this) {
+          parser = this.factory.newSAXParser();
+        }
+      }
+      catch (ParserConfigurationException e) {
+        throw new ParseException(e.getMessage(), 0);
+      }
+      catch (SAXException e) {
+        throw new ParseException(e.getMessage(), 0);
+      }
+      parsers.set(parser);
+    }
+    return parser;
+  }
+
+  /**
+   * Liga ou desliga um recurso da fábrica
+   * 
+   * @param name
+   * @param value
+   */
+  private void setFeature(String name, boolean value) {
+    try {
+      this.factory.setFeature(name, value);
+    }
+    catch (ParserConfigurationException e) {
+      throw new IllegalArgumentException(name, e);
+    }
+    catch (SAXException e) {
+      throw new IllegalArgumentException(name, e);
+    }
+  }
+
+  /**
+   * Impede a alteração da instância padrão
+   */
+  private void checkModifiable() {
+    if (this == DEFAULT) {
+      throw new UnsupportedOperationException("Analisador padrão");
+    }
+  }
+
+  /**
+   * Handler que constrói as tags diretamente a partir dos eventos do SAX, sem
+   * passar por um Document do DOM.
+   * 
+   * @author Tecgraf
+   */
+  private static class Handler extends DefaultHandler {
+
+    /** Construtor da árvore */
+    private final XmlNodeBuilder builder;
+    /** Indica se as entidades externas são resolvidas */
+    private final boolean externalEntities;
+
+    /**
+     * Construtor
+     * 
+     * @param root
+     * @param externalEntities
+     */
+    public Handler(XmlNode root, boolean externalEntities) {
+      this.builder = new XmlNodeBuilder(root);
+      this.externalEntities = externalEntities;
+    }
+
+    /**
+     * Sem entidades externas, responde com um texto vazio, mesmo que a
+     * fábrica não conheça os recursos que as desligam.
+     */
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId)
+      throws IOException, SAXException {
+      if (this.externalEntities) {
+        return super.resolveEntity(publicId, systemId);
+      }
+      return new InputSource(new StringReader(""));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void startElement(final String uri, final String localName,
+      final String qName, final Attributes attributes) throws SAXException {
+      XmlSymbolTable symbols = XmlSymbolTable.getDefault();
+      try {
+        this.builder.startElement(symbols.intern(qName));
+      }
+      catch (IOException e) {
+        throw new SAXException(e);
+      }
+      int size = attributes.getLength();
+      for (int n = 0; n < size; n++) {
+        this.builder.attribute(symbols.intern(attributes.getQName(n)),
+          attributes.getValue(n));
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endElement(final String uri, final String localName,
+      final String qName) throws SAXException {
+      try {
+        this.builder.endElement();
+      }
+      catch (IOException e) {
+        throw new SAXException(e);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void characters(final char ch[], final int start, final int length)
+      throws SAXException {
+      try {
+        this.builder.characters(ch, start, length);
+      }
+      catch (IOException e) {
+        throw new SAXException(e);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,21 @@
+package org.breder.xml;
+
+/**
+ * Recebe as tags lidas pelo {@link XmlPathReader} que correspondem a um
+ * caminho registrado.
+ * 
+ * @author bernardobreder
+ */
+public interface XmlPathListener {
+
+  /**
+   * Chamado para cada tag que corresponde ao caminho. A tag e seus
+   * descendentes já estão completos e não são referenciados pelo leitor
+   * depois que o método retorna.
+   * 
+   * @param path caminho registrado
+   * @param node tag lida
+   */
+  public void nodeRead(String path, XmlNode node);
+
+}
@@ -0,0 +1,283 @@
+package org.breder.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Leitor de Xml que entrega como {@link XmlNode} apenas as tags que
+ * correspondem a caminhos registrados, como <code>html/body/table/tr</code>.
+ * O restante do documento é percorrido sem construir tags, de forma que a
+ * memória usada é limitada pelo tamanho de uma tag entregue e não pelo
+ * tamanho do documento.
+ * 
+ * Os caminhos são relativos à raiz e começam pelo nome dela. Um segmento
+ * <code>*</code> corresponde a qualquer nome. As correspondências dentro de
+ * uma tag já entregue não são entregues separadamente.
+ * 
+ * @author bernardobreder
+ */
+public class XmlPathReader implements Closeable, Iterable<XmlNode> {
+
+  /** Tamanho inicial do buffer de leitura */
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Analisador */
+  private final XmlTokenizer tokenizer;
+  /** Origem dos bytes */
+  private final Closeable input;
+  /** Caminhos registrados */
+  private final List<String> paths = new ArrayList<String>();
+  /** Segmentos de cada caminho */
+  private final List<String[]> segments = new ArrayList<String[]>();
+  /** Ouvintes de cada caminho */
+  private final List<XmlPathListener> listeners =
+    new ArrayList<XmlPathListener>();
+  /** Quantidade de segmentos iniciais de cada caminho que correspondem */
+  private int[] matches = new int[0];
+  /** Caminho da última tag entregue */
+  private String path;
+
+  /**
+   * Construtor
+   * 
+   * @param input stream em UTF-8
+   */
+  public XmlPathReader(InputStream input) {
+    this.tokenizer = new XmlTokenizer(input, BUFFER_SIZE);
+    this.input = input;
+  }
+
+  /**
+   * Construtor. O arquivo é mapeado em memória em janelas e fica aberto até
+   * o {@link #close()}.
+   * 
+   * @param path arquivo em UTF-8
+   * @throws IOException
+   */
+  public XmlPathReader(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.tokenizer = new XmlTokenizer(channel, XmlTokenizer.WINDOW);
+    this.input = channel;
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param bytes
+   */
+  public XmlPathReader(byte[] bytes) {
+    this.tokenizer = new XmlTokenizer(bytes);
+    this.input = null;
+  }
+
+  /**
+   * Registra um caminho para ser lido com {@link #nextNode()} ou pelo
+   * iterador.
+   * 
+   * @param path
+   * @return this
+   */
+  public XmlPathReader addPath(String path) {
+    return this.addPath(path, null);
+  }
+
+  /**
+   * Registra um caminho com um ouvinte que é chamado para cada tag
+   * correspondente.
+   * 
+   * @param path
+   * @param listener ouvinte ou null
+   * @return this
+   */
+  public XmlPathReader addPath(String path, XmlPathListener listener) {
+    if (this.tokenizer.getEvent() != 0) {
+      throw new IllegalStateException("A leitura já começou");
+    }
+    String text = path.startsWith("/") ? path.substring(1) : path;
+    if (text.length() == 0) {
+      throw new IllegalArgumentException("Caminho vazio");
+    }
+    this.paths.add(path);
+    this.segments.add(text.split("/"));
+    this.listeners.add(listener);
+    this.matches = new int[this.paths.size()];
+    return this;
+  }
+
+  /**
+   * Lê até a próxima tag que corresponde a um caminho registrado. Se o
+   * caminho tiver ouvinte, ele também é chamado.
+   * 
+   * @return tag ou null no fim do documento
+   * @throws ParseException
+   * @throws IOException
+   */
+  public XmlNode nextNode() throws ParseException, IOException {
+    XmlTokenizer tokenizer = this.tokenizer;
+    for (int event; (event = tokenizer.next()) != XmlTokenizer.END_DOCUMENT;) {
+      int depth = tokenizer.getDepth();
+      if (event == XmlTokenizer.START_ELEMENT) {
+        int size = this.matches.length;
+        for (int n = 0; n < size; n++) {
+          String[] segments = this.segments.get(n);
+          if (this.matches[n] == depth - 1 && depth <= segments.length) {
+            String segment = segments[depth - 1];
+            if (segment.equals("*") || tokenizer.isName(segment)) {
+              this.matches[n] = depth;
+              if (depth == segments.length) {
+                XmlNode node = this.readNode();
+                this.end(depth);
+                this.path = this.paths.get(n);
+                XmlPathListener listener = this.listeners.get(n);
+                if (listener != null) {
+                  listener.nodeRead(this.path, node);
+                }
+                return node;
+              }
+            }
+          }
+        }
+      }
+      else if (event == XmlTokenizer.END_ELEMENT) {
+        this.end(depth + 1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Lê o documento inteiro, entregando as tags aos ouvintes
+   * 
+   * @throws ParseException
+   * @throws IOException
+   */
+  public void read() throws ParseException, IOException {
+    while (this.nextNode() != null) {
+    }
+  }
+
+  /**
+   * @return caminho registrado que corresponde à última tag lida
+   */
+  public String getPath() {
+    return this.path;
+  }
+
+  /**
+   * Iterador sobre as tags correspondentes. Os erros de leitura são lançados
+   * como {@link IllegalStateException}.
+   * 
+   * @return iterador
+   */
+  @Override
+  public Iterator<XmlNode> iterator() {
+    return new Iterator<XmlNode>() {
+
+      /** Próxima tag */
+      private XmlNode next;
+      /** Indica que a leitura acabou */
+      private boolean done;
+
+      @Override
+      public boolean hasNext() {
+        if (this.next == null && !this.done) {
+          try {
+            this.next = nextNode();
+          }
+          catch (ParseException e) {
+            throw new IllegalStateException(e);
+          }
+          catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+          this.done = this.next == null;
+        }
+        return this.next != null;
+      }
+
+      @Override
+      public XmlNode next() {
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        XmlNode node = this.next;
+        this.next = null;
+        return node;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+    };
+  }
+
+  /**
+   * Constrói a tag corrente e seus descendentes
+   * 
+   * @return tag
+   * @throws ParseException
+   * @throws IOException
+   */
+  private XmlNode readNode() throws ParseException, IOException {
+    XmlTokenizer tokenizer = this.tokenizer;
+    XmlNodeBuilder builder = new XmlNodeBuilder(null);
+    int depth = tokenizer.getDepth() - 1;
+    int event = XmlTokenizer.START_ELEMENT;
+    for (;;) {
+      if (event == XmlTokenizer.START_ELEMENT) {
+        builder.startElement(tokenizer.getName());
+        int size = tokenizer.getAttributeCount();
+        for (int n = 0; n < size; n++) {
+          builder.attribute(tokenizer.getAttributeName(n), tokenizer
+            .getAttributeValue(n));
+        }
+      }
+      else if (event == XmlTokenizer.END_ELEMENT) {
+        builder.endElement();
+        if (tokenizer.getDepth() == depth) {
+          return builder.getRoot();
+        }
+      }
+      else {
+        int count = tokenizer.decodeText();
+        builder.characters(tokenizer.getChars(), 0, count);
+      }
+      event = tokenizer.next();
+    }
+  }
+
+  /**
+   * Atualiza as correspondências ao fechar uma tag
+   * 
+   * @param depth profundidade da tag fechada
+   */
+  private void end(int depth) {
+    for (int n = 0; n < this.matches.length; n++) {
+      if (this.matches[n] == depth) {
+        this.matches[n] = depth - 1;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.input != null) {
+      this.input.close();
+    }
+  }
+
+}
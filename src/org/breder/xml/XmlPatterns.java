@@ -0,0 +1,58 @@
+package org.breder.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Cache das expressões regulares usadas nas consultas por valor de atributo,
+ * para que a mesma expressão não seja compilada a cada tag visitada. O cache
+ * é limitado e descarta as expressões menos usadas.
+ * 
+ * @author bernardobreder
+ */
+final class XmlPatterns {
+
+  /** Quantidade máxima de expressões no cache */
+  private static final int CACHE_SIZE = 128;
+  /** Expressões compiladas, da menos para a mais usada */
+  private static final Map<String, Pattern> CACHE =
+    new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+
+      /** Versão da serialização */
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+        return this.size() > CACHE_SIZE;
+      }
+
+    };
+
+  /**
+   * Construtor
+   */
+  private XmlPatterns() {
+  }
+
+  /**
+   * Compila a expressão ou retorna a compilada do cache
+   * 
+   * @param regex
+   * @return expressão compilada
+   */
+  public static Pattern compile(String regex) {
+    synchronized (CACHE) {
+      Pattern pattern = CACHE.get(regex);
+      if (pattern != null) {
+        return pattern;
+      }
+    }
+    Pattern pattern = Pattern.compile(regex);
+    synchronized (CACHE) {
+      CACHE.put(regex, pattern);
+    }
+    return pattern;
+  }
+
+}
@@ -0,0 +1,356 @@
+package org.breder.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+
+/**
+ * Leitor de Xml no estilo cursor. Diferente do {@link XmlNode}, não constrói
+ * a árvore: cada chamada de {@link #next()} avança para o próximo evento e os
+ * nomes, atributos e textos só são decodificados quando solicitados. Lendo de
+ * um stream, a memória usada é limitada pelo maior token do documento, o que
+ * permite percorrer documentos maiores que a memória.
+ * 
+ * Os comentários, instruções de processamento e o DOCTYPE são ignorados. O
+ * texto de um CDATA é reportado como {@link #TEXT}.
+ * 
+ * @author bernardobreder
+ */
+public class XmlReader implements Closeable {
+
+  /** Evento de abertura de tag */
+  public static final int START_ELEMENT = XmlTokenizer.START_ELEMENT;
+  /** Evento de fechamento de tag */
+  public static final int END_ELEMENT = XmlTokenizer.END_ELEMENT;
+  /** Evento de texto */
+  public static final int TEXT = XmlTokenizer.TEXT;
+  /** Evento de fim do documento */
+  public static final int END_DOCUMENT = XmlTokenizer.END_DOCUMENT;
+
+  /** Tamanho inicial do buffer de leitura */
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Analisador */
+  private final XmlTokenizer tokenizer;
+  /** Origem dos bytes */
+  private final Closeable input;
+
+  /**
+   * Construtor
+   * 
+   * @param input stream em UTF-8
+   */
+  public XmlReader(InputStream input) {
+    this.tokenizer = new XmlTokenizer(input, BUFFER_SIZE);
+    this.input = input;
+  }
+
+  /**
+   * Construtor. O arquivo é mapeado em memória em janelas e fica aberto até
+   * o {@link #close()}.
+   * 
+   * @param path arquivo em UTF-8
+   * @throws IOException
+   */
+  public XmlReader(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.tokenizer = new XmlTokenizer(channel, XmlTokenizer.WINDOW);
+    this.input = channel;
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param bytes
+   */
+  public XmlReader(byte[] bytes) {
+    this.tokenizer = new XmlTokenizer(bytes);
+    this.input = null;
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param buffer bytes entre a posição e o limite do buffer
+   */
+  public XmlReader(ByteBuffer buffer) {
+    this.tokenizer = new XmlTokenizer(buffer);
+    this.input = null;
+  }
+
+  /**
+   * Altera a tabela que fornece as instâncias dos nomes. Por padrão é usada a
+   * {@link XmlSymbolTable#getDefault()}.
+   * 
+   * @param symbols
+   * @return owner
+   */
+  public XmlReader setSymbolTable(XmlSymbolTable symbols) {
+    this.tokenizer.setSymbolTable(symbols);
+    return this;
+  }
+
+  /**
+   * Avança para o próximo evento
+   * 
+   * @return evento
+   * @throws ParseException
+   * @throws IOException
+   */
+  public int next() throws ParseException, IOException {
+    return this.tokenizer.next();
+  }
+
+  /**
+   * Indica se ainda tem eventos
+   * 
+   * @return tem eventos
+   */
+  public boolean hasNext() {
+    return this.tokenizer.getEvent() != END_DOCUMENT;
+  }
+
+  /**
+   * @return evento corrente
+   */
+  public int getEvent() {
+    return this.tokenizer.getEvent();
+  }
+
+  /**
+   * @return quantidade de tags abertas
+   */
+  public int getDepth() {
+    return this.tokenizer.getDepth();
+  }
+
+  /**
+   * @return nome da tag corrente
+   * @throws ParseException
+   */
+  public String getName() throws ParseException {
+    return this.tokenizer.getName();
+  }
+
+  /**
+   * Compara o nome da tag corrente sem criar uma String
+   * 
+   * @param name
+   * @return indica se o nome é igual
+   * @throws ParseException
+   */
+  public boolean isName(String name) throws ParseException {
+    return this.tokenizer.isName(name);
+  }
+
+  /**
+   * @return quantidade de atributos da tag corrente
+   */
+  public int getAttributeCount() {
+    return this.tokenizer.getAttributeCount();
+  }
+
+  /**
+   * @param index
+   * @return nome do atributo
+   * @throws ParseException
+   */
+  public String getAttributeName(int index) throws ParseException {
+    return this.tokenizer.getAttributeName(index);
+  }
+
+  /**
+   * @param index
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public String getAttribute(int index) throws ParseException {
+    return this.tokenizer.getAttributeValue(index);
+  }
+
+  /**
+   * Indica se tem o atributo
+   * 
+   * @param attribute
+   * @return tem o atributo
+   * @throws ParseException
+   */
+  public boolean hasAttribute(String attribute) throws ParseException {
+    return this.tokenizer.getAttributeIndex(attribute) >= 0;
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @return valor do atributo ou null
+   * @throws ParseException
+   */
+  public String getAttribute(String attribute) throws ParseException {
+    int index = this.tokenizer.getAttributeIndex(attribute);
+    if (index < 0) {
+      return null;
+    }
+    return this.tokenizer.getAttributeValue(index);
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public String getAttribute(String attribute, String defaultValue)
+    throws ParseException {
+    String value = this.getAttribute(attribute);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public Integer getAttribute(String attribute, Integer defaultValue)
+    throws ParseException {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.valueOf(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public Long getAttribute(String attribute, Long defaultValue)
+    throws ParseException {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.valueOf(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public Double getAttribute(String attribute, Double defaultValue)
+    throws ParseException {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.valueOf(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public Float getAttribute(String attribute, Float defaultValue)
+    throws ParseException {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Float.valueOf(value);
+    }
+    catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Retorna o valor do atributo
+   * 
+   * @param attribute
+   * @param defaultValue
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public Boolean getAttribute(String attribute, Boolean defaultValue)
+    throws ParseException {
+    String value = this.getAttribute(attribute);
+    if (value == null) {
+      return defaultValue;
+    }
+    return Boolean.valueOf(value);
+  }
+
+  /**
+   * @return texto corrente
+   * @throws ParseException
+   */
+  public String getText() throws ParseException {
+    return this.tokenizer.getText();
+  }
+
+  /**
+   * Pula a tag corrente e todos os seus descendentes, sem decodificá-los. O
+   * cursor fica posicionado no fechamento da tag.
+   * 
+   * @throws ParseException
+   * @throws IOException
+   */
+  public void skipElement() throws ParseException, IOException {
+    if (this.tokenizer.getEvent() != START_ELEMENT) {
+      throw new IllegalStateException("O cursor não está em uma tag");
+    }
+    int depth = this.tokenizer.getDepth() - 1;
+    while (this.tokenizer.next() != END_ELEMENT
+      || this.tokenizer.getDepth() != depth) {
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.input != null) {
+      this.input.close();
+    }
+  }
+
+}
@@ -0,0 +1,304 @@
+package org.breder.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Busca nos descendentes de uma tag. Árvores pequenas são percorridas na
+ * própria thread; a partir de {@link #SPLIT} tags percorridas, o trecho
+ * pendente é dividido e percorrido em paralelo no {@link ForkJoinPool}
+ * comum, e as partes são juntadas na ordem do documento. Na busca pela
+ * primeira tag, as tarefas que percorrem tags posteriores à encontrada são
+ * interrompidas.
+ * 
+ * @author bernardobreder
+ */
+abstract class XmlSearch {
+
+  /** Quantidade de tags percorridas entre as divisões do trecho pendente */
+  private static final int SPLIT = 1024;
+
+  /**
+   * Indica se a tag atende a busca
+   * 
+   * @param node
+   * @return atende a busca
+   */
+  protected abstract boolean accept(XmlNode node);
+
+  /**
+   * Cria a busca usada por uma tarefa. As buscas com estado, como o Matcher
+   * da expressão regular, devolvem uma cópia com o seu próprio estado.
+   * 
+   * @return busca para uma nova tarefa
+   */
+  protected XmlSearch copy() {
+    return this;
+  }
+
+  /**
+   * Procura nos descendentes da tag
+   * 
+   * @param root
+   * @param single para na primeira encontrada
+   * @return tags encontradas, na ordem do documento
+   */
+  public List<XmlNode> find(XmlNode root, boolean single) {
+    List<XmlNode> nodes = root.getNodes();
+    if (nodes == null) {
+      return new ArrayList<XmlNode>(0);
+    }
+    return new Task(nodes, 0, nodes.size(), single, null).compute();
+  }
+
+  /**
+   * @param name
+   * @return busca pelo nome da tag
+   */
+  public static XmlSearch byTagName(final String name) {
+    return new XmlSearch() {
+      @Override
+      protected boolean accept(XmlNode node) {
+        return name.equals(node.getName());
+      }
+    };
+  }
+
+  /**
+   * @param attribute
+   * @return busca pela existência do atributo
+   */
+  public static XmlSearch byAttributeKey(final String attribute) {
+    return new XmlSearch() {
+      @Override
+      protected boolean accept(XmlNode node) {
+        return node.getAttribute(attribute) != null;
+      }
+    };
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return busca pelo valor igual do atributo
+   */
+  public static XmlSearch byAttributeValue(final String attribute,
+    final String value) {
+    return new XmlSearch() {
+      @Override
+      protected boolean accept(XmlNode node) {
+        String attValue = node.getAttribute(attribute);
+        return attValue != null && attValue.equals(value);
+      }
+    };
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return busca pelo valor do atributo que contém o texto
+   */
+  public static XmlSearch byAttributeContainValue(final String attribute,
+    final String value) {
+    return new XmlSearch() {
+      @Override
+      protected boolean accept(XmlNode node) {
+        String attValue = node.getAttribute(attribute);
+        return attValue != null && attValue.contains(value);
+      }
+    };
+  }
+
+  /**
+   * Busca pelo valor do atributo que casa com a expressão regular. Cada
+   * tarefa usa o seu próprio Matcher.
+   * 
+   * @param attribute
+   * @param pattern
+   * @return busca
+   */
+  public static XmlSearch byAttributeMatchValue(final String attribute,
+    final Pattern pattern) {
+    return new XmlSearch() {
+
+      /** Matcher da tarefa */
+      private final Matcher matcher = pattern.matcher("");
+
+      @Override
+      protected boolean accept(XmlNode node) {
+        String attValue = node.getAttribute(attribute);
+        return attValue != null && this.matcher.reset(attValue).matches();
+      }
+
+      @Override
+      protected XmlSearch copy() {
+        return byAttributeMatchValue(attribute, pattern);
+      }
+
+    };
+  }
+
+  /**
+   * Busca num intervalo de uma lista de filhos e nos descendentes
+   * 
+   * @author bernardobreder
+   */
+  private class Task extends RecursiveTask<List<XmlNode>> {
+
+    /** Versão da serialização */
+    private static final long serialVersionUID = 1L;
+
+    /** Filhos */
+    private final List<XmlNode> nodes;
+    /** Início do intervalo */
+    private final int from;
+    /** Fim do intervalo */
+    private final int to;
+    /** Para na primeira encontrada */
+    private final boolean single;
+    /** Tarefa que criou esta ou null */
+    private final Task parent;
+    /** Busca da tarefa */
+    private final XmlSearch filter;
+    /** Tarefas criadas, na ordem de criação */
+    private final List<Task> forked = new ArrayList<Task>();
+    /** Indica que outra tarefa já encontrou uma tag anterior */
+    private volatile boolean stopped;
+
+    /**
+     * Construtor
+     * 
+     * @param nodes
+     * @param from
+     * @param to
+     * @param single
+     * @param parent
+     */
+    public Task(List<XmlNode> nodes, int from, int to, boolean single,
+      Task parent) {
+      this.nodes = nodes;
+      this.from = from;
+      this.to = to;
+      this.single = single;
+      this.parent = parent;
+      this.filter = XmlSearch.this.copy();
+    }
+
+    /**
+     * Percorre o intervalo e os descendentes em pré-ordem, sem recursão. A
+     * cada {@link XmlSearch#SPLIT} tags percorridas, a metade final do trecho
+     * pendente mais externo vira uma nova tarefa, se a thread não tiver
+     * tarefas sobrando. Cada tarefa criada fica depois de todo o resto do
+     * percurso, então as partes são juntadas na ordem inversa da criação.
+     * 
+     * @return tags encontradas, na ordem do documento
+     */
+    @Override
+    protected List<XmlNode> compute() {
+      List<XmlNode> result = new ArrayList<XmlNode>();
+      List<List<XmlNode>> lists = new ArrayList<List<XmlNode>>();
+      int[] indexes = new int[16];
+      int[] ends = new int[16];
+      lists.add(this.nodes);
+      indexes[0] = this.from;
+      ends[0] = this.to;
+      int count = 0;
+      while (!lists.isEmpty() && !this.stopped) {
+        int depth = lists.size() - 1;
+        if (indexes[depth] == ends[depth]) {
+          lists.remove(depth);
+          continue;
+        }
+        XmlNode node = lists.get(depth).get(indexes[depth]++);
+        if (this.filter.accept(node)) {
+          result.add(node);
+          if (this.single) {
+            this.stop();
+            break;
+          }
+        }
+        List<XmlNode> children = node.getNodes();
+        if (children != null && !children.isEmpty()) {
+          if (indexes.length == lists.size()) {
+            indexes = Arrays.copyOf(indexes, indexes.length * 2);
+            ends = Arrays.copyOf(ends, ends.length * 2);
+          }
+          indexes[lists.size()] = 0;
+          ends[lists.size()] = children.size();
+          lists.add(children);
+        }
+        if (++count % SPLIT == 0 && getSurplusQueuedTaskCount() <= 0) {
+          this.fork(lists, indexes, ends);
+        }
+      }
+      for (int n = this.forked.size() - 1; n >= 0; n--) {
+        List<XmlNode> part = this.forked.get(n).join();
+        if (!this.single) {
+          result.addAll(part);
+        }
+        else if (result.isEmpty() && !part.isEmpty()) {
+          result = part;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Cria uma tarefa com a metade final do trecho pendente mais externo
+     * 
+     * @param lists listas de filhos do percurso
+     * @param indexes próximo índice de cada lista
+     * @param ends fim do trecho de cada lista
+     */
+    private void fork(List<List<XmlNode>> lists, int[] indexes, int[] ends) {
+      for (int depth = 0; depth < lists.size(); depth++) {
+        int index = indexes[depth];
+        int end = ends[depth];
+        if (index < end) {
+          int middle = (index + end) >>> 1;
+          Task task =
+            new Task(lists.get(depth), middle, end, this.single, this);
+          ends[depth] = middle;
+          synchronized (this.forked) {
+            this.forked.add(task);
+          }
+          task.fork();
+          return;
+        }
+      }
+    }
+
+    /**
+     * Interrompe as tarefas que percorrem tags depois da encontrada: as
+     * criadas por esta e as criadas antes desta pelas tarefas ascendentes
+     */
+    private void stop() {
+      List<Task> tasks = new ArrayList<Task>();
+      Task child = null;
+      for (Task task = this; task != null; child = task, task = task.parent) {
+        synchronized (task.forked) {
+          for (Task other : task.forked) {
+            if (other == child) {
+              break;
+            }
+            tasks.add(other);
+          }
+        }
+      }
+      while (!tasks.isEmpty()) {
+        Task task = tasks.remove(tasks.size() - 1);
+        task.stopped = true;
+        synchronized (task.forked) {
+          tasks.addAll(task.forked);
+        }
+      }
+    }
+
+  }
+
+}
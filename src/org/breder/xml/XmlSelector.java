@@ -0,0 +1,666 @@
+package org.breder.xml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Consulta compilada sobre uma árvore de {@link XmlNode}. Aceita um
+ * subconjunto de seletores CSS e de XPath:
+ * 
+ * <pre>
+ * body &gt; table[width] tr     div.item #menu a[href^=http]
+ * /html/body//for[@var]        //td[@class='x'][@id]
+ * </pre>
+ * 
+ * No CSS, o espaço liga uma tag a um descendente e o &gt; a um filho; os
+ * filtros são [a], [a=v], [a~=v], [a*=v], [a^=v], [a$=v], #id e .classe. No
+ * XPath, a expressão começa com / ou //, os passos são separados por / ou //
+ * e os filtros são [@a] e [@a='v']. Nas duas formas, * casa com qualquer tag.
+ * A tag consultada faz o papel da raiz do documento: /html casa com ela se
+ * ela se chamar html.
+ * 
+ * A expressão é compilada uma vez num plano de passos, guardado num cache
+ * limitado pela expressão. A avaliação percorre a árvore em profundidade e
+ * confere cada tag da direita para a esquerda contra a pilha de ancestrais,
+ * sem listas intermediárias; o resultado é produzido sob demanda.
+ * 
+ * @author bernardobreder
+ */
+public final class XmlSelector {
+
+  /** Quantidade máxima de expressões no cache */
+  private static final int CACHE_SIZE = 256;
+  /** Expressões compiladas, da menos para a mais usada */
+  private static final Map<String, XmlSelector> CACHE =
+    new LinkedHashMap<String, XmlSelector>(16, 0.75f, true) {
+
+      /** Versão da serialização */
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, XmlSelector> eldest) {
+        return this.size() > CACHE_SIZE;
+      }
+
+    };
+
+  /** Filtro pela existência do atributo */
+  private static final int EXISTS = 0;
+  /** Filtro pelo valor igual */
+  private static final int EQUALS = 1;
+  /** Filtro por uma palavra da lista separada por espaços */
+  private static final int WORD = 2;
+  /** Filtro pelo valor que contém o texto */
+  private static final int CONTAINS = 3;
+  /** Filtro pelo valor que começa com o texto */
+  private static final int STARTS = 4;
+  /** Filtro pelo valor que termina com o texto */
+  private static final int ENDS = 5;
+
+  /** Expressão */
+  private final String expression;
+  /** Passos, do primeiro ao último */
+  private final Step[] steps;
+
+  /**
+   * Construtor
+   * 
+   * @param expression
+   * @param steps
+   */
+  private XmlSelector(String expression, Step[] steps) {
+    this.expression = expression;
+    this.steps = steps;
+  }
+
+  /**
+   * Compila a expressão ou retorna a compilada do cache
+   * 
+   * @param expression
+   * @return seletor
+   */
+  public static XmlSelector compile(String expression) {
+    synchronized (CACHE) {
+      XmlSelector selector = CACHE.get(expression);
+      if (selector != null) {
+        return selector;
+      }
+    }
+    XmlSelector selector =
+      new XmlSelector(expression, new Parser(expression).parse());
+    synchronized (CACHE) {
+      CACHE.put(expression, selector);
+    }
+    return selector;
+  }
+
+  /**
+   * @return expressão
+   */
+  public String getExpression() {
+    return this.expression;
+  }
+
+  /**
+   * Seleciona as tags na ordem do documento. O resultado é produzido à medida
+   * que é percorrido.
+   * 
+   * @param root
+   * @return tags
+   */
+  public Iterable<XmlNode> select(final XmlNode root) {
+    return new Iterable<XmlNode>() {
+      @Override
+      public Iterator<XmlNode> iterator() {
+        return new Cursor(root);
+      }
+    };
+  }
+
+  /**
+   * @param root
+   * @return primeira tag na ordem do documento ou null
+   */
+  public XmlNode selectFirst(XmlNode root) {
+    Cursor cursor = new Cursor(root);
+    return cursor.hasNext() ? cursor.next() : null;
+  }
+
+  /**
+   * Indica se a tag do topo da pilha casa com o último passo
+   * 
+   * @param path ancestrais, da raiz até a tag
+   * @param depth índice da tag na pilha
+   * @return casa
+   */
+  private boolean matches(XmlNode[] path, int depth) {
+    return this.matches(path, depth, this.steps.length - 1);
+  }
+
+  /**
+   * Confere o passo e os anteriores, da direita para a esquerda
+   * 
+   * @param path
+   * @param depth
+   * @param step
+   * @return casa
+   */
+  private boolean matches(XmlNode[] path, int depth, int step) {
+    Step s = this.steps[step];
+    if (!s.accept(path[depth])) {
+      return false;
+    }
+    if (step == 0) {
+      return s.descendant || depth == 0;
+    }
+    if (!s.descendant) {
+      return depth > 0 && this.matches(path, depth - 1, step - 1);
+    }
+    for (int n = depth - 1; n >= 0; n--) {
+      if (this.matches(path, n, step - 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return this.expression;
+  }
+
+  /**
+   * Percurso em profundidade que para em cada tag selecionada
+   * 
+   * @author bernardobreder
+   */
+  private class Cursor implements Iterator<XmlNode> {
+
+    /** Ancestrais da tag corrente, com ela no topo */
+    private XmlNode[] path = new XmlNode[16];
+    /** Próximo filho a visitar de cada tag da pilha */
+    private int[] next = new int[16];
+    /** Topo da pilha ou -1 quando terminou */
+    private int depth;
+    /** Próxima tag selecionada */
+    private XmlNode found;
+
+    /**
+     * Construtor
+     * 
+     * @param root
+     */
+    public Cursor(XmlNode root) {
+      this.path[0] = root;
+      this.depth = 0;
+      if (matches(this.path, 0)) {
+        this.found = root;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+      while (this.found == null && this.depth >= 0) {
+        XmlNode node = this.path[this.depth];
+        List<XmlNode> nodes = node.getNodes();
+        int index = this.next[this.depth];
+        if (nodes == null || index >= nodes.size()) {
+          this.path[this.depth--] = null;
+          continue;
+        }
+        this.next[this.depth] = index + 1;
+        if (++this.depth == this.path.length) {
+          XmlNode[] path = new XmlNode[this.depth * 2];
+          System.arraycopy(this.path, 0, path, 0, this.depth);
+          this.path = path;
+          int[] next = new int[this.depth * 2];
+          System.arraycopy(this.next, 0, next, 0, this.depth);
+          this.next = next;
+        }
+        this.path[this.depth] = nodes.get(index);
+        this.next[this.depth] = 0;
+        if (matches(this.path, this.depth)) {
+          this.found = this.path[this.depth];
+        }
+      }
+      return this.found != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public XmlNode next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      XmlNode node = this.found;
+      this.found = null;
+      return node;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  /**
+   * Passo da consulta: o nome da tag, os filtros de atributo e a ligação com
+   * o passo anterior
+   * 
+   * @author bernardobreder
+   */
+  private static final class Step {
+
+    /** Liga ao passo anterior como descendente, senão como filho */
+    private final boolean descendant;
+    /** Nome da tag ou null para qualquer */
+    private final String name;
+    /** Atributos dos filtros */
+    private final String[] attributes;
+    /** Operações dos filtros */
+    private final int[] operations;
+    /** Valores dos filtros */
+    private final String[] values;
+
+    /**
+     * Construtor
+     * 
+     * @param descendant
+     * @param name
+     * @param attributes
+     * @param operations
+     * @param values
+     */
+    public Step(boolean descendant, String name, String[] attributes,
+      int[] operations, String[] values) {
+      this.descendant = descendant;
+      this.name = name;
+      this.attributes = attributes;
+      this.operations = operations;
+      this.values = values;
+    }
+
+    /**
+     * @param node
+     * @return indica se a tag atende o passo
+     */
+    public boolean accept(XmlNode node) {
+      if (this.name != null && !this.name.equals(node.getName())) {
+        return false;
+      }
+      for (int n = 0; n < this.attributes.length; n++) {
+        String value = node.getAttribute(this.attributes[n]);
+        if (value == null
+          || !accept(this.operations[n], value, this.values[n])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @param operation
+     * @param value valor do atributo
+     * @param expected valor do filtro
+     * @return atende o filtro
+     */
+    private static boolean accept(int operation, String value,
+      String expected) {
+      switch (operation) {
+        case EXISTS:
+          return true;
+        case EQUALS:
+          return value.equals(expected);
+        case CONTAINS:
+          return value.contains(expected);
+        case STARTS:
+          return value.startsWith(expected);
+        case ENDS:
+          return value.endsWith(expected);
+        default:
+          int length = expected.length();
+          for (int i = value.indexOf(expected); i >= 0; i =
+            value.indexOf(expected, i + 1)) {
+            int end = i + length;
+            if ((i == 0 || value.charAt(i - 1) <= ' ')
+              && (end == value.length() || value.charAt(end) <= ' ')) {
+              return true;
+            }
+          }
+          return false;
+      }
+    }
+
+  }
+
+  /**
+   * Compilador das expressões
+   * 
+   * @author bernardobreder
+   */
+  private static final class Parser {
+
+    /** Expressão */
+    private final String text;
+    /** Posição corrente */
+    private int pos;
+    /** Passos lidos */
+    private final List<Step> steps = new ArrayList<Step>();
+    /** Atributos do passo corrente */
+    private final List<String> attributes = new ArrayList<String>();
+    /** Operações do passo corrente */
+    private final List<Integer> operations = new ArrayList<Integer>();
+    /** Valores do passo corrente */
+    private final List<String> values = new ArrayList<String>();
+
+    /**
+     * Construtor
+     * 
+     * @param text
+     */
+    public Parser(String text) {
+      this.text = text.trim();
+    }
+
+    /**
+     * @return passos
+     */
+    public Step[] parse() {
+      if (this.text.length() == 0) {
+        throw this.error("Expressão vazia");
+      }
+      if (this.text.charAt(0) == '/') {
+        this.parseXPath();
+      }
+      else {
+        this.parseCss();
+      }
+      return this.steps.toArray(new Step[this.steps.size()]);
+    }
+
+    /**
+     * Lê os passos de um caminho XPath
+     */
+    private void parseXPath() {
+      while (this.pos < this.text.length()) {
+        this.expect('/');
+        boolean descendant = this.peek() == '/';
+        if (descendant) {
+          this.pos++;
+        }
+        String name = this.name();
+        while (this.peek() == '[') {
+          this.pos++;
+          this.skipSpaces();
+          this.expect('@');
+          String attribute = this.symbol();
+          this.skipSpaces();
+          if (this.peek() == '=') {
+            this.pos++;
+            this.skipSpaces();
+            this.filter(attribute, EQUALS, this.value());
+          }
+          else {
+            this.filter(attribute, EXISTS, null);
+          }
+          this.skipSpaces();
+          this.expect(']');
+        }
+        this.step(descendant, name);
+      }
+    }
+
+    /**
+     * Lê os passos de um seletor CSS
+     */
+    private void parseCss() {
+      boolean descendant = true;
+      for (;;) {
+        String name = null;
+        char c = this.peek();
+        if (c == '*') {
+          this.pos++;
+        }
+        else if (c != '#' && c != '.' && c != '[') {
+          name = this.symbol();
+        }
+        for (;;) {
+          c = this.peek();
+          if (c == '#') {
+            this.pos++;
+            this.filter("id", EQUALS, this.identifier());
+          }
+          else if (c == '.') {
+            this.pos++;
+            this.filter("class", WORD, this.identifier());
+          }
+          else if (c == '[') {
+            this.pos++;
+            this.attribute();
+          }
+          else {
+            break;
+          }
+        }
+        this.step(descendant, name);
+        int start = this.pos;
+        this.skipSpaces();
+        if (this.pos == this.text.length()) {
+          return;
+        }
+        if (this.peek() == '>') {
+          this.pos++;
+          this.skipSpaces();
+          descendant = false;
+        }
+        else if (this.pos > start) {
+          descendant = true;
+        }
+        else {
+          throw this.error("Caractere inesperado");
+        }
+      }
+    }
+
+    /**
+     * Lê um filtro de atributo CSS, depois do [
+     */
+    private void attribute() {
+      this.skipSpaces();
+      String attribute = this.symbol();
+      this.skipSpaces();
+      char c = this.peek();
+      if (c == ']') {
+        this.pos++;
+        this.filter(attribute, EXISTS, null);
+        return;
+      }
+      int operation;
+      if (c == '=') {
+        operation = EQUALS;
+      }
+      else {
+        switch (c) {
+          case '~':
+            operation = WORD;
+            break;
+          case '*':
+            operation = CONTAINS;
+            break;
+          case '^':
+            operation = STARTS;
+            break;
+          case '$':
+            operation = ENDS;
+            break;
+          default:
+            throw this.error("Operador inválido");
+        }
+        this.pos++;
+        if (this.peek() != '=') {
+          throw this.error("Operador inválido");
+        }
+      }
+      this.pos++;
+      this.skipSpaces();
+      this.filter(attribute, operation, this.value());
+      this.skipSpaces();
+      this.expect(']');
+    }
+
+    /**
+     * @return nome da tag do passo XPath ou null para *
+     */
+    private String name() {
+      if (this.peek() == '*') {
+        this.pos++;
+        return null;
+      }
+      return this.symbol();
+    }
+
+    /**
+     * @return valor entre aspas simples ou duplas, ou um identificador
+     */
+    private String value() {
+      char quote = this.peek();
+      if (quote != '\'' && quote != '"') {
+        return this.identifier();
+      }
+      int end = this.text.indexOf(quote, this.pos + 1);
+      if (end < 0) {
+        throw this.error("Aspas não fechadas");
+      }
+      String value = this.text.substring(this.pos + 1, end);
+      this.pos = end + 1;
+      return value;
+    }
+
+    /**
+     * Lê um nome de tag ou atributo, compartilhado pela
+     * {@link XmlSymbolTable}, como os nomes dos documentos
+     * 
+     * @return nome
+     */
+    private String symbol() {
+      return XmlSymbolTable.getDefault().intern(this.identifier());
+    }
+
+    /**
+     * Lê um identificador. Os valores de id, classe e atributo sem aspas não
+     * vão para a {@link XmlSymbolTable}, que tem limite e fica só com os
+     * nomes.
+     * 
+     * @return identificador
+     */
+    private String identifier() {
+      int start = this.pos;
+      while (this.pos < this.text.length()) {
+        char c = this.text.charAt(this.pos);
+        if (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':') {
+          this.pos++;
+        }
+        else if (c == '.' && this.pos > start && this.text.charAt(0) == '/') {
+          this.pos++;
+        }
+        else {
+          break;
+        }
+      }
+      if (start == this.pos) {
+        throw this.error("Nome esperado");
+      }
+      return this.text.substring(start, this.pos);
+    }
+
+    /**
+     * Guarda um filtro do passo corrente
+     * 
+     * @param attribute
+     * @param operation
+     * @param value
+     */
+    private void filter(String attribute, int operation, String value) {
+      this.attributes.add(attribute);
+      this.operations.add(operation);
+      this.values.add(value);
+    }
+
+    /**
+     * Fecha o passo corrente
+     * 
+     * @param descendant
+     * @param name
+     */
+    private void step(boolean descendant, String name) {
+      int size = this.attributes.size();
+      int[] operations = new int[size];
+      for (int n = 0; n < size; n++) {
+        operations[n] = this.operations.get(n);
+      }
+      this.steps.add(new Step(descendant, name, this.attributes
+        .toArray(new String[size]), operations, this.values
+        .toArray(new String[size])));
+      this.attributes.clear();
+      this.operations.clear();
+      this.values.clear();
+    }
+
+    /**
+     * @return caractere corrente ou 0 no fim
+     */
+    private char peek() {
+      return this.pos < this.text.length() ? this.text.charAt(this.pos) : 0;
+    }
+
+    /**
+     * Consome o caractere esperado
+     * 
+     * @param c
+     */
+    private void expect(char c) {
+      if (this.peek() != c) {
+        throw this.error("Esperado '" + c + "'");
+      }
+      this.pos++;
+    }
+
+    /**
+     * Pula espaços
+     */
+    private void skipSpaces() {
+      while (this.pos < this.text.length()
+        && this.text.charAt(this.pos) <= ' ') {
+        this.pos++;
+      }
+    }
+
+    /**
+     * @param message
+     * @return erro de sintaxe na posição corrente
+     */
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " na posição " + this.pos
+        + ": " + this.text);
+    }
+
+  }
+
+}
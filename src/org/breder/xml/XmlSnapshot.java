@@ -0,0 +1,877 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cópia de uma árvore de {@link XmlNode} gravada num arquivo para ser aberta
+ * com {@link FileChannel#map}. Cada tag é um registro com os atributos e uma
+ * tabela com a posição de cada filho, então uma consulta lê apenas os
+ * registros que percorre e nada é decodificado até que um valor seja pedido.
+ * Só a subárvore pedida vira {@link XmlNode}, pelo {@link #toXmlNode(long)}.
+ * 
+ * As tags são identificadas pela posição do registro no arquivo. O acesso é
+ * feito pelas posições ou pela visão {@link XmlSnapshotElement}. Arquivos
+ * maiores que 1 GB são mapeados em blocos, e os registros podem atravessar
+ * blocos. É somente leitura e pode ser lido por várias threads.
+ * 
+ * Cada registro tem o nome, o tipo, a quantidade e o tamanho em bytes dos
+ * atributos, os atributos, e então o conteúdo ou as posições dos filhos
+ * seguidas dos textos intercalados. Os filhos são gravados antes do pai e o
+ * dicionário de nomes no fim.
+ * 
+ * @author bernardobreder
+ */
+public class XmlSnapshot {
+
+  /** Início do arquivo */
+  private static final byte[] MAGIC = { 'X', 'M', 'L', 'S' };
+  /** Versão do formato */
+  private static final int VERSION = 1;
+  /** Tamanho do cabeçalho */
+  private static final int HEADER = 24;
+  /** Tamanho do cabeçalho do registro */
+  private static final int RECORD = 16;
+  /** Tipo da tag sem conteúdo */
+  private static final int EMPTY = 0;
+  /** Tipo da tag com conteúdo */
+  private static final int CONTENT = 1;
+  /** Tipo da tag com filhos e textos, somado à quantidade de filhos */
+  private static final int MIXED = 2;
+  /** Bits do tamanho do bloco mapeado */
+  private static final int SHIFT = 30;
+
+  /** Blocos mapeados */
+  private final ByteBuffer[] chunks;
+  /** Bits do tamanho dos blocos */
+  private final int shift;
+  /** Máscara da posição dentro do bloco */
+  private final long mask;
+  /** Posição da raiz */
+  private final long root;
+  /** Nomes */
+  private final String[] names;
+  /** Identificador de cada nome */
+  private final Map<String, Integer> ids;
+
+  /**
+   * Construtor
+   * 
+   * @param channel
+   * @param shift bits do tamanho dos blocos
+   * @throws ParseException
+   * @throws IOException
+   */
+  private XmlSnapshot(FileChannel channel, int shift) throws ParseException,
+    IOException {
+    long size = channel.size();
+    long chunk = 1L << shift;
+    this.shift = shift;
+    this.mask = chunk - 1;
+    this.chunks = new ByteBuffer[(int) ((size + chunk - 1) >>> shift)];
+    for (int n = 0; n < this.chunks.length; n++) {
+      long position = (long) n << shift;
+      this.chunks[n] =
+        channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunk,
+          size - position));
+    }
+    if (size < HEADER) {
+      throw new ParseException("Formato de snapshot inválido", 0);
+    }
+    for (int n = 0; n < MAGIC.length; n++) {
+      if (this.get(n) != MAGIC[n]) {
+        throw new ParseException("Formato de snapshot inválido", n);
+      }
+    }
+    int version = this.getInt(4);
+    if (version != VERSION) {
+      throw new ParseException("Versão do snapshot não suportada: "
+        + version, 4);
+    }
+    this.root = this.getLong(8);
+    long position = this.getLong(16);
+    int count = this.getInt(position);
+    position += 4;
+    this.names = new String[count];
+    this.ids = new HashMap<String, Integer>(count * 2);
+    for (int n = 0; n < count; n++) {
+      String name = this.getString(position);
+      position = this.skipString(position);
+      if (name != null) {
+        name = XmlSymbolTable.getDefault().intern(name);
+      }
+      this.names[n] = name;
+      this.ids.put(name, n);
+    }
+  }
+
+  /**
+   * Grava a árvore no arquivo
+   * 
+   * @param root
+   * @param path
+   * @throws IOException
+   */
+  public static void write(XmlNode root, Path path) throws IOException {
+    FileChannel channel =
+      FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      Output output = new Output(channel);
+      output.position(HEADER);
+      Map<String, Integer> ids = new HashMap<String, Integer>();
+      List<String> names = new ArrayList<String>();
+      long offset = output.element(root, ids, names);
+      long position = output.position();
+      output.putInt(names.size());
+      for (String name : names) {
+        output.putString(bytes(name));
+      }
+      output.flush();
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.put(MAGIC).putInt(VERSION).putLong(offset).putLong(position);
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Abre o arquivo
+   * 
+   * @param path
+   * @return snapshot
+   * @throws ParseException
+   * @throws IOException
+   */
+  public static XmlSnapshot open(Path path) throws ParseException,
+    IOException {
+    return open(path, SHIFT);
+  }
+
+  /**
+   * Abre o arquivo
+   * 
+   * @param path
+   * @param shift bits do tamanho dos blocos
+   * @return snapshot
+   * @throws ParseException
+   * @throws IOException
+   */
+  static XmlSnapshot open(Path path, int shift) throws ParseException,
+    IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new XmlSnapshot(channel, shift);
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * @return tag raiz
+   */
+  public XmlSnapshotElement getRoot() {
+    return new XmlSnapshotElement(this, this.root);
+  }
+
+  /**
+   * @param element
+   * @return nome da tag
+   */
+  public String getName(long element) {
+    return this.names[this.getInt(element)];
+  }
+
+  /**
+   * Indica se a tag tem o nome, sem criar objetos
+   * 
+   * @param element
+   * @param name
+   * @return tem o nome
+   */
+  public boolean isName(long element, String name) {
+    Integer id = this.ids.get(name);
+    return id != null && this.getInt(element) == id;
+  }
+
+  /**
+   * @param element
+   * @return quantidade de atributos da tag
+   */
+  public int getAttributeCount(long element) {
+    return this.getInt(element + 8);
+  }
+
+  /**
+   * @param element
+   * @param index
+   * @return nome do atributo
+   */
+  public String getAttributeName(long element, int index) {
+    return this.names[this.getInt(this.attribute(element, index))];
+  }
+
+  /**
+   * @param element
+   * @param index
+   * @return valor do atributo
+   */
+  public String getAttributeValue(long element, int index) {
+    return this.getString(this.attribute(element, index) + 4);
+  }
+
+  /**
+   * @param element
+   * @param name
+   * @return valor do atributo ou null
+   */
+  public String getAttribute(long element, String name) {
+    long position = this.findAttribute(element, name);
+    return position < 0 ? null : this.getString(position + 4);
+  }
+
+  /**
+   * Indica se o atributo tem o valor, comparando os bytes sem criar a string
+   * 
+   * @param element
+   * @param name
+   * @param value
+   * @return tem o valor
+   */
+  public boolean isAttribute(long element, String name, String value) {
+    long position = this.findAttribute(element, name);
+    return position >= 0 && this.isString(position + 4, bytes(value));
+  }
+
+  /**
+   * @param element
+   * @return quantidade de filhos da tag
+   */
+  public int getNodeCount(long element) {
+    return Math.max(this.getInt(element + 4) - MIXED, 0);
+  }
+
+  /**
+   * @param element
+   * @param index
+   * @return posição do filho
+   */
+  public long getNode(long element, int index) {
+    return this.getLong(this.body(element) + 8L * index);
+  }
+
+  /**
+   * @param element
+   * @param name
+   * @return posição do primeiro filho com o nome ou -1
+   */
+  public long getNodeByTagName(long element, String name) {
+    Integer id = this.ids.get(name);
+    int size = this.getNodeCount(element);
+    if (id == null || size == 0) {
+      return -1;
+    }
+    long position = this.body(element);
+    for (int n = 0; n < size; n++, position += 8) {
+      long child = this.getLong(position);
+      if (this.getInt(child) == id) {
+        return child;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param element
+   * @param attribute
+   * @param value
+   * @return posição do primeiro filho com o valor do atributo ou -1
+   */
+  public long getNodeByAttributeValue(long element, String attribute,
+    String value) {
+    long[] children = this.find(element, attribute, value, true);
+    return children.length == 0 ? -1 : children[0];
+  }
+
+  /**
+   * @param element
+   * @param name
+   * @return posições dos filhos com o nome
+   */
+  public long[] getNodesByTagName(long element, String name) {
+    Integer id = this.ids.get(name);
+    int size = this.getNodeCount(element);
+    if (id == null || size == 0) {
+      return new long[0];
+    }
+    long[] result = new long[size];
+    int count = 0;
+    long position = this.body(element);
+    for (int n = 0; n < size; n++, position += 8) {
+      long child = this.getLong(position);
+      if (this.getInt(child) == id) {
+        result[count++] = child;
+      }
+    }
+    return trim(result, count);
+  }
+
+  /**
+   * @param element
+   * @param attribute
+   * @param value
+   * @return posições dos filhos com o valor do atributo
+   */
+  public long[] getNodesByAttributeValue(long element, String attribute,
+    String value) {
+    return this.find(element, attribute, value, false);
+  }
+
+  /**
+   * Conteúdo da tag. Com filhos, é calculado a partir da subárvore.
+   * 
+   * @param element
+   * @return conteúdo ou null
+   */
+  public String getContent(long element) {
+    int type = this.getInt(element + 4);
+    if (type == EMPTY) {
+      return null;
+    }
+    if (type == CONTENT) {
+      return this.getString(this.body(element));
+    }
+    return this.toXmlNode(element).getContent();
+  }
+
+  /**
+   * Cria a árvore de {@link XmlNode} da tag e dos descendentes, sem recursão
+   * 
+   * @param element
+   * @return tag
+   */
+  public XmlNode toXmlNode(long element) {
+    long[] elements = new long[16];
+    List<List<XmlNode>> stack = new ArrayList<List<XmlNode>>();
+    elements[0] = element;
+    stack.add(new ArrayList<XmlNode>(this.getNodeCount(element)));
+    for (;;) {
+      int depth = stack.size() - 1;
+      long current = elements[depth];
+      List<XmlNode> nodes = stack.get(depth);
+      if (nodes.size() < this.getNodeCount(current)) {
+        long child = this.getNode(current, nodes.size());
+        if (elements.length == stack.size()) {
+          elements = Arrays.copyOf(elements, elements.length * 2);
+        }
+        elements[stack.size()] = child;
+        stack.add(new ArrayList<XmlNode>(this.getNodeCount(child)));
+        continue;
+      }
+      XmlNode node = this.toXmlNode(current, nodes);
+      stack.remove(depth);
+      if (depth == 0) {
+        return node;
+      }
+      stack.get(depth - 1).add(node);
+    }
+  }
+
+  /**
+   * Cria a {@link XmlNode} da tag com os filhos já criados
+   * 
+   * @param element
+   * @param nodes filhos
+   * @return tag
+   */
+  private XmlNode toXmlNode(long element, List<XmlNode> nodes) {
+    XmlNode node = new XmlNode(this.getName(element));
+    int count = this.getAttributeCount(element);
+    XmlAttributes attributes = null;
+    if (count > 0) {
+      attributes = new XmlAttributes(count);
+      long position = element + RECORD;
+      for (int n = 0; n < count; n++) {
+        String name = this.names[this.getInt(position)];
+        attributes.put(name, this.getString(position + 4));
+        position = this.skipString(position + 4);
+      }
+    }
+    int type = this.getInt(element + 4);
+    if (type == EMPTY) {
+      node.assemble(attributes, null, null, null);
+      return node;
+    }
+    long position = this.body(element);
+    if (type == CONTENT) {
+      node.assemble(attributes, null, null, this.getString(position));
+      return node;
+    }
+    int size = type - MIXED;
+    position += 8L * size;
+    String[] texts = null;
+    for (int n = 0; n <= size; n++) {
+      String text = this.getString(position);
+      position = this.skipString(position);
+      if (text != null) {
+        if (texts == null) {
+          texts = new String[size + 1];
+        }
+        texts[n] = text;
+      }
+    }
+    node.assemble(attributes, size == 0 ? null : nodes, texts, null);
+    return node;
+  }
+
+  /**
+   * Procura nos filhos pelo valor do atributo
+   * 
+   * @param element
+   * @param attribute
+   * @param value
+   * @param single para no primeiro encontrado
+   * @return posições dos filhos
+   */
+  private long[] find(long element, String attribute, String value,
+    boolean single) {
+    Integer id = this.ids.get(attribute);
+    int size = this.getNodeCount(element);
+    if (id == null || size == 0) {
+      return new long[0];
+    }
+    byte[] bytes = bytes(value);
+    long[] result = new long[single ? 1 : size];
+    int count = 0;
+    long position = this.body(element);
+    for (int n = 0; n < size; n++, position += 8) {
+      long child = this.getLong(position);
+      long found = this.findAttribute(child, id);
+      if (found >= 0 && this.isString(found + 4, bytes)) {
+        result[count++] = child;
+        if (single) {
+          break;
+        }
+      }
+    }
+    return trim(result, count);
+  }
+
+  /**
+   * @param element
+   * @param name
+   * @return posição do atributo com o nome ou -1
+   */
+  private long findAttribute(long element, String name) {
+    Integer id = this.ids.get(name);
+    return id == null ? -1 : this.findAttribute(element, id);
+  }
+
+  /**
+   * @param element
+   * @param id identificador do nome
+   * @return posição do atributo com o nome ou -1
+   */
+  private long findAttribute(long element, int id) {
+    int count = this.getInt(element + 8);
+    long position = element + RECORD;
+    for (int n = 0; n < count; n++) {
+      if (this.getInt(position) == id) {
+        return position;
+      }
+      position = this.skipString(position + 4);
+    }
+    return -1;
+  }
+
+  /**
+   * @param element
+   * @param index
+   * @return posição do atributo do índice
+   */
+  private long attribute(long element, int index) {
+    long position = element + RECORD;
+    for (int n = 0; n < index; n++) {
+      position = this.skipString(position + 4);
+    }
+    return position;
+  }
+
+  /**
+   * @param element
+   * @return posição do conteúdo ou da tabela de filhos
+   */
+  private long body(long element) {
+    return element + RECORD + this.getInt(element + 12);
+  }
+
+  /**
+   * @param position
+   * @return posição depois do texto
+   */
+  private long skipString(long position) {
+    return position + 4 + Math.max(this.getInt(position), 0);
+  }
+
+  /**
+   * @param position
+   * @return texto gravado na posição ou null
+   */
+  private String getString(long position) {
+    int length = this.getInt(position);
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    this.get(position + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compara o texto gravado na posição com os bytes
+   * 
+   * @param position
+   * @param bytes
+   * @return iguais
+   */
+  private boolean isString(long position, byte[] bytes) {
+    int length = this.getInt(position);
+    if (bytes == null || length < 0) {
+      return bytes == null && length < 0;
+    }
+    if (length != bytes.length) {
+      return false;
+    }
+    position += 4;
+    for (int n = 0; n < length; n++) {
+      if (this.get(position + n) != bytes[n]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param position
+   * @return byte da posição
+   */
+  private byte get(long position) {
+    return this.chunks[(int) (position >>> this.shift)]
+      .get((int) (position & this.mask));
+  }
+
+  /**
+   * Copia os bytes a partir da posição, atravessando blocos
+   * 
+   * @param position
+   * @param bytes
+   */
+  private void get(long position, byte[] bytes) {
+    int count = 0;
+    while (count < bytes.length) {
+      ByteBuffer chunk =
+        this.chunks[(int) (position >>> this.shift)].duplicate();
+      chunk.position((int) (position & this.mask));
+      int n = Math.min(bytes.length - count, chunk.remaining());
+      chunk.get(bytes, count, n);
+      count += n;
+      position += n;
+    }
+  }
+
+  /**
+   * @param position
+   * @return inteiro da posição
+   */
+  private int getInt(long position) {
+    ByteBuffer chunk = this.chunks[(int) (position >>> this.shift)];
+    int offset = (int) (position & this.mask);
+    if (offset + 4 <= chunk.limit()) {
+      return chunk.getInt(offset);
+    }
+    int value = 0;
+    for (int n = 0; n < 4; n++) {
+      value = (value << 8) | (this.get(position + n) & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * @param position
+   * @return inteiro longo da posição
+   */
+  private long getLong(long position) {
+    ByteBuffer chunk = this.chunks[(int) (position >>> this.shift)];
+    int offset = (int) (position & this.mask);
+    if (offset + 8 <= chunk.limit()) {
+      return chunk.getLong(offset);
+    }
+    return ((long) this.getInt(position) << 32)
+      | (this.getInt(position + 4) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @param text
+   * @return bytes em UTF-8 ou null
+   */
+  private static byte[] bytes(String text) {
+    return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param result
+   * @param count
+   * @return vetor com o tamanho da quantidade
+   */
+  private static long[] trim(long[] result, int count) {
+    if (count == result.length) {
+      return result;
+    }
+    long[] array = new long[count];
+    System.arraycopy(result, 0, array, 0, count);
+    return array;
+  }
+
+  /**
+   * Gravação com buffer próprio, sabendo a posição no arquivo
+   * 
+   * @author bernardobreder
+   */
+  private static class Output {
+
+    /** Arquivo */
+    private final FileChannel channel;
+    /** Buffer */
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    /** Posição do início do buffer no arquivo */
+    private long start;
+
+    /**
+     * Construtor
+     * 
+     * @param channel
+     */
+    public Output(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Grava os filhos e depois o registro de cada tag, sem recursão
+     * 
+     * @param root
+     * @param ids identificador de cada nome
+     * @param names nomes na ordem dos identificadores
+     * @return posição do registro da raiz
+     * @throws IOException
+     */
+    public long element(XmlNode root, Map<String, Integer> ids,
+      List<String> names) throws IOException {
+      List<XmlNode> stack = new ArrayList<XmlNode>();
+      List<long[]> children = new ArrayList<long[]>();
+      int[] indexes = new int[16];
+      stack.add(root);
+      children.add(new long[root.getNodeCount()]);
+      for (;;) {
+        int depth = stack.size() - 1;
+        XmlNode node = stack.get(depth);
+        long[] positions = children.get(depth);
+        int n = indexes[depth];
+        if (n < positions.length) {
+          XmlNode child = node.getNodes().get(n);
+          indexes[depth] = n + 1;
+          if (indexes.length == stack.size()) {
+            indexes = Arrays.copyOf(indexes, indexes.length * 2);
+          }
+          indexes[stack.size()] = 0;
+          stack.add(child);
+          children.add(new long[child.getNodeCount()]);
+          continue;
+        }
+        long position = this.record(node, positions, ids, names);
+        stack.remove(depth);
+        children.remove(depth);
+        if (depth == 0) {
+          return position;
+        }
+        children.get(depth - 1)[indexes[depth - 1] - 1] = position;
+      }
+    }
+
+    /**
+     * Grava o registro da tag, com os filhos já gravados
+     * 
+     * @param node
+     * @param children posições dos registros dos filhos
+     * @param ids identificador de cada nome
+     * @param names nomes na ordem dos identificadores
+     * @return posição do registro
+     * @throws IOException
+     */
+    private long record(XmlNode node, long[] children,
+      Map<String, Integer> ids, List<String> names) throws IOException {
+      int size = children.length;
+      boolean mixed = size > 0 || node.getText(0) != null;
+      Map<String, String> attributes = node.getAttributes();
+      int count = attributes == null ? 0 : attributes.size();
+      int[] keys = new int[count];
+      byte[][] values = new byte[count][];
+      int length = 0;
+      if (attributes != null) {
+        int n = 0;
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+          keys[n] = id(entry.getKey(), ids, names);
+          values[n] = bytes(entry.getValue());
+          length += 8 + (values[n] == null ? 0 : values[n].length);
+          n++;
+        }
+      }
+      String content = mixed ? null : node.getContent();
+      long position = this.position();
+      this.putInt(id(node.getName(), ids, names));
+      this.putInt(mixed ? MIXED + size : content == null ? EMPTY : CONTENT);
+      this.putInt(count);
+      this.putInt(length);
+      for (int n = 0; n < count; n++) {
+        this.putInt(keys[n]);
+        this.putString(values[n]);
+      }
+      if (mixed) {
+        for (long child : children) {
+          this.putLong(child);
+        }
+        for (int n = 0; n <= size; n++) {
+          this.putString(bytes(node.getText(n)));
+        }
+      }
+      else if (content != null) {
+        this.putString(bytes(content));
+      }
+      return position;
+    }
+
+    /**
+     * @return posição corrente no arquivo
+     */
+    public long position() {
+      return this.start + this.buffer.position();
+    }
+
+    /**
+     * Pula para a posição, que deve ser o início de um buffer vazio
+     * 
+     * @param position
+     */
+    public void position(long position) {
+      this.start = position;
+    }
+
+    /**
+     * @param value
+     * @throws IOException
+     */
+    public void putInt(int value) throws IOException {
+      this.reserve(4);
+      this.buffer.putInt(value);
+    }
+
+    /**
+     * @param value
+     * @throws IOException
+     */
+    public void putLong(long value) throws IOException {
+      this.reserve(8);
+      this.buffer.putLong(value);
+    }
+
+    /**
+     * Grava o tamanho e os bytes, ou -1 para null
+     * 
+     * @param bytes
+     * @throws IOException
+     */
+    public void putString(byte[] bytes) throws IOException {
+      if (bytes == null) {
+        this.putInt(-1);
+        return;
+      }
+      this.putInt(bytes.length);
+      if (bytes.length > this.buffer.capacity()) {
+        this.flush();
+        this.write(ByteBuffer.wrap(bytes));
+        return;
+      }
+      this.reserve(bytes.length);
+      this.buffer.put(bytes);
+    }
+
+    /**
+     * Grava o buffer no arquivo
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+      this.buffer.flip();
+      this.write(this.buffer);
+      this.buffer.clear();
+    }
+
+    /**
+     * Garante espaço no buffer
+     * 
+     * @param length
+     * @throws IOException
+     */
+    private void reserve(int length) throws IOException {
+      if (this.buffer.remaining() < length) {
+        this.flush();
+      }
+    }
+
+    /**
+     * Grava os bytes na posição corrente
+     * 
+     * @param bytes
+     * @throws IOException
+     */
+    private void write(ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) {
+        this.start += this.channel.write(bytes, this.start);
+      }
+    }
+
+    /**
+     * @param name
+     * @param ids identificador de cada nome
+     * @param names nomes na ordem dos identificadores
+     * @return identificador do nome, criado na primeira vez
+     */
+    private static int id(String name, Map<String, Integer> ids,
+      List<String> names) {
+      Integer id = ids.get(name);
+      if (id == null) {
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+      }
+      return id;
+    }
+
+  }
+
+}
@@ -0,0 +1,207 @@
+package org.breder.xml;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Visão de uma tag de um {@link XmlSnapshot}. Guarda apenas o snapshot e a
+ * posição do registro, então criar uma visão é barato e nada é lido do
+ * arquivo até que um valor seja pedido. Tem as consultas de filhos do
+ * {@link XmlNode}, mas é somente leitura; para editar, use
+ * {@link #toXmlNode()}.
+ * 
+ * @author bernardobreder
+ */
+public final class XmlSnapshotElement {
+
+  /** Snapshot */
+  private final XmlSnapshot snapshot;
+  /** Posição do registro da tag */
+  private final long offset;
+
+  /**
+   * Construtor
+   * 
+   * @param snapshot
+   * @param offset
+   */
+  XmlSnapshotElement(XmlSnapshot snapshot, long offset) {
+    this.snapshot = snapshot;
+    this.offset = offset;
+  }
+
+  /**
+   * @return snapshot
+   */
+  public XmlSnapshot getSnapshot() {
+    return this.snapshot;
+  }
+
+  /**
+   * @return posição do registro da tag
+   */
+  public long getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * @return the name
+   */
+  public String getName() {
+    return this.snapshot.getName(this.offset);
+  }
+
+  /**
+   * @return the attributes, na ordem do arquivo
+   */
+  public Map<String, String> getAttributes() {
+    int size = this.snapshot.getAttributeCount(this.offset);
+    if (size == 0) {
+      return null;
+    }
+    Map<String, String> map = new LinkedHashMap<String, String>(size * 2);
+    for (int n = 0; n < size; n++) {
+      map.put(this.snapshot.getAttributeName(this.offset, n), this.snapshot
+        .getAttributeValue(this.offset, n));
+    }
+    return map;
+  }
+
+  /**
+   * @param attribute
+   * @return valor do atributo ou null
+   */
+  public String getAttribute(String attribute) {
+    return this.snapshot.getAttribute(this.offset, attribute);
+  }
+
+  /**
+   * @return the content
+   */
+  public String getContent() {
+    return this.snapshot.getContent(this.offset);
+  }
+
+  /**
+   * @return the nodes
+   */
+  public List<XmlSnapshotElement> getNodes() {
+    int size = this.snapshot.getNodeCount(this.offset);
+    List<XmlSnapshotElement> list = new ArrayList<XmlSnapshotElement>(size);
+    for (int n = 0; n < size; n++) {
+      list.add(new XmlSnapshotElement(this.snapshot, this.snapshot.getNode(
+        this.offset, n)));
+    }
+    return list;
+  }
+
+  /**
+   * @return quantidade de filhos
+   */
+  public int getNodeCount() {
+    return this.snapshot.getNodeCount(this.offset);
+  }
+
+  /**
+   * @param name
+   * @return the nodes
+   */
+  public List<XmlSnapshotElement> getNodesByTagName(String name) {
+    return this.wrap(this.snapshot.getNodesByTagName(this.offset, name));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the nodes
+   */
+  public List<XmlSnapshotElement> getNodesByAttributeValue(String attribute,
+    String value) {
+    return this.wrap(this.snapshot.getNodesByAttributeValue(this.offset,
+      attribute, value));
+  }
+
+  /**
+   * @param name
+   * @return the node
+   */
+  public XmlSnapshotElement getNodeByTagName(String name) {
+    return this.wrap(this.snapshot.getNodeByTagName(this.offset, name));
+  }
+
+  /**
+   * @param attribute
+   * @param value
+   * @return the node
+   */
+  public XmlSnapshotElement getNodeByAttributeValue(String attribute,
+    String value) {
+    return this.wrap(this.snapshot.getNodeByAttributeValue(this.offset,
+      attribute, value));
+  }
+
+  /**
+   * Cria a árvore de {@link XmlNode} da tag e dos descendentes
+   * 
+   * @return tag
+   */
+  public XmlNode toXmlNode() {
+    return this.snapshot.toXmlNode(this.offset);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return this.toXmlNode().toString();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(this.snapshot)
+      + (int) (this.offset ^ (this.offset >>> 32));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof XmlSnapshotElement)) {
+      return false;
+    }
+    XmlSnapshotElement other = (XmlSnapshotElement) obj;
+    return this.snapshot == other.snapshot && this.offset == other.offset;
+  }
+
+  /**
+   * @param offset
+   * @return visão da posição ou null se negativa
+   */
+  private XmlSnapshotElement wrap(long offset) {
+    return offset < 0 ? null : new XmlSnapshotElement(this.snapshot, offset);
+  }
+
+  /**
+   * @param offsets
+   * @return visões das posições
+   */
+  private List<XmlSnapshotElement> wrap(long[] offsets) {
+    List<XmlSnapshotElement> list =
+      new ArrayList<XmlSnapshotElement>(offsets.length);
+    for (long offset : offsets) {
+      list.add(new XmlSnapshotElement(this.snapshot, offset));
+    }
+    return list;
+  }
+
+}
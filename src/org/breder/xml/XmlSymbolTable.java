@@ -0,0 +1,189 @@
+package org.breder.xml;
+
+/**
+ * Tabela de símbolos para os nomes de tags e atributos. Devolve sempre a
+ * mesma instância de String para o mesmo nome, então os documentos lidos
+ * compartilham os nomes em vez de guardar uma cópia por tag, e as consultas
+ * por nome podem comparar por identidade antes do equals.
+ * 
+ * A leitura não usa trava: os símbolos são imutáveis e a inserção apenas
+ * publica um novo início de lista. A quantidade de símbolos é limitada para
+ * que documentos com nomes arbitrários não façam a tabela crescer sem fim;
+ * passando do limite, os nomes novos são devolvidos sem serem guardados.
+ * 
+ * @author bernardobreder
+ */
+public final class XmlSymbolTable {
+
+  /** Limite de símbolos da tabela padrão */
+  private static final int DEFAULT_LIMIT = 1 << 16;
+  /** Tabela padrão, compartilhada por todos os parses */
+  private static final XmlSymbolTable DEFAULT = new XmlSymbolTable(
+    DEFAULT_LIMIT);
+
+  /** Listas de símbolos por hash */
+  private volatile Symbol[] table = new Symbol[256];
+  /** Quantidade de símbolos */
+  private int size;
+  /** Limite de símbolos */
+  private final int limit;
+
+  /**
+   * Construtor
+   * 
+   * @param limit quantidade máxima de símbolos guardados
+   */
+  public XmlSymbolTable(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * @return tabela compartilhada por todos os parses
+   */
+  public static XmlSymbolTable getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Retorna a instância canônica do nome
+   * 
+   * @param chars
+   * @param offset
+   * @param length
+   * @return nome
+   */
+  public String intern(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int n = 0; n < length; n++) {
+      hash = 31 * hash + chars[offset + n];
+    }
+    Symbol[] table = this.table;
+    for (Symbol s = table[hash & (table.length - 1)]; s != null; s = s.next) {
+      if (s.hash == hash && s.equals(chars, offset, length)) {
+        return s.name;
+      }
+    }
+    return this.add(new String(chars, offset, length), hash);
+  }
+
+  /**
+   * Retorna a instância canônica do nome
+   * 
+   * @param name
+   * @return nome
+   */
+  public String intern(String name) {
+    int hash = name.hashCode();
+    Symbol[] table = this.table;
+    for (Symbol s = table[hash & (table.length - 1)]; s != null; s = s.next) {
+      if (s.name == name || s.hash == hash && s.name.equals(name)) {
+        return s.name;
+      }
+    }
+    return this.add(name, hash);
+  }
+
+  /**
+   * @return quantidade de símbolos guardados
+   */
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * Guarda um nome novo, se outra thread não o tiver guardado antes
+   * 
+   * @param name
+   * @param hash
+   * @return nome canônico
+   */
+  private synchronized String add(String name, int hash) {
+    Symbol[] table = this.table;
+    int index = hash & (table.length - 1);
+    for (Symbol s = table[index]; s != null; s = s.next) {
+      if (s.hash == hash && s.name.equals(name)) {
+        return s.name;
+      }
+    }
+    if (this.size >= this.limit) {
+      return name;
+    }
+    if (this.size >= table.length - (table.length >> 2)) {
+      table = this.rehash(table);
+      index = hash & (table.length - 1);
+    }
+    table[index] = new Symbol(name, hash, table[index]);
+    this.size++;
+    this.table = table;
+    return name;
+  }
+
+  /**
+   * Dobra a tabela. A tabela antiga continua válida para quem está lendo.
+   * 
+   * @param table
+   * @return nova tabela
+   */
+  private Symbol[] rehash(Symbol[] table) {
+    Symbol[] result = new Symbol[table.length * 2];
+    int mask = result.length - 1;
+    for (Symbol head : table) {
+      for (Symbol s = head; s != null; s = s.next) {
+        int index = s.hash & mask;
+        result[index] = new Symbol(s.name, s.hash, result[index]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Símbolo imutável de uma lista da tabela
+   * 
+   * @author bernardobreder
+   */
+  private static final class Symbol {
+
+    /** Nome */
+    private final String name;
+    /** Hash do nome */
+    private final int hash;
+    /** Próximo da lista */
+    private final Symbol next;
+
+    /**
+     * Construtor
+     * 
+     * @param name
+     * @param hash
+     * @param next
+     */
+    public Symbol(String name, int hash, Symbol next) {
+      this.name = name;
+      this.hash = hash;
+      this.next = next;
+    }
+
+    /**
+     * Compara o nome com os chars
+     * 
+     * @param chars
+     * @param offset
+     * @param length
+     * @return igual
+     */
+    public boolean equals(char[] chars, int offset, int length) {
+      String name = this.name;
+      if (name.length() != length) {
+        return false;
+      }
+      for (int n = 0; n < length; n++) {
+        if (name.charAt(n) != chars[offset + n]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
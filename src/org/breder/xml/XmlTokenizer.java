@@ -0,0 +1,992 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+
+/**
+ * Analisador léxico de Xml que trabalha diretamente sobre os bytes em UTF-8,
+ * sem passar pelo JAXP. Os nomes, atributos e textos são guardados apenas
+ * como intervalos de bytes e só são decodificados para char quando
+ * solicitados.
+ * 
+ * Suporta o subconjunto de Xml usado pela biblioteca: tags, atributos, texto,
+ * CDATA, comentários, instruções de processamento e DOCTYPE (ignorados), as
+ * entidades pré-definidas e referências numéricas de caracteres.
+ * 
+ * @author bernardobreder
+ */
+final class XmlTokenizer {
+
+  /** Evento de abertura de tag */
+  public static final int START_ELEMENT = 1;
+  /** Evento de fechamento de tag */
+  public static final int END_ELEMENT = 2;
+  /** Evento de texto */
+  public static final int TEXT = 4;
+  /** Evento de fim do documento */
+  public static final int END_DOCUMENT = 8;
+
+  /** Tamanho padrão da janela de mapeamento de arquivos */
+  public static final int WINDOW = 1 << 30;
+
+  /** Charset UTF-8 */
+  private static final Charset UTF8 = Charset.forName("utf-8");
+  /** Modo de decodificação de nomes */
+  private static final int NAME = 0;
+  /** Modo de decodificação de texto */
+  private static final int CHARACTERS = 1;
+  /** Modo de decodificação de atributo */
+  private static final int ATTRIBUTE = 2;
+  /** Modo de decodificação de CDATA */
+  private static final int CDATA = 3;
+
+  /** Bytes */
+  private ByteBuffer buffer;
+  /** Array do buffer, quando existir, para acesso direto */
+  private byte[] array;
+  /** Deslocamento do array do buffer */
+  private int arrayOffset;
+  /** Stream de onde os bytes são carregados */
+  private InputStream input;
+  /** Arquivo mapeado em janelas */
+  private FileChannel channel;
+  /** Tamanho da janela mapeada do arquivo */
+  private int window;
+  /** Quantidade de bytes descartados do início do stream */
+  private long discarded;
+  /** Posição corrente */
+  private int pos;
+  /** Limite dos bytes válidos */
+  private int limit;
+  /** Evento corrente */
+  private int event;
+  /** Início da tag corrente */
+  private int start;
+  /** Início do nome da tag corrente */
+  private int nameStart;
+  /** Fim do nome da tag corrente */
+  private int nameEnd;
+  /** Intervalos dos atributos: nome e valor, 4 inteiros por atributo */
+  private int[] attributes = new int[16];
+  /** Quantidade de atributos da tag corrente */
+  private int attributeCount;
+  /** Início do texto corrente */
+  private int textStart;
+  /** Fim do texto corrente */
+  private int textEnd;
+  /** Indica se o texto corrente é um CDATA */
+  private boolean cdata;
+  /** Indica que a tag corrente foi fechada com '/>' */
+  private boolean emptyElement;
+  /** Indica se a raiz já foi lida */
+  private boolean rootRead;
+  /** Bytes dos nomes das tags abertas */
+  private byte[] nameStack = new byte[256];
+  /** Fim de cada nome na pilha de nomes */
+  private int[] nameStackEnds = new int[16];
+  /** Quantidade de tags abertas */
+  private int depth;
+  /** Buffer de decodificação */
+  private char[] chars = new char[64];
+  /** Quantidade de chars decodificados */
+  private int charCount;
+  /** Tabela dos nomes de tags e atributos */
+  private XmlSymbolTable symbols = XmlSymbolTable.getDefault();
+
+  /**
+   * Construtor
+   * 
+   * @param bytes
+   */
+  public XmlTokenizer(byte[] bytes) {
+    this(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param buffer bytes entre a posição e o limite do buffer
+   */
+  public XmlTokenizer(ByteBuffer buffer) {
+    this.buffer = buffer;
+    if (buffer.hasArray()) {
+      this.array = buffer.array();
+      this.arrayOffset = buffer.arrayOffset();
+    }
+    this.pos = buffer.position();
+    this.limit = buffer.limit();
+  }
+
+  /**
+   * Construtor. Os bytes são carregados do stream sob demanda e descartados
+   * depois de consumidos, de forma que a memória usada é limitada pelo maior
+   * token do documento.
+   * 
+   * @param input
+   * @param size tamanho inicial do buffer
+   */
+  public XmlTokenizer(InputStream input, int size) {
+    this(ByteBuffer.wrap(new byte[size], 0, 0));
+    this.input = input;
+  }
+
+  /**
+   * Construtor. O arquivo é mapeado em memória em janelas, de forma que
+   * arquivos maiores que 2 GB podem ser lidos. Uma nova janela é mapeada a
+   * partir do token corrente quando a anterior termina.
+   * 
+   * @param channel
+   * @param window tamanho da janela mapeada
+   * @throws IOException
+   */
+  public XmlTokenizer(FileChannel channel, int window) throws IOException {
+    this(map(channel, 0, (int) Math.min(window, channel.size())));
+    this.channel = channel;
+    this.window = window;
+  }
+
+  /**
+   * Avança para o próximo evento
+   * 
+   * @return evento
+   * @throws ParseException
+   * @throws IOException
+   */
+  public int next() throws ParseException, IOException {
+    if (this.event == 0) {
+      this.skipBom();
+    }
+    if (this.emptyElement) {
+      this.emptyElement = false;
+      this.depth--;
+      return this.event = END_ELEMENT;
+    }
+    if (this.event == END_ELEMENT && this.depth == 0) {
+      this.rootRead = true;
+    }
+    for (;;) {
+      if (!this.ensure(1)) {
+        if (this.depth > 0) {
+          throw this.error("Fim inesperado do documento", this.pos);
+        }
+        if (!this.rootRead) {
+          throw this.error("Documento sem tag raiz", this.pos);
+        }
+        return this.event = END_DOCUMENT;
+      }
+      if (this.at(this.pos) != '<') {
+        int end = this.find('<', 0);
+        if (end < 0) {
+          end = this.limit - this.pos;
+        }
+        if (this.depth == 0) {
+          for (int n = 0; n < end; n++) {
+            if (!isSpace(this.at(this.pos + n))) {
+              throw this.error("Texto fora da tag raiz", this.pos + n);
+            }
+          }
+          this.pos += end;
+          continue;
+        }
+        this.textStart = this.pos;
+        this.textEnd = this.pos + end;
+        this.cdata = false;
+        this.pos += end;
+        return this.event = TEXT;
+      }
+      if (!this.ensure(2)) {
+        throw this.error("Fim inesperado do documento", this.pos);
+      }
+      byte c = this.at(this.pos + 1);
+      if (c == '/') {
+        this.readEndElement();
+        return this.event = END_ELEMENT;
+      }
+      else if (c == '?') {
+        this.skip("?>", 2);
+      }
+      else if (c == '!') {
+        if (this.startsWith("<!--")) {
+          this.skip("-->", 4);
+        }
+        else if (this.startsWith("<![CDATA[")) {
+          int end = this.find("]]>", 9);
+          if (end < 0) {
+            throw this.error("CDATA não fechado", this.pos);
+          }
+          if (this.depth == 0) {
+            throw this.error("CDATA fora da tag raiz", this.pos);
+          }
+          this.textStart = this.pos + 9;
+          this.textEnd = this.pos + end;
+          this.cdata = true;
+          this.pos += end + 3;
+          return this.event = TEXT;
+        }
+        else if (this.startsWith("<!DOCTYPE")) {
+          this.skipDoctype();
+        }
+        else {
+          throw this.error("Declaração inválida", this.pos);
+        }
+      }
+      else {
+        if (this.rootRead) {
+          throw this.error("Mais de uma tag raiz", this.pos);
+        }
+        this.readStartElement();
+        return this.event = START_ELEMENT;
+      }
+    }
+  }
+
+  /**
+   * @return evento corrente
+   */
+  public int getEvent() {
+    return this.event;
+  }
+
+  /**
+   * @return posição do início da tag corrente
+   */
+  public int getStart() {
+    return this.start;
+  }
+
+  /**
+   * @return posição corrente, depois do último token lido
+   */
+  public int getPosition() {
+    return this.pos;
+  }
+
+  /**
+   * @return quantidade de tags abertas
+   */
+  public int getDepth() {
+    return this.depth;
+  }
+
+  /**
+   * Altera a tabela que fornece as instâncias dos nomes
+   * 
+   * @param symbols
+   */
+  public void setSymbolTable(XmlSymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * @return nome da tag corrente
+   * @throws ParseException
+   */
+  public String getName() throws ParseException {
+    this.decode(this.nameStart, this.nameEnd, NAME);
+    return this.symbols.intern(this.chars, 0, this.charCount);
+  }
+
+  /**
+   * Compara o nome da tag corrente sem decodificá-lo quando for ascii
+   * 
+   * @param name
+   * @return indica se o nome é igual
+   * @throws ParseException
+   */
+  public boolean isName(String name) throws ParseException {
+    return this.equals(this.nameStart, this.nameEnd, name);
+  }
+
+  /**
+   * Procura um atributo da tag corrente pelo nome
+   * 
+   * @param name
+   * @return índice do atributo ou -1 se não existir
+   * @throws ParseException
+   */
+  public int getAttributeIndex(String name) throws ParseException {
+    for (int n = 0; n < this.attributeCount; n++) {
+      if (this.equals(this.attributes[n * 4], this.attributes[n * 4 + 1],
+        name)) {
+        return n;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return quantidade de atributos da tag corrente
+   */
+  public int getAttributeCount() {
+    return this.attributeCount;
+  }
+
+  /**
+   * @param index
+   * @return nome do atributo
+   * @throws ParseException
+   */
+  public String getAttributeName(int index) throws ParseException {
+    int n = index * 4;
+    this.decode(this.attributes[n], this.attributes[n + 1], NAME);
+    return this.symbols.intern(this.chars, 0, this.charCount);
+  }
+
+  /**
+   * @param index
+   * @return valor do atributo
+   * @throws ParseException
+   */
+  public String getAttributeValue(int index) throws ParseException {
+    int n = index * 4;
+    this.decode(this.attributes[n + 2], this.attributes[n + 3], ATTRIBUTE);
+    return new String(this.chars, 0, this.charCount);
+  }
+
+  /**
+   * @return texto corrente
+   * @throws ParseException
+   */
+  public String getText() throws ParseException {
+    this.decodeText();
+    return new String(this.chars, 0, this.charCount);
+  }
+
+  /**
+   * Decodifica o texto corrente no buffer retornado por {@link #getChars()}
+   * 
+   * @return quantidade de chars decodificados
+   * @throws ParseException
+   */
+  public int decodeText() throws ParseException {
+    this.decode(this.textStart, this.textEnd, this.cdata ? CDATA : CHARACTERS);
+    return this.charCount;
+  }
+
+  /**
+   * @return buffer da última decodificação
+   */
+  public char[] getChars() {
+    return this.chars;
+  }
+
+  /**
+   * Lê a tag de abertura que começa na posição corrente
+   * 
+   * @throws ParseException
+   * @throws IOException
+   */
+  private void readStartElement() throws ParseException, IOException {
+    int length = this.findTagEnd();
+    int start = this.pos;
+    int end = start + length;
+    int i = start + 1;
+    this.start = start;
+    this.nameStart = i;
+    while (i < end && !isNameEnd(this.at(i))) {
+      i++;
+    }
+    this.nameEnd = i;
+    if (this.nameStart == this.nameEnd) {
+      throw this.error("Tag sem nome", start);
+    }
+    this.attributeCount = 0;
+    for (;;) {
+      while (i < end && isSpace(this.at(i))) {
+        i++;
+      }
+      if (i == end) {
+        break;
+      }
+      if (this.at(i) == '/') {
+        if (i + 1 != end) {
+          throw this.error("Caractere '/' inesperado", i);
+        }
+        this.emptyElement = true;
+        break;
+      }
+      int keyStart = i;
+      while (i < end && !isNameEnd(this.at(i))
+        && this.at(i) != '=') {
+        i++;
+      }
+      int keyEnd = i;
+      while (i < end && isSpace(this.at(i))) {
+        i++;
+      }
+      if (keyStart == keyEnd || i == end || this.at(i) != '=') {
+        throw this.error("Atributo inválido", keyStart);
+      }
+      i++;
+      while (i < end && isSpace(this.at(i))) {
+        i++;
+      }
+      byte quote = i < end ? this.at(i) : 0;
+      if (quote != '"' && quote != '\'') {
+        throw this.error("Valor de atributo sem aspas", i);
+      }
+      int valueStart = ++i;
+      while (i < end && this.at(i) != quote) {
+        i++;
+      }
+      if (i == end) {
+        throw this.error("Valor de atributo não fechado", valueStart);
+      }
+      this.addAttribute(keyStart, keyEnd, valueStart, i);
+      i++;
+    }
+    this.pos = end + 1;
+    this.push(this.nameStart, this.nameEnd);
+  }
+
+  /**
+   * Lê a tag de fechamento que começa na posição corrente
+   * 
+   * @throws ParseException
+   * @throws IOException
+   */
+  private void readEndElement() throws ParseException, IOException {
+    int length = this.find('>', 2);
+    if (length < 0) {
+      throw this.error("Tag não fechada", this.pos);
+    }
+    int start = this.pos;
+    int end = start + length;
+    this.start = start;
+    this.nameStart = start + 2;
+    int i = this.nameStart;
+    while (i < end && !isNameEnd(this.at(i))) {
+      i++;
+    }
+    this.nameEnd = i;
+    while (i < end && isSpace(this.at(i))) {
+      i++;
+    }
+    if (i != end || this.depth == 0) {
+      throw this.error("Tag de fechamento inválida", start);
+    }
+    int from = this.depth == 1 ? 0 : this.nameStackEnds[this.depth - 2];
+    int to = this.nameStackEnds[this.depth - 1];
+    boolean match = to - from == this.nameEnd - this.nameStart;
+    for (int n = 0; match && n < to - from; n++) {
+      match = this.nameStack[from + n] == this.at(this.nameStart + n);
+    }
+    if (!match) {
+      throw this.error("Tag de fechamento não corresponde à tag '"
+        + new String(this.nameStack, from, to - from, UTF8)
+        + "'", start);
+    }
+    this.attributeCount = 0;
+    this.depth--;
+    this.pos = end + 1;
+  }
+
+  /**
+   * Empilha o nome de uma tag aberta
+   * 
+   * @param start
+   * @param end
+   */
+  private void push(int start, int end) {
+    int from = this.depth == 0 ? 0 : this.nameStackEnds[this.depth - 1];
+    int to = from + end - start;
+    if (to > this.nameStack.length) {
+      byte[] stack = new byte[Math.max(to, this.nameStack.length * 2)];
+      System.arraycopy(this.nameStack, 0, stack, 0, from);
+      this.nameStack = stack;
+    }
+    if (this.depth == this.nameStackEnds.length) {
+      int[] ends = new int[this.depth * 2];
+      System.arraycopy(this.nameStackEnds, 0, ends, 0, this.depth);
+      this.nameStackEnds = ends;
+    }
+    for (int n = start; n < end; n++) {
+      this.nameStack[from++] = this.at(n);
+    }
+    this.nameStackEnds[this.depth++] = to;
+  }
+
+  /**
+   * Registra um atributo
+   * 
+   * @param keyStart
+   * @param keyEnd
+   * @param valueStart
+   * @param valueEnd
+   */
+  private void addAttribute(int keyStart, int keyEnd, int valueStart,
+    int valueEnd) {
+    int n = this.attributeCount * 4;
+    if (n == this.attributes.length) {
+      int[] array = new int[n * 2];
+      System.arraycopy(this.attributes, 0, array, 0, n);
+      this.attributes = array;
+    }
+    this.attributes[n] = keyStart;
+    this.attributes[n + 1] = keyEnd;
+    this.attributes[n + 2] = valueStart;
+    this.attributes[n + 3] = valueEnd;
+    this.attributeCount++;
+  }
+
+  /**
+   * Pula o DOCTYPE, incluindo o subconjunto interno
+   * 
+   * @throws ParseException
+   * @throws IOException
+   */
+  private void skipDoctype() throws ParseException, IOException {
+    int brackets = 0;
+    byte quote = 0;
+    for (int n = 9;; n++) {
+      if (!this.ensure(n + 1)) {
+        throw this.error("DOCTYPE não fechado", this.pos);
+      }
+      byte c = this.at(this.pos + n);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      }
+      else if (c == '"' || c == '\'') {
+        quote = c;
+      }
+      else if (c == '<' && this.ensure(n + 4)
+        && this.at(this.pos + n + 1) == '!'
+        && this.at(this.pos + n + 2) == '-'
+        && this.at(this.pos + n + 3) == '-') {
+        int end = this.find("-->", n + 4);
+        if (end < 0) {
+          throw this.error("Comentário não fechado", this.pos + n);
+        }
+        n = end + 2;
+      }
+      else if (c == '[') {
+        brackets++;
+      }
+      else if (c == ']') {
+        brackets--;
+      }
+      else if (c == '>' && brackets == 0) {
+        this.pos += n + 1;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Pula até o terminador informado
+   * 
+   * @param terminator
+   * @param offset
+   * @throws ParseException
+   * @throws IOException
+   */
+  private void skip(String terminator, int offset) throws ParseException,
+    IOException {
+    int end = this.find(terminator, offset);
+    if (end < 0) {
+      throw this.error("Esperado '" + terminator + "'", this.pos);
+    }
+    this.pos += end + terminator.length();
+  }
+
+  /**
+   * Procura o fim da tag de abertura, ignorando o '>' entre aspas
+   * 
+   * @return deslocamento do '>' a partir da posição corrente
+   * @throws ParseException
+   * @throws IOException
+   */
+  private int findTagEnd() throws ParseException, IOException {
+    byte quote = 0;
+    for (int n = 1;; n++) {
+      if (!this.ensure(n + 1)) {
+        throw this.error("Tag não fechada", this.pos);
+      }
+      byte c = this.at(this.pos + n);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      }
+      else if (c == '"' || c == '\'') {
+        quote = c;
+      }
+      else if (c == '>') {
+        return n;
+      }
+      else if (c == '<') {
+        throw this.error("Caractere '<' inesperado", this.pos + n);
+      }
+    }
+  }
+
+  /**
+   * Procura um byte a partir da posição corrente
+   * 
+   * @param c
+   * @param offset deslocamento inicial
+   * @return deslocamento do byte ou -1 se não encontrado
+   * @throws IOException
+   */
+  private int find(char c, int offset) throws IOException {
+    for (int n = offset;; n++) {
+      if (!this.ensure(n + 1)) {
+        return -1;
+      }
+      if (this.at(this.pos + n) == c) {
+        return n;
+      }
+    }
+  }
+
+  /**
+   * Procura uma sequência a partir da posição corrente
+   * 
+   * @param text sequência ascii
+   * @param offset deslocamento inicial
+   * @return deslocamento da sequência ou -1 se não encontrada
+   * @throws IOException
+   */
+  private int find(String text, int offset) throws IOException {
+    char first = text.charAt(0);
+    int length = text.length();
+    for (int n = offset;; n++) {
+      if (!this.ensure(n + length)) {
+        return -1;
+      }
+      if (this.at(this.pos + n) == first) {
+        int m = 1;
+        while (m < length && this.at(this.pos + n + m) == text.charAt(m)) {
+          m++;
+        }
+        if (m == length) {
+          return n;
+        }
+      }
+    }
+  }
+
+  /**
+   * Indica se os bytes da posição corrente começam com o texto
+   * 
+   * @param text sequência ascii
+   * @return começa com o texto
+   * @throws IOException
+   */
+  private boolean startsWith(String text) throws IOException {
+    int length = text.length();
+    if (!this.ensure(length)) {
+      return false;
+    }
+    for (int n = 0; n < length; n++) {
+      if (this.at(this.pos + n) != text.charAt(n)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Garante que existam bytes disponíveis a partir da posição corrente
+   * 
+   * @param count
+   * @return se existem os bytes
+   * @throws IOException
+   */
+  private boolean ensure(int count) throws IOException {
+    while (this.limit - this.pos < count) {
+      if (!this.more()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Carrega mais bytes. Os bytes anteriores à posição corrente podem ser
+   * descartados, deslocando as posições.
+   * 
+   * @return se conseguiu carregar mais bytes
+   * @throws IOException
+   */
+  private boolean more() throws IOException {
+    if (this.channel != null) {
+      long position = this.discarded + this.pos;
+      long size = this.channel.size();
+      if (this.discarded + this.limit >= size) {
+        return false;
+      }
+      int length = Math.max(this.window, 2 * (this.limit - this.pos));
+      this.buffer =
+        map(this.channel, position, (int) Math.min(length, size - position));
+      this.discarded = position;
+      this.limit = this.buffer.limit();
+      this.pos = 0;
+      return true;
+    }
+    if (this.input == null) {
+      return false;
+    }
+    if (this.pos > 0) {
+      System.arraycopy(this.array, this.pos, this.array, 0, this.limit
+        - this.pos);
+      this.discarded += this.pos;
+      this.limit -= this.pos;
+      this.pos = 0;
+    }
+    if (this.limit == this.array.length) {
+      byte[] array = new byte[this.array.length * 2];
+      System.arraycopy(this.array, 0, array, 0, this.limit);
+      this.array = array;
+      this.buffer = ByteBuffer.wrap(array);
+    }
+    int n = this.input.read(this.array, this.limit, this.array.length
+      - this.limit);
+    if (n < 0) {
+      this.input.close();
+      this.input = null;
+      return false;
+    }
+    this.limit += n;
+    return true;
+  }
+
+  /**
+   * Mapeia uma região do arquivo
+   * 
+   * @param channel
+   * @param position
+   * @param length
+   * @return região mapeada
+   * @throws IOException
+   */
+  private static ByteBuffer map(FileChannel channel, long position, int length)
+    throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+  }
+
+  /**
+   * Cria o erro de parse
+   * 
+   * @param message
+   * @param index posição no buffer
+   * @return erro
+   */
+  private ParseException error(String message, int index) {
+    return new ParseException(message, (int) Math.min(Integer.MAX_VALUE,
+      this.discarded + index));
+  }
+
+  /**
+   * @param index
+   * @return byte na posição absoluta
+   */
+  private byte at(int index) {
+    if (this.array != null) {
+      return this.array[this.arrayOffset + index];
+    }
+    return this.buffer.get(index);
+  }
+
+  /**
+   * Pula o BOM de UTF-8
+   * @throws IOException
+   */
+  private void skipBom() throws IOException {
+    if (this.ensure(3) && this.at(this.pos) == (byte) 0xEF
+      && this.at(this.pos + 1) == (byte) 0xBB
+      && this.at(this.pos + 2) == (byte) 0xBF) {
+      this.pos += 3;
+    }
+  }
+
+  /**
+   * Decodifica um intervalo de bytes em UTF-8 para o buffer de chars
+   * 
+   * @param start
+   * @param end
+   * @param mode
+   * @throws ParseException
+   */
+  private void decode(int start, int end, int mode) throws ParseException {
+    if (this.chars.length < end - start) {
+      this.chars = new char[Math.max(end - start, this.chars.length * 2)];
+    }
+    char[] chars = this.chars;
+    int count = 0;
+    int i = start;
+    while (i < end) {
+      int c = this.at(i++);
+      if (c >= 0) {
+        if (c == '&' && (mode == CHARACTERS || mode == ATTRIBUTE)) {
+          int semicolon = i;
+          while (semicolon < end && this.at(semicolon) != ';') {
+            semicolon++;
+          }
+          if (semicolon == end) {
+            throw this.error("Entidade não terminada", i - 1);
+          }
+          int code = this.entity(i, semicolon);
+          i = semicolon + 1;
+          if (code >= 0x10000) {
+            chars[count++] = Character.highSurrogate(code);
+            chars[count++] = Character.lowSurrogate(code);
+          }
+          else {
+            chars[count++] = (char) code;
+          }
+        }
+        else if (c == '\r' && mode != NAME) {
+          if (i < end && this.at(i) == '\n') {
+            i++;
+          }
+          chars[count++] = mode == ATTRIBUTE ? ' ' : '\n';
+        }
+        else if (mode == ATTRIBUTE && (c == '\n' || c == '\t')) {
+          chars[count++] = ' ';
+        }
+        else {
+          chars[count++] = (char) c;
+        }
+      }
+      else if ((c & 0xE0) == 0xC0 && i < end) {
+        chars[count++] = (char) (((c & 0x1F) << 6) | (this.at(i++) & 0x3F));
+      }
+      else if ((c & 0xF0) == 0xE0 && i + 1 < end) {
+        chars[count++] =
+          (char) (((c & 0x0F) << 12) | ((this.at(i) & 0x3F) << 6) | (this
+            .at(i + 1) & 0x3F));
+        i += 2;
+      }
+      else if ((c & 0xF8) == 0xF0 && i + 2 < end) {
+        int code =
+          ((c & 0x07) << 18) | ((this.at(i) & 0x3F) << 12)
+            | ((this.at(i + 1) & 0x3F) << 6) | (this.at(i + 2) & 0x3F);
+        i += 3;
+        chars[count++] = Character.highSurrogate(code);
+        chars[count++] = Character.lowSurrogate(code);
+      }
+      else {
+        throw this.error("Sequência UTF-8 inválida", i - 1);
+      }
+    }
+    this.charCount = count;
+  }
+
+  /**
+   * Compara um intervalo de bytes de um nome com um texto
+   * 
+   * @param start
+   * @param end
+   * @param text
+   * @return indica se são iguais
+   * @throws ParseException
+   */
+  private boolean equals(int start, int end, String text)
+    throws ParseException {
+    int length = text.length();
+    if (end - start < length) {
+      return false;
+    }
+    for (int n = 0; n < length; n++) {
+      byte c = this.at(start + n);
+      if (c < 0) {
+        this.decode(start, end, NAME);
+        if (this.charCount != length) {
+          return false;
+        }
+        for (int m = n; m < length; m++) {
+          if (this.chars[m] != text.charAt(m)) {
+            return false;
+          }
+        }
+        return true;
+      }
+      if (c != text.charAt(n)) {
+        return false;
+      }
+    }
+    return end - start == length;
+  }
+
+  /**
+   * Resolve uma referência de entidade
+   * 
+   * @param start início do nome, depois do '&'
+   * @param end posição do ';'
+   * @return código do caractere
+   * @throws ParseException
+   */
+  private int entity(int start, int end) throws ParseException {
+    int length = end - start;
+    if (length > 1 && this.at(start) == '#') {
+      int radix = 10;
+      int i = start + 1;
+      if (this.at(i) == 'x') {
+        radix = 16;
+        i++;
+      }
+      int code = 0;
+      if (i == end) {
+        throw this.error("Referência de caractere inválida", start);
+      }
+      for (; i < end; i++) {
+        int digit = Character.digit(this.at(i), radix);
+        if (digit < 0 || code > 0x10FFFF) {
+          throw this.error("Referência de caractere inválida", start);
+        }
+        code = code * radix + digit;
+      }
+      if (!Character.isValidCodePoint(code)) {
+        throw this.error("Referência de caractere inválida", start);
+      }
+      return code;
+    }
+    if (length == 2 && this.at(start + 1) == 't') {
+      if (this.at(start) == 'l') {
+        return '<';
+      }
+      else if (this.at(start) == 'g') {
+        return '>';
+      }
+    }
+    else if (length == 3 && this.at(start) == 'a'
+      && this.at(start + 1) == 'm' && this.at(start + 2) == 'p') {
+      return '&';
+    }
+    else if (length == 4) {
+      if (this.at(start) == 'q' && this.at(start + 1) == 'u'
+        && this.at(start + 2) == 'o' && this.at(start + 3) == 't') {
+        return '"';
+      }
+      else if (this.at(start) == 'a' && this.at(start + 1) == 'p'
+        && this.at(start + 2) == 'o' && this.at(start + 3) == 's') {
+        return '\'';
+      }
+    }
+    throw this.error("Entidade desconhecida", start - 1);
+  }
+
+  /**
+   * @param c
+   * @return indica se é um espaço em branco
+   */
+  private static boolean isSpace(byte c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  /**
+   * @param c
+   * @return indica se termina um nome
+   */
+  private static boolean isNameEnd(byte c) {
+    return c == '/' || c == '>' || isSpace(c);
+  }
+
+}
@@ -0,0 +1,217 @@
+package org.breder.xml;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Escritor de Xml em fluxo. As tags, atributos e textos são codificados em
+ * UTF-8 direto num buffer e enviados ao destino em blocos, sem montar uma
+ * árvore de {@link XmlNode}; a memória usada não depende do tamanho do
+ * documento. Uma árvore pronta pode ser escrita no meio do fluxo com
+ * {@link #writeNode(XmlNode)}.
+ * 
+ * Os textos e valores de atributos são escapados. Não é sincronizado.
+ * 
+ * @author bernardobreder
+ */
+public class XmlWriter implements Closeable, Flushable {
+
+  /** Saída */
+  private final StringOutputStream output;
+  /** Destino */
+  private final Closeable target;
+  /** Nomes das tags abertas */
+  private String[] names = new String[16];
+  /** Quantidade de tags abertas */
+  private int depth;
+  /** Indica se a abertura da última tag ainda aceita atributos */
+  private boolean startOpen;
+
+  /**
+   * Construtor
+   * 
+   * @param output
+   */
+  public XmlWriter(OutputStream output) {
+    this.output = new StringOutputStream(output);
+    this.target = output;
+  }
+
+  /**
+   * Construtor
+   * 
+   * @param channel
+   */
+  public XmlWriter(WritableByteChannel channel) {
+    this.output = new StringOutputStream(Channels.newOutputStream(channel));
+    this.target = channel;
+  }
+
+  /**
+   * Abre uma tag
+   * 
+   * @param name
+   * @return this
+   * @throws IOException
+   */
+  public XmlWriter startElement(String name) throws IOException {
+    this.closeStart();
+    if (this.depth == this.names.length) {
+      String[] names = new String[this.depth * 2];
+      System.arraycopy(this.names, 0, names, 0, this.depth);
+      this.names = names;
+    }
+    this.names[this.depth++] = name;
+    this.output.write('<');
+    this.output.append(name);
+    this.startOpen = true;
+    return this;
+  }
+
+  /**
+   * Escreve um atributo na tag recém aberta
+   * 
+   * @param name
+   * @param value
+   * @return this
+   * @throws IOException
+   */
+  public XmlWriter attribute(String name, String value) throws IOException {
+    if (!this.startOpen) {
+      throw new IllegalStateException("Atributo fora da abertura de tag: "
+        + name);
+    }
+    this.output.write(' ');
+    this.output.append(name);
+    this.output.write('=');
+    this.output.write('"');
+    this.output.appendEscaped(value, true);
+    this.output.write('"');
+    return this;
+  }
+
+  /**
+   * Escreve um texto na tag aberta
+   * 
+   * @param text
+   * @return this
+   * @throws IOException
+   */
+  public XmlWriter text(String text) throws IOException {
+    if (this.depth == 0) {
+      throw new IllegalStateException("Texto fora de uma tag");
+    }
+    this.closeStart();
+    this.output.appendEscaped(text, false);
+    return this;
+  }
+
+  /**
+   * Escreve o conteúdo da origem, copiando os bytes direto para a saída, sem
+   * escapar
+   * 
+   * @param source
+   * @return this
+   * @throws IOException
+   */
+  public XmlWriter text(XmlContentSource source) throws IOException {
+    if (this.depth == 0) {
+      throw new IllegalStateException("Texto fora de uma tag");
+    }
+    this.closeStart();
+    this.output.append(source);
+    return this;
+  }
+
+  /**
+   * Fecha a última tag aberta
+   * 
+   * @return this
+   * @throws IOException
+   */
+  public XmlWriter endElement() throws IOException {
+    if (this.depth == 0) {
+      throw new IllegalStateException("Nenhuma tag aberta");
+    }
+    String name = this.names[--this.depth];
+    this.names[this.depth] = null;
+    if (this.startOpen) {
+      this.output.write('/');
+      this.output.write('>');
+      this.startOpen = false;
+    }
+    else {
+      this.output.write('<');
+      this.output.write('/');
+      this.output.append(name);
+      this.output.write('>');
+    }
+    return this;
+  }
+
+  /**
+   * Escreve uma árvore pronta dentro da tag aberta, no mesmo formato do
+   * {@link XmlNode#write(OutputStream)}
+   * 
+   * @param node
+   * @return this
+   * @throws IOException
+   */
+  public XmlWriter writeNode(XmlNode node) throws IOException {
+    this.closeStart();
+    XmlNode.getBytes(this.output, node);
+    return this;
+  }
+
+  /**
+   * @return quantidade de tags abertas
+   */
+  public int getDepth() {
+    return this.depth;
+  }
+
+  /**
+   * Envia os bytes pendentes ao destino
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void flush() throws IOException {
+    this.output.flush();
+  }
+
+  /**
+   * Fecha as tags abertas, envia os bytes pendentes e fecha o destino
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      while (this.depth > 0) {
+        this.endElement();
+      }
+      this.output.flush();
+    }
+    finally {
+      this.target.close();
+    }
+  }
+
+  /**
+   * Termina a abertura da tag, se ainda aceitava atributos
+   * 
+   * @throws IOException
+   */
+  private void closeStart() throws IOException {
+    if (this.startOpen) {
+      this.output.write('>');
+      this.startOpen = false;
+    }
+  }
+
+}
@@ -0,0 +1,639 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.breder.xml.XmlContentSource;
+import org.breder.xml.XmlDocument;
+import org.breder.xml.XmlElement;
+import org.breder.xml.XmlIndex;
+import org.breder.xml.XmlNode;
+import org.breder.xml.XmlNodeCache;
+import org.breder.xml.XmlParser;
+import org.breder.xml.XmlSymbolTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParseXmlTest {
+
+  /** Documentos do corpus de conformidade */
+  private static final String[] CORPUS = { "empty", "attributes", "entities",
+      "cdata", "doctype", "utf8", "newlines", "mixed", "nested", "comments" };
+
+  @Test
+  public void conformance() throws IOException, ParseException {
+    for (String name : CORPUS) {
+      byte[] bytes = read("/conformance/" + name + ".xml");
+      XmlNode expected = new XmlNode(new ByteArrayInputStream(bytes));
+      Assert.assertEquals(name, expected, XmlNode.parse(bytes));
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes).flip();
+      Assert.assertEquals(name, expected, XmlNode.parse(direct));
+      Assert.assertEquals(name, expected, XmlNode.parseLazy(bytes));
+      Assert.assertEquals(name, expected.toString(), XmlNode.parseLazy(bytes)
+        .toString());
+      XmlElement element = XmlDocument.parse(bytes).getRoot();
+      Assert.assertEquals(name, expected, element.toXmlNode());
+      Assert.assertEquals(name, expected.toString(), element.toString());
+      Assert.assertEquals(name, expected.toString(), element.toXmlNode()
+        .toString());
+    }
+  }
+
+  @Test
+  public void file() throws IOException, ParseException {
+    for (String name : CORPUS) {
+      byte[] bytes = read("/conformance/" + name + ".xml");
+      Path path = Files.createTempFile("conformance", ".xml");
+      try {
+        Files.write(path, bytes);
+        XmlNode expected = new XmlNode(new ByteArrayInputStream(bytes));
+        Assert.assertEquals(name, expected, XmlNode.parse(path));
+      }
+      finally {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Test
+  public void content() throws ParseException {
+    XmlNode root =
+      XmlNode.parse(bytes("<r a=\"&#x1F600;\">x &amp; <![CDATA[<y>]]></r>"));
+    Assert.assertEquals("r", root.getName());
+    Assert.assertEquals("😀", root.getAttribute("a"));
+    Assert.assertEquals("x & <y>", root.getContent());
+  }
+
+  @Test
+  public void lazy() throws ParseException {
+    XmlNode root =
+      XmlNode.parseLazy(bytes("<r x=\"1\"><a>um</a> t <b><c/><d y=\"2\">"
+        + "dois</d></b></r>"));
+    Assert.assertEquals("r", root.getName());
+    XmlNode b = root.getNodeByTagName("b");
+    Assert.assertEquals(2, b.getNodeCount());
+    Assert.assertEquals(Integer.valueOf(2), b.getNodeByTagName("d")
+      .getAttribute("y", 0));
+    Assert.assertEquals("dois", b.getContent());
+    Assert.assertEquals("um t dois", root.getContent());
+    b.setAttribute("z", "3").addNode(new XmlNode("e"));
+    Assert.assertEquals(3, b.getNodeCount());
+    Assert.assertEquals("1", root.getAttribute("x"));
+  }
+
+  @Test
+  public void document() throws ParseException {
+    XmlDocument document =
+      XmlDocument.parse(bytes("<r x=\"1\"><a>um</a> t <b><c/><d y=\"2\">"
+        + "dois</d><d y=\"3\"/></b></r>"));
+    Assert.assertEquals(6, document.getElementCount());
+    XmlElement root = document.getRoot();
+    Assert.assertEquals("r", root.getName());
+    Assert.assertNull(root.getParent());
+    Assert.assertEquals("um t dois", root.getContent());
+    XmlElement b = root.getNodeByTagName("b");
+    Assert.assertEquals(3, b.getNodeCount());
+    Assert.assertEquals(root, b.getParent());
+    Assert.assertEquals(2, b.getNodesByTagName("d").size());
+    Assert.assertEquals(Integer.valueOf(3), b.getNodeByAttributeValue("y",
+      "3").getAttribute("y", 0));
+    Assert.assertEquals(2, b.getNodesByAttributeKey("y", null).size());
+    Assert.assertNull(b.getNodeByAttributeValue("y", "4"));
+    Assert.assertNull(b.getNodeByTagName("c").getNodes());
+    Assert.assertEquals("1", root.getAttribute("x"));
+    Assert.assertFalse(root.hasAttribute("y"));
+    Assert.assertEquals("<b><c></c><d y=\"2\">dois</d><d y=\"3\"></d></b>", b
+      .toString());
+  }
+
+  @Test
+  public void symbols() throws IOException, ParseException {
+    byte[] bytes = bytes("<tabela><linha coluna=\"1\"/></tabela>");
+    XmlNode a = XmlNode.parse(bytes);
+    XmlNode b = XmlNode.parse(bytes);
+    XmlNode c = new XmlNode(new ByteArrayInputStream(bytes));
+    Assert.assertSame(a.getName(), b.getName());
+    Assert.assertSame(a.getName(), c.getName());
+    Assert.assertSame(a.getNodes().get(0).getAttributes().keySet().iterator()
+      .next(), c.getNodes().get(0).getAttributes().keySet().iterator().next());
+    Assert.assertSame(a.getName(), XmlDocument.parse(bytes).getRoot()
+      .getName());
+    XmlSymbolTable symbols = new XmlSymbolTable(2);
+    String x = symbols.intern(new String("x"));
+    Assert.assertSame(x, symbols.intern(new char[] { 'x' }, 0, 1));
+    symbols.intern("y");
+    String z = symbols.intern(new String("z"));
+    Assert.assertNotSame(z, symbols.intern(new String("z")));
+    Assert.assertEquals(2, symbols.size());
+    XmlNode.parse(bytes("<lista><item/></lista>"));
+    int names = XmlSymbolTable.getDefault().size();
+    StringBuilder sb = new StringBuilder("<lista>");
+    for (int n = 1; n <= 100; n++) {
+      sb.append('\n');
+      for (int k = 0; k < n; k++) {
+        sb.append(' ');
+      }
+      sb.append("<item/>");
+    }
+    XmlNode first = XmlNode.parse(bytes(sb.append("</lista>").toString()));
+    XmlNode second = XmlNode.parse(bytes(sb.toString()));
+    Assert.assertEquals(names, XmlSymbolTable.getDefault().size());
+    Assert.assertSame(first.getText(50), second.getText(50));
+  }
+
+  @Test
+  public void attributes() throws ParseException {
+    StringBuilder sb = new StringBuilder("<r");
+    for (int n = 20; n > 0; n--) {
+      sb.append(" a").append(n).append("=\"").append(n).append('"');
+    }
+    XmlNode root = XmlNode.parse(bytes(sb.append("/>").toString()));
+    Map<String, String> attributes = root.getAttributes();
+    Assert.assertEquals(20, attributes.size());
+    Assert.assertEquals("a20", attributes.keySet().iterator().next());
+    Assert.assertEquals(Integer.valueOf(7), root.getAttribute("a7", 0));
+    for (int n = 20; n > 2; n--) {
+      Assert.assertEquals(String.valueOf(n), attributes.remove("a" + n));
+    }
+    Assert.assertFalse(root.hasAttribute("a3"));
+    Assert.assertEquals("2", root.getAttribute("a2"));
+    root.setAttribute("b", "x").setAttribute("a2", "y");
+    Assert.assertEquals("<r a2=\"y\" a1=\"1\" b=\"x\"></r>", root.toString());
+    Map<String, String> expected = new HashMap<String, String>();
+    expected.put("b", "x");
+    expected.put("a1", "1");
+    expected.put("a2", "y");
+    Assert.assertEquals(expected, attributes);
+    Assert.assertEquals(expected.hashCode(), attributes.hashCode());
+  }
+
+  @Test
+  public void mixed() throws IOException, ParseException {
+    byte[] bytes = bytes("<p>um <b>dois</b> três <i>quatro</i></p>");
+    XmlNode[] roots =
+      { XmlNode.parse(bytes), XmlNode.parseLazy(bytes),
+          new XmlNode(new ByteArrayInputStream(bytes)) };
+    for (XmlNode root : roots) {
+      Assert.assertEquals("um  três", root.getText());
+      Assert.assertEquals("um ", root.getText(0));
+      Assert.assertEquals(" três ", root.getText(1));
+      Assert.assertNull(root.getText(2));
+      Assert.assertEquals("um dois três quatro", root.getTextContent());
+      Assert.assertEquals("um dois três quatro", root.getContent());
+      Assert.assertEquals("<p>um <b>dois</b> três <i>quatro</i></p>", root
+        .toString());
+      Assert.assertEquals("dois", root.getNodes().get(0).getText());
+    }
+    XmlElement element = XmlDocument.parse(bytes).getRoot();
+    Assert.assertEquals("um ", element.getText(0));
+    Assert.assertEquals(" três ", element.getText(1));
+    Assert.assertNull(element.getText(2));
+    Assert.assertNull(element.getText(3));
+    Assert.assertEquals("<p>um <b>dois</b> três <i>quatro</i></p>", element
+      .toString());
+    XmlNode copy = element.toXmlNode();
+    Assert.assertEquals(" três ", copy.getText(1));
+    Assert.assertEquals("um dois três quatro", copy.getContent());
+    Assert.assertEquals("<p>um <b>dois</b> três <i>quatro</i></p>", copy
+      .toString());
+    XmlNode root = new XmlNode("p").addText("a ");
+    root.addNode(new XmlNode("b").setContent("b")).addText(" c");
+    root.addNode(new XmlNode("i"), 0);
+    Assert.assertEquals("<p><i></i>a <b>b</b> c</p>", root.toString());
+    Assert.assertEquals("a b c", root.getContent());
+  }
+
+  @Test
+  public void freeze() throws ParseException {
+    XmlNode root =
+      XmlNode.parse(bytes("<r a=\"1\"><x>um</x> e <y><z>dois</z></y></r>"));
+    XmlNode frozen = root.freeze();
+    Assert.assertTrue(frozen.isFrozen());
+    Assert.assertSame(frozen, frozen.freeze());
+    Assert.assertEquals(root.toString(), frozen.toString());
+    Assert.assertEquals("um e dois", frozen.getContent());
+    Assert.assertNull(frozen.getNodes().get(0).getParent());
+    root.setAttribute("a", "2");
+    Assert.assertEquals("1", frozen.getAttribute("a"));
+    try {
+      frozen.setAttribute("a", "3");
+      Assert.fail("atributo");
+    }
+    catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.getNodes().add(new XmlNode("w"));
+      Assert.fail("filhos");
+    }
+    catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.getAttributes().put("b", "c");
+      Assert.fail("atributos");
+    }
+    catch (UnsupportedOperationException e) {
+    }
+    try {
+      new XmlNode("w").addNode(frozen);
+      Assert.fail("pai");
+    }
+    catch (UnsupportedOperationException e) {
+    }
+    XmlNode y = frozen.getNodes().get(1);
+    XmlNode edited =
+      frozen.withNode(1, y.withNode(0, y.getNodes().get(0).withContent(
+        "três")));
+    Assert.assertEquals("<r a=\"1\"><x>um</x> e <y><z>três</z></y></r>",
+      edited.toString());
+    Assert.assertEquals("um e três", edited.getContent());
+    Assert.assertEquals("um e dois", frozen.getContent());
+    Assert.assertSame(frozen.getNodes().get(0), edited.getNodes().get(0));
+    XmlNode other = edited.withAttribute("b", "2").withName("s");
+    Assert.assertTrue(other.toString().startsWith("<s a=\"1\" b=\"2\">"));
+    Assert.assertNull(edited.getAttribute("b"));
+    XmlNode removed = edited.withoutNode(0).withAddedNode(new XmlNode("w"));
+    Assert.assertEquals("<r a=\"1\"> e <y><z>três</z></y><w></w></r>",
+      removed.toString());
+    Assert.assertTrue(removed.getNodes().get(1).isFrozen());
+  }
+
+  @Test
+  public void cache() throws Exception {
+    final Path a = Files.createTempFile("cache", ".xml");
+    Path b = Files.createTempFile("cache", ".xml");
+    try {
+      Files.write(a, bytes("<a>um</a>"));
+      Files.write(b, bytes("<b>dois</b>"));
+      final XmlNodeCache cache = new XmlNodeCache(1 << 20);
+      XmlNode node = cache.get(a);
+      Assert.assertTrue(node.isFrozen());
+      Assert.assertSame(node, cache.get(a));
+      Assert.assertEquals(1, cache.getHitCount());
+      Assert.assertEquals(1, cache.getMissCount());
+      Files.write(a, bytes("<a>outro</a>"));
+      Assert.assertEquals("outro", cache.get(a).getContent());
+      Assert.assertEquals(2, cache.getMissCount());
+      Assert.assertEquals("dois", cache.get(b).getContent());
+      Assert.assertEquals(2, cache.size());
+      Assert.assertTrue(cache.getWeight() > 0);
+      cache.invalidate(b);
+      Assert.assertEquals(1, cache.size());
+      Thread[] threads = new Thread[8];
+      final XmlNode[] nodes = new XmlNode[threads.length];
+      final Path c = b;
+      for (int n = 0; n < threads.length; n++) {
+        final int index = n;
+        threads[n] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              nodes[index] = cache.get(c);
+            }
+            catch (Exception e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        };
+        threads[n].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (XmlNode each : nodes) {
+        Assert.assertSame(nodes[0], each);
+      }
+      Assert.assertEquals(4, cache.getMissCount());
+      XmlNodeCache small = new XmlNodeCache(200);
+      small.get(a);
+      small.get(b);
+      Assert.assertEquals(1, small.size());
+      Assert.assertEquals(1, small.getEvictionCount());
+      Assert.assertTrue(small.getWeight() <= 200);
+      Files.write(a, bytes("<a>"));
+      try {
+        cache.get(a);
+        Assert.fail("arquivo inválido");
+      }
+      catch (ParseException e) {
+      }
+      Assert.assertEquals(1, cache.size());
+    }
+    finally {
+      Files.delete(a);
+      Files.delete(b);
+    }
+  }
+
+  @Test
+  public void parser() throws IOException, ParseException {
+    Path secret = Files.createTempFile("segredo", ".txt");
+    try {
+      Files.write(secret, bytes("segredo"));
+      String text =
+        "<!DOCTYPE r [<!ENTITY e SYSTEM \"" + secret.toUri() + "\">]>"
+          + "<r>a&e;b</r>";
+      XmlNode root = new XmlNode(new ByteArrayInputStream(bytes(text)));
+      Assert.assertEquals("ab", root.getContent());
+      XmlParser parser = new XmlParser().setNamespaceAware(true);
+      for (int n = 0; n < 3; n++) {
+        XmlNode node =
+          parser.parse(new ByteArrayInputStream(bytes("<x:r xmlns:x=\"u\" "
+            + "a=\"ação\"><i/></x:r>")));
+        Assert.assertEquals("x:r", node.getName());
+        Assert.assertEquals("ação", node.getAttribute("a"));
+        Assert.assertEquals(1, node.getNodeCount());
+      }
+      String dtd =
+        "<!DOCTYPE r SYSTEM \"http://localhost:1/nada.dtd\"><r>ok</r>";
+      Assert.assertEquals("ok", parser.parse(
+        new ByteArrayInputStream(bytes(dtd))).getContent());
+      try {
+        parser.parse(new ByteArrayInputStream(bytes("<r>")));
+        Assert.fail("incompleto");
+      }
+      catch (ParseException e) {
+      }
+      Assert.assertEquals("r", parser.parse(
+        new ByteArrayInputStream(bytes("<r/>"))).getName());
+      try {
+        XmlParser.getDefault().setValidating(true);
+        Assert.fail("padrão");
+      }
+      catch (UnsupportedOperationException e) {
+      }
+    }
+    finally {
+      Files.delete(secret);
+    }
+  }
+
+  @Test
+  public void spill() throws IOException, ParseException {
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < 5000; n++) {
+      sb.append("linha ").append(n).append(" ação\n");
+    }
+    String big = sb.toString().trim();
+    String text =
+      "<r><blob>\n  " + big + "\n  </blob><p>pequeno</p><m>" + big
+        + "<i/>fim</m></r>";
+    XmlNode root =
+      new XmlParser().setSpillThreshold(1000).parse(
+        new ByteArrayInputStream(bytes(text)));
+    XmlNode blob = root.getNodeByTagName("blob");
+    Assert.assertNotNull(blob.getContentSource());
+    Assert.assertEquals(big, blob.getContent());
+    Assert.assertNull(root.getNodeByTagName("p").getContentSource());
+    Assert.assertEquals("pequeno", root.getNodeByTagName("p").getContent());
+    XmlNode mixed = root.getNodeByTagName("m");
+    Assert.assertNull(mixed.getContentSource());
+    Assert.assertEquals(big, mixed.getText(0));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    blob.write(output);
+    Assert.assertEquals("<blob>" + big + "</blob>", new String(output
+      .toByteArray(), "utf-8"));
+    Assert.assertEquals(big, blob.freeze().getContent());
+  }
+
+  @Test
+  public void spillMixed() throws IOException, ParseException {
+    String words = "abc abc abc abc abc abc ação ";
+    String blank = "                                        ";
+    String[] texts =
+      { "<r>\n   " + words + "<b>x</b> tail</r>",
+          "<r>" + blank + "<b/>" + blank + words + blank + "</r>",
+          "<r><a>" + blank + "</a><a>\n " + words + words + "\n </a></r>",
+          "<r><a>" + blank + "\n" + words + "</a>" + words + "</r>" };
+    for (String text : texts) {
+      XmlNode expected =
+        new XmlParser().parse(new ByteArrayInputStream(bytes(text)));
+      XmlNode spilled =
+        new XmlParser().setSpillThreshold(16).parse(
+          new ByteArrayInputStream(bytes(text)));
+      Assert.assertEquals(text, expected.toString(), spilled.toString());
+      Assert.assertEquals(text, expected, spilled);
+      assertTexts(text, expected, spilled);
+    }
+  }
+
+  /**
+   * Confere os textos de cada tag, com os espaços
+   * 
+   * @param message
+   * @param expected
+   * @param actual
+   */
+  private static void assertTexts(String message, XmlNode expected,
+    XmlNode actual) {
+    Assert.assertEquals(message, expected.getContent(), actual.getContent());
+    int size = expected.getNodeCount();
+    Assert.assertEquals(message, size, actual.getNodeCount());
+    for (int n = 0; n <= size; n++) {
+      if (size > 0) {
+        Assert.assertEquals(message, expected.getText(n), actual.getText(n));
+      }
+      if (n < size) {
+        assertTexts(message, expected.getNodes().get(n), actual.getNodes()
+          .get(n));
+      }
+    }
+  }
+
+  @Test
+  public void spillCleanup() throws IOException, ParseException {
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < 5000; n++) {
+      sb.append("linha ").append(n).append('\n');
+    }
+    String big = sb.toString().trim();
+    Path directory = Files.createTempDirectory("spill");
+    try {
+      XmlParser parser =
+        new XmlParser().setSpillThreshold(1000).setSpillDirectory(directory);
+      XmlNode root =
+        parser.parse(new ByteArrayInputStream(bytes("<r><a>" + big
+          + "</a></r>")));
+      Assert.assertEquals(1, count(directory));
+      XmlContentSource source = root.getNodeByTagName("a").getContentSource();
+      Assert.assertEquals(big, source.getText());
+      source.close();
+      Assert.assertEquals(0, count(directory));
+      try {
+        parser.parse(new ByteArrayInputStream(bytes("<r><a>" + big
+          + "</a><b>" + big + "</c></r>")));
+        Assert.fail("malformado");
+      }
+      catch (ParseException e) {
+      }
+      Assert.assertEquals(0, count(directory));
+    }
+    finally {
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * @param directory
+   * @return quantidade de arquivos do diretório
+   * @throws IOException
+   */
+  private static int count(Path directory) throws IOException {
+    String[] files = directory.toFile().list();
+    if (files == null) {
+      throw new IOException(directory.toString());
+    }
+    return files.length;
+  }
+
+  @Test
+  public void deepBuild() throws IOException, ParseException {
+    int depth = 16000;
+    byte[] bytes = deep(depth);
+    XmlNode[] roots =
+      { XmlNode.parse(bytes),
+          new XmlParser().parse(new ByteArrayInputStream(bytes)),
+          XmlNode.parseLazy(bytes) };
+    for (XmlNode root : roots) {
+      XmlNode node = root;
+      for (int n = 1; n < depth; n++) {
+        Assert.assertEquals("t", node.getText(0));
+        node = node.getNodes().get(0);
+      }
+      Assert.assertEquals("1", node.getAttribute("x"));
+      Assert.assertEquals(0, node.getNodeCount());
+      Assert.assertEquals(new String(bytes, "utf-8"), root.toString());
+      Assert.assertEquals(depth, root.getContent().length());
+      Assert.assertEquals(depth, new XmlIndex(root).getNodesByTagName("a")
+        .size());
+      Assert.assertEquals(roots[0], root);
+      Assert.assertEquals(root, root.freeze());
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      root.writeBinary(output);
+      Assert.assertEquals(root, XmlNode.readBinary(new ByteArrayInputStream(
+        output.toByteArray())));
+    }
+    XmlElement element = XmlDocument.parse(bytes).getRoot();
+    Assert.assertEquals(new String(bytes, "utf-8"), element.toString());
+    Assert.assertEquals(roots[0], element.toXmlNode());
+    Assert.assertEquals(depth, element.toXmlNode().getContent().length());
+  }
+
+  @Test
+  public void deepEquals() throws IOException, ParseException {
+    int depth = 16000;
+    byte[] bytes = deep(depth);
+    XmlNode first = XmlNode.parse(bytes);
+    XmlNode second = new XmlParser().parse(new ByteArrayInputStream(bytes));
+    Assert.assertEquals(first.hashCode(), second.hashCode());
+    Assert.assertTrue(first.equals(second));
+    XmlNode node = second;
+    for (int n = 1; n < depth; n++) {
+      node = node.getNodes().get(0);
+    }
+    node.setContent("u");
+    Assert.assertFalse(first.equals(second));
+    Assert.assertFalse(first.hashCode() == second.hashCode());
+    XmlNode built = new XmlNode("r").addNode(new XmlNode("a").setContent("x"));
+    Assert.assertEquals(XmlNode.parse(bytes("<r>\n  <a> x </a>\n</r>")),
+      built);
+    Assert.assertFalse(XmlNode.parse(bytes("<r>y<a>x</a></r>")).equals(built));
+  }
+
+  @Test
+  public void deepFreeze() throws IOException, ParseException {
+    int depth = 16000;
+    XmlNode root = XmlNode.parse(deep(depth));
+    XmlNode frozen = root.freeze();
+    Assert.assertEquals(root, frozen);
+    Assert.assertEquals(root.getContent(), frozen.getContent());
+    Assert.assertEquals(depth - 1, frozen.getNodes().get(0).getContent()
+      .length());
+    XmlNode node = frozen;
+    for (int n = 1; n < depth; n++) {
+      node = node.getNodes().get(0);
+    }
+    Assert.assertEquals("t", node.getContent());
+    Path path = Files.createTempFile("deep", ".xml");
+    try {
+      Files.write(path, deep(2000));
+      XmlNodeCache cache = new XmlNodeCache(1 << 30);
+      cache.get(path);
+      Assert.assertTrue("peso: " + cache.getWeight(),
+        cache.getWeight() < 2000 * 400);
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * @param depth
+   * @return documento com uma tag dentro da outra, cada uma com um texto
+   */
+  static byte[] deep(int depth) {
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < depth; n++) {
+      sb.append("<a x=\"1\">t");
+    }
+    for (int n = 0; n < depth; n++) {
+      sb.append("</a>");
+    }
+    return bytes(sb.toString());
+  }
+
+  @Test
+  public void malformed() {
+    String[] inputs =
+      { "", "<a>", "<a></b>", "<a><b></a></b>", "<a>&foo;</a>", "<a/>x",
+          "<a/><b/>", "<a x=1/>", "<a x=\"1/>", "<!-- a", "<a><![CDATA[</a>" };
+    for (String input : inputs) {
+      try {
+        XmlNode.parse(bytes(input));
+        Assert.fail(input);
+      }
+      catch (ParseException e) {
+      }
+    }
+  }
+
+  /**
+   * @param text
+   * @return bytes em UTF-8
+   */
+  static byte[] bytes(String text) {
+    try {
+      return text.getBytes("utf-8");
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param resource
+   * @return bytes do recurso
+   * @throws IOException
+   */
+  static byte[] read(String resource) throws IOException {
+    InputStream input = ParseXmlTest.class.getResourceAsStream(resource);
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; (n = input.read(buffer)) != -1;) {
+        output.write(buffer, 0, n);
+      }
+      return output.toByteArray();
+    }
+    finally {
+      input.close();
+    }
+  }
+
+}
@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.breder.xml.XmlDocument;
+import org.breder.xml.XmlElement;
+import org.breder.xml.XmlIndex;
+import org.breder.xml.XmlNode;
+import org.breder.xml.XmlSelector;
+import org.breder.xml.XmlSnapshot;
+import org.breder.xml.XmlSnapshotElement;
+import org.breder.xml.XmlSymbolTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryXmlTest {
+
+  /** Documento das consultas */
+  private static final String DOCUMENT = "<html><body>"
+    + "<div id=\"a\" class=\"x\"><p>um</p><p id=\"b\">dois</p></div>"
+    + "<div id=\"c\"><span class=\"x y\">três</span><p>quatro</p></div>"
+    + "</body></html>";
+
+  @Test
+  public void index() throws ParseException {
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    XmlIndex index = new XmlIndex(root);
+    List<XmlNode> paragraphs = index.getNodesByTagName("p");
+    Assert.assertEquals(3, paragraphs.size());
+    Assert.assertEquals("um", paragraphs.get(0).getContent());
+    Assert.assertEquals("quatro", paragraphs.get(2).getContent());
+    Assert.assertEquals("dois", index.getNodeByAttributeValue("id", "b")
+      .getContent());
+    Assert.assertEquals(3, index.getNodesByAttributeKey("id").size());
+    Assert.assertNull(index.getNodeByAttributeValue("id", "z"));
+    XmlNode c = index.getNodeByAttributeValue("id", "c");
+    c.addNode(new XmlNode("p").setAttribute("id", "z"));
+    Assert.assertEquals(4, index.getNodesByTagName("p").size());
+    Assert.assertSame(c.getNodes().get(2), index.getNodeByAttributeValue(
+      "id", "z"));
+    c.setAttribute("id", "d");
+    Assert.assertNull(index.getNodeByAttributeValue("id", "c"));
+    Assert.assertSame(c, index.getNodeByAttributeValue("id", "d"));
+    c.addHtmlClass("w");
+    Assert.assertSame(c, index.getNodeByAttributeValue("class", "w"));
+    c.setAttribute("class", null);
+    Assert.assertEquals(2, index.getNodesByAttributeKey("class").size());
+    c.setName("section");
+    Assert.assertEquals(1, index.getNodesByTagName("div").size());
+    Assert.assertSame(c, index.getNodeByTagName("section"));
+    index.dispose();
+    c.setName("div");
+    Assert.assertTrue(index.getNodesByTagName("div").isEmpty());
+  }
+
+  @Test
+  public void indexMove() throws ParseException {
+    XmlNode first = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    XmlNode second = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    XmlIndex a = new XmlIndex(first);
+    XmlIndex b = new XmlIndex(second);
+    XmlNode div = a.getNodeByAttributeValue("id", "a");
+    second.addNode(div);
+    Assert.assertNull(a.getNodeByAttributeValue("id", "a"));
+    Assert.assertNull(a.getNodeByAttributeValue("id", "b"));
+    Assert.assertEquals(1, a.getNodesByTagName("p").size());
+    Assert.assertEquals(1, a.getNodesByAttributeKey("class").size());
+    Assert.assertEquals(2, b.getNodesByAttributeValue("id", "a").size());
+    Assert.assertEquals(5, b.getNodesByTagName("p").size());
+    div.setAttribute("id", "e");
+    Assert.assertNull(a.getNodeByAttributeValue("id", "e"));
+    Assert.assertSame(div, b.getNodeByAttributeValue("id", "e"));
+    XmlNode span = b.getNodeByTagName("span");
+    new XmlNode("r").addNode(span);
+    Assert.assertNull(b.getNodeByTagName("span"));
+    span.setName("em");
+    Assert.assertNull(b.getNodeByTagName("em"));
+  }
+
+  @Test
+  public void find() throws ParseException {
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    Assert.assertEquals(3, root.findNodesByTagName("p").size());
+    Assert.assertEquals("dois", root.findNodeByAttributeValue("id", "b")
+      .getContent());
+    Assert.assertEquals(3, root.findNodesByAttributeKey("id").size());
+    Assert.assertEquals(2, root.findNodesByAttributeContainValue("class", "x")
+      .size());
+    Assert.assertEquals("três", root.findNodeByAttributeMatchValue("class",
+      "x\\s+y").getContent());
+    Assert.assertNull(root.findNodeByTagName("html"));
+    Assert.assertNull(root.findNodeByAttributeKey("style"));
+  }
+
+  @Test
+  public void findParallel() {
+    XmlNode root = new XmlNode("r");
+    int count = 0;
+    for (int i = 0; i < 100; i++) {
+      XmlNode group = new XmlNode("g");
+      for (int j = 0; j < 100; j++) {
+        group.addNode(new XmlNode("i").setAttribute("n", String
+          .valueOf(count++)));
+      }
+      root.addNode(group);
+    }
+    List<XmlNode> list = root.findNodesByTagName("i");
+    Assert.assertEquals(count, list.size());
+    for (int n = 0; n < count; n++) {
+      Assert.assertEquals(String.valueOf(n), list.get(n).getAttribute("n"));
+    }
+    Assert.assertEquals("99", root.findNodeByAttributeContainValue("n", "99")
+      .getAttribute("n"));
+    Assert.assertEquals("500", root.findNodeByAttributeValue("n", "500")
+      .getAttribute("n"));
+  }
+
+  @Test
+  public void findParallelNested() {
+    final CountDownLatch worker = new CountDownLatch(1);
+    final AtomicBoolean waited = new AtomicBoolean();
+    XmlNode list = new XmlNode("ul");
+    for (int n = 0; n < 20000; n++) {
+      final int index = n;
+      list.addNode(new XmlNode("li") {
+        @Override
+        public String getName() {
+          if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+            worker.countDown();
+          }
+          else if (index == 1500 && waited.compareAndSet(false, true)) {
+            try {
+              worker.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          return super.getName();
+        }
+      }.setAttribute("n", String.valueOf(n)));
+    }
+    XmlNode root =
+      new XmlNode("html").addNode(new XmlNode("body").addNode(list));
+    List<XmlNode> found = root.findNodesByTagName("li");
+    Assert.assertEquals("busca sequencial", 0L, worker.getCount());
+    Assert.assertEquals(20000, found.size());
+    Assert.assertEquals("19999", found.get(19999).getAttribute("n"));
+    found = root.findNodesByAttributeMatchValue("n", "\\d*7");
+    Assert.assertEquals(2000, found.size());
+    Assert.assertEquals("19997", found.get(1999).getAttribute("n"));
+    Assert.assertEquals("15", root.findNodeByAttributeValue("n", "15")
+      .getAttribute("n"));
+  }
+
+  @Test
+  public void findFirstStops() {
+    final AtomicInteger visits = new AtomicInteger();
+    final CountDownLatch found = new CountDownLatch(1);
+    final AtomicBoolean waited = new AtomicBoolean();
+    XmlNode list = new XmlNode("ul");
+    for (int n = 0; n < 100000; n++) {
+      final int index = n;
+      list.addNode(new XmlNode("li") {
+        @Override
+        public String getAttribute(String key) {
+          visits.incrementAndGet();
+          if (index == 2000) {
+            found.countDown();
+          }
+          else if (index >= 50000 && waited.compareAndSet(false, true)) {
+            try {
+              found.await(5, TimeUnit.SECONDS);
+              Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          return super.getAttribute(key);
+        }
+      }.setAttribute("n", String.valueOf(n)));
+    }
+    XmlNode root =
+      new XmlNode("html").addNode(new XmlNode("body").addNode(list));
+    visits.set(0);
+    XmlNode node = root.findNodeByAttributeValue("n", "2000");
+    Assert.assertTrue("visitas: " + visits.get(), visits.get() < 50000);
+    Assert.assertSame(list.getNodes().get(2000), node);
+    Assert.assertEquals(100000, root.findNodesByAttributeKey("n").size());
+  }
+
+  @Test
+  public void findDeep() {
+    int depth = 16000;
+    XmlNode root = new XmlNode("a");
+    XmlNode node = root;
+    for (int n = 1; n < depth; n++) {
+      XmlNode child = new XmlNode(n % 2 == 0 ? "a" : "b");
+      node.addNode(child.setAttribute("n", String.valueOf(n)));
+      node = child;
+    }
+    Assert.assertEquals(depth / 2 - 1, root.findNodesByTagName("a").size());
+    Assert.assertEquals(depth - 1, root.findNodesByAttributeKey("n").size());
+    Assert.assertSame(node, root.findNodeByAttributeValue("n", String
+      .valueOf(depth - 1)));
+    Assert.assertEquals("1", root.findNodeByTagName("b").getAttribute("n"));
+  }
+
+  @Test
+  public void select() throws ParseException {
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    Assert.assertEquals("[um, dois, quatro]", contents(root.select("p")));
+    Assert.assertEquals("[um, dois]", contents(root.select("div#a > p")));
+    Assert.assertEquals("[dois]", contents(root.select("html div p[id]")));
+    Assert.assertEquals("[]", contents(root.select("body > p")));
+    Assert.assertEquals("[três]", contents(root.select(".y")));
+    Assert.assertEquals("[três]", contents(root.select("div > span.x")));
+    Assert.assertEquals("[umdois, três]", contents(root
+      .select("*[class~=x]")));
+    Assert.assertEquals("[trêsquatro]", contents(root.select("[id^=c]")));
+    Assert.assertEquals("[dois]", contents(root.select("//p[@id='b']")));
+    Assert.assertEquals("[um, dois]", contents(root
+      .select("/html/body/div[@class]/p")));
+    Assert.assertEquals("[três]", contents(root.select("/html//div//span")));
+    Assert.assertNull(root.selectFirst("/body"));
+    Assert.assertSame(root, root.selectFirst("/html"));
+    Assert.assertSame(XmlSelector.compile("//p"), XmlSelector.compile("//p"));
+    try {
+      XmlSelector.compile("div[");
+      Assert.fail("div[");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void selectSymbols() throws ParseException {
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    XmlSelector.compile("p#id0.c0 [k=v0]");
+    XmlSelector.compile("//p[@k=v0]");
+    int size = XmlSymbolTable.getDefault().size();
+    for (int n = 1; n <= 100; n++) {
+      XmlSelector.compile("p#id" + n + ".c" + n + " [k=v" + n + "]");
+      XmlSelector.compile("//p[@k=v" + n + "]");
+    }
+    Assert.assertEquals(size, XmlSymbolTable.getDefault().size());
+    Assert.assertEquals("[dois]", contents(root.select("#b")));
+    Assert.assertEquals("[dois]", contents(root.select("//p[@id=b]")));
+  }
+
+  /**
+   * @param nodes
+   * @return conteúdos das tags
+   */
+  private static String contents(Iterable<XmlNode> nodes) {
+    List<String> list = new ArrayList<String>();
+    for (XmlNode node : nodes) {
+      list.add(node.getContent());
+    }
+    return list.toString();
+  }
+
+  @Test
+  public void pattern() throws ParseException {
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    XmlNode body = root.getNodeByTagName("body");
+    Pattern pattern = Pattern.compile("[ac]");
+    Assert.assertEquals(2, body.getNodesByAttributeMatchValue("id", pattern)
+      .size());
+    Assert.assertEquals(2, body.getNodesByAttributeMatchValue("id", "[ac]")
+      .size());
+    Assert.assertEquals("c", body.getNodeByAttributeMatchValue("id", "c|d")
+      .getAttribute("id"));
+    Assert.assertEquals(2, root.findNodesByAttributeMatchValue("id",
+      Pattern.compile("[bc]")).size());
+    XmlElement element =
+      XmlDocument.parse(ParseXmlTest.bytes(DOCUMENT)).getRoot()
+        .getNodeByTagName("body");
+    Assert.assertEquals("a", element.getNodeByAttributeMatchValue("id",
+      pattern).getAttribute("id"));
+    Assert.assertEquals(1, element.getNodesByAttributeMatchValue("id", "c")
+      .size());
+  }
+
+  @Test
+  public void addNodes() {
+    XmlNode root = new XmlNode("r");
+    XmlNode a = new XmlNode("a");
+    root.addNodes(Arrays.asList(a, new XmlNode("b")));
+    Assert.assertSame(root, a.getParent());
+    Assert.assertEquals(2, root.getNodeCount());
+  }
+
+  @Test
+  public void snapshot() throws IOException, ParseException {
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(DOCUMENT));
+    Path path = Files.createTempFile("snapshot", ".xmls");
+    try {
+      XmlSnapshot.write(root, path);
+      XmlSnapshot snapshot = XmlSnapshot.open(path);
+      XmlSnapshotElement body = snapshot.getRoot().getNodeByTagName("body");
+      Assert.assertEquals("body", body.getName());
+      Assert.assertEquals(2, body.getNodesByTagName("div").size());
+      XmlSnapshotElement c = body.getNodeByAttributeValue("id", "c");
+      Assert.assertEquals("c", c.getAttribute("id"));
+      Assert.assertNull(c.getAttribute("class"));
+      Assert.assertEquals("três", c.getNodeByTagName("span").getContent());
+      Assert.assertEquals("x y", c.getNodes().get(0).getAttributes().get(
+        "class"));
+      Assert.assertEquals("trêsquatro", c.getContent());
+      Assert.assertNull(body.getNodeByAttributeValue("id", "z"));
+      Assert.assertNull(body.getNodeByTagName("nada"));
+      Assert.assertEquals(1, body.getNodesByAttributeValue("class", "x")
+        .size());
+      XmlNode node = c.toXmlNode();
+      Assert.assertNull(node.getParent());
+      Assert.assertEquals(root.getNodeByTagName("body")
+        .getNodeByAttributeValue("id", "c").toString(), node.toString());
+      Assert.assertEquals(root.toString(), snapshot.getRoot().toString());
+      Files.write(path, ParseXmlTest.bytes(DOCUMENT));
+      try {
+        XmlSnapshot.open(path);
+        Assert.fail("formato inválido");
+      }
+      catch (ParseException e) {
+      }
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.breder.xml.XmlNode;
+import org.breder.xml.XmlPathListener;
+import org.breder.xml.XmlPathReader;
+import org.breder.xml.XmlReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamXmlTest {
+
+  @Test
+  public void cursor() throws IOException, ParseException {
+    XmlReader reader =
+      new XmlReader(new SlowInputStream(ParseXmlTest
+        .bytes("<?xml version=\"1.0\"?><root><!-- x --><item id=\"1\" "
+          + "ok=\"true\"/><item id=\"ação\">texto &amp; mais</item></root>")));
+    Assert.assertEquals(XmlReader.START_ELEMENT, reader.next());
+    Assert.assertTrue(reader.isName("root"));
+    Assert.assertEquals(XmlReader.START_ELEMENT, reader.next());
+    Assert.assertEquals("item", reader.getName());
+    Assert.assertEquals(2, reader.getAttributeCount());
+    Assert.assertEquals("ok", reader.getAttributeName(1));
+    Assert.assertEquals(Integer.valueOf(1), reader.getAttribute("id", 0));
+    Assert.assertEquals(Boolean.TRUE, reader.getAttribute("ok", false));
+    Assert.assertEquals(Integer.valueOf(7), reader.getAttribute("x", 7));
+    Assert.assertEquals(XmlReader.END_ELEMENT, reader.next());
+    Assert.assertEquals(XmlReader.START_ELEMENT, reader.next());
+    Assert.assertEquals("ação", reader.getAttribute(0));
+    Assert.assertEquals(XmlReader.TEXT, reader.next());
+    Assert.assertEquals("texto & mais", reader.getText());
+    Assert.assertEquals(XmlReader.END_ELEMENT, reader.next());
+    Assert.assertEquals(XmlReader.END_ELEMENT, reader.next());
+    Assert.assertEquals(XmlReader.END_DOCUMENT, reader.next());
+    Assert.assertFalse(reader.hasNext());
+  }
+
+  @Test
+  public void skipElement() throws IOException, ParseException {
+    StringBuilder sb = new StringBuilder("<root>");
+    for (int n = 0; n < 1000; n++) {
+      sb.append("<skip><a>").append(n).append("</a><b/></skip>");
+    }
+    char[] big = new char[20000];
+    java.util.Arrays.fill(big, 'x');
+    sb.append("<big>").append(big).append("</big></root>");
+    XmlReader reader =
+      new XmlReader(new SlowInputStream(ParseXmlTest.bytes(sb.toString())));
+    reader.next();
+    int skipped = 0;
+    while (reader.next() == XmlReader.START_ELEMENT && reader.isName("skip")) {
+      reader.skipElement();
+      Assert.assertTrue(reader.isName("skip"));
+      skipped++;
+    }
+    Assert.assertEquals(1000, skipped);
+    Assert.assertTrue(reader.isName("big"));
+    Assert.assertEquals(XmlReader.TEXT, reader.next());
+    Assert.assertEquals(new String(big), reader.getText());
+    reader.close();
+  }
+
+  @Test
+  public void paths() throws IOException, ParseException {
+    StringBuilder sb = new StringBuilder("<html><head><tr>x</tr></head><body>");
+    for (int n = 0; n < 3; n++) {
+      sb.append("<table width=\"").append(n).append("\"><tr><td>").append(n)
+        .append("</td></tr><tr><td>b</td></tr></table>");
+    }
+    sb.append("<p>fim</p></body></html>");
+    final List<XmlNode> paragraphs = new ArrayList<XmlNode>();
+    XmlPathReader reader =
+      new XmlPathReader(new SlowInputStream(ParseXmlTest.bytes(sb.toString())));
+    reader.addPath("html/body/table/tr");
+    reader.addPath("/html/*/p", new XmlPathListener() {
+      @Override
+      public void nodeRead(String path, XmlNode node) {
+        paragraphs.add(node);
+      }
+    });
+    List<String> cells = new ArrayList<String>();
+    for (XmlNode node : reader) {
+      if (node.getName().equals("tr")) {
+        cells.add(node.getNodeByTagName("td").getContent());
+      }
+    }
+    Assert.assertEquals(Arrays.asList("0", "b", "1", "b", "2", "b"), cells);
+    Assert.assertEquals(1, paragraphs.size());
+    Assert.assertEquals("fim", paragraphs.get(0).getContent());
+    Assert.assertNull(paragraphs.get(0).getParent());
+  }
+
+  /**
+   * Stream que entrega poucos bytes por leitura
+   */
+  static class SlowInputStream extends ByteArrayInputStream {
+
+    /**
+     * @param bytes
+     */
+    public SlowInputStream(byte[] bytes) {
+      super(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 1 + this.pos % 7));
+    }
+
+  }
+
+}
@@ -0,0 +1,407 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.breder.xml.Utf8Reader;
+import org.breder.xml.Utf8Writer;
+import org.breder.xml.XmlContentSource;
+import org.breder.xml.XmlNode;
+import org.breder.xml.XmlWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteXmlTest {
+
+  @Test
+  public void bytes() throws IOException, ParseException {
+    XmlNode root = new XmlNode("r").setAttribute("a", "ação 😀");
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < 5000; n++) {
+      root.addNode(new XmlNode("i").setContent("item " + n + " é"));
+      sb.append("<i>item ").append(n).append(" é</i>");
+    }
+    String expected = "<r a=\"ação 😀\">" + sb + "</r>";
+    byte[] bytes = root.getBytes();
+    Assert.assertEquals(expected, new String(bytes, "utf-8"));
+    CountingOutputStream output = new CountingOutputStream();
+    root.write(output);
+    Assert.assertEquals(expected, new String(output.toByteArray(), "utf-8"));
+    Assert.assertTrue(output.writes < bytes.length / 1024);
+    Assert.assertEquals(expected, XmlNode.parse(bytes).toString());
+  }
+
+  @Test
+  public void deep() throws IOException {
+    XmlNode root = new XmlNode("n");
+    XmlNode node = root;
+    for (int n = 0; n < 2000; n++) {
+      XmlNode child = new XmlNode("n").setAttribute("i", String.valueOf(n));
+      node.addNode(child);
+      node = child;
+    }
+    node.setContent("fim");
+    String text = root.toString();
+    Assert.assertTrue(text.startsWith("<n><n i=\"0\"><n i=\"1\">"));
+    Assert.assertTrue(text.contains("<n i=\"1999\">fim</n></n>"));
+    StringWriter writer = new StringWriter();
+    root.writeTo(writer);
+    Assert.assertEquals(text, writer.toString());
+    Assert.assertEquals(text, new String(root.getBytes(), "utf-8"));
+  }
+
+  @Test
+  public void byteCache() throws IOException, ParseException {
+    XmlNode root =
+      XmlNode.parse(ParseXmlTest.bytes("<r><a x=\"1\">um</a><b>dois</b></r>"));
+    root.setByteCache(true);
+    byte[] first = root.getBytes();
+    Assert.assertEquals("<r><a x=\"1\">um</a><b>dois</b></r>", new String(
+      first, "utf-8"));
+    Assert.assertArrayEquals(first, root.getBytes());
+    XmlNode a = root.getNodeByTagName("a");
+    a.setAttribute("x", "2");
+    Assert.assertEquals("<r><a x=\"2\">um</a><b>dois</b></r>", new String(root
+      .getBytes(), "utf-8"));
+    root.getNodeByTagName("b").setContent("três");
+    root.addNode(new XmlNode("c").addHtmlClass("k"));
+    a.setName("d");
+    String expected = "<r><d x=\"2\">um</d><b>três</b><c class=\"k\"></c></r>";
+    Assert.assertEquals(expected, new String(root.getBytes(), "utf-8"));
+    Assert.assertTrue(root.getNodeByTagName("c").isByteCache());
+    CountingOutputStream output = new CountingOutputStream();
+    root.write(output);
+    Assert.assertEquals(expected, new String(output.toByteArray(), "utf-8"));
+    Assert.assertEquals(expected, root.toString());
+    root.setByteCache(false);
+    a.setContent("fora");
+    Assert.assertFalse(a.isByteCache());
+    Assert.assertEquals("<d x=\"2\">fora</d>", new String(a.getBytes(),
+      "utf-8"));
+    root.setByteCache(true);
+    root.getBytes();
+    a.setByteCache(false);
+    Assert.assertFalse(root.isByteCache());
+    Assert.assertTrue(root.getNodeByTagName("b").isByteCache());
+    a.setContent("sem guarda");
+    Assert.assertTrue(new String(root.getBytes(), "utf-8").contains(
+      "<d x=\"2\">sem guarda</d>"));
+  }
+
+  @Test
+  public void binary() throws IOException, ParseException {
+    String text =
+      "<r a=\"ação 😀\" b=\"\"><i n=\"1\">um</i>antes<i n=\"2\"/> meio "
+        + "<j><k>três</k></j>fim<v></v></r>";
+    XmlNode root = XmlNode.parse(ParseXmlTest.bytes(text));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    root.writeBinary(output);
+    XmlNode copy =
+      XmlNode.readBinary(new ByteArrayInputStream(output.toByteArray()));
+    Assert.assertEquals(root.toString(), copy.toString());
+    Assert.assertEquals(root.getContent(), copy.getContent());
+    Assert.assertEquals(root.getTextContent(), copy.getTextContent());
+    Assert.assertEquals(root.getText(), copy.getText());
+    Assert.assertEquals(" meio ", copy.getText(2));
+    Assert.assertEquals("ação 😀", copy.getAttribute("a"));
+    Assert.assertEquals(4, copy.getNodeCount());
+    Assert.assertSame(copy, copy.getNodes().get(2).getParent());
+    Assert.assertEquals("três", copy.findNodeByTagName("k").getContent());
+    Assert.assertNull(copy.getNodeByTagName("v").getContent());
+  }
+
+  @Test
+  public void binaryLarge() throws IOException, ParseException {
+    XmlNode root = new XmlNode("r");
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < 20000; n++) {
+      sb.append("é");
+    }
+    root.addNode(new XmlNode("t").setContent(sb.toString()));
+    for (int n = 0; n < 3000; n++) {
+      root.addNode(new XmlNode("i").setAttribute("n", String.valueOf(n))
+        .setContent("item " + n));
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    root.writeBinary(output);
+    byte[] binary = output.toByteArray();
+    Assert.assertTrue(binary.length < root.getBytes().length);
+    XmlNode copy = XmlNode.readBinary(new ByteArrayInputStream(binary));
+    Assert.assertEquals(root.toString(), copy.toString());
+    try {
+      XmlNode.readBinary(new ByteArrayInputStream(root.getBytes()));
+      Assert.fail("formato inválido");
+    }
+    catch (ParseException e) {
+    }
+    try {
+      XmlNode.readBinary(new ByteArrayInputStream(binary, 0,
+        binary.length / 2));
+      Assert.fail("arquivo incompleto");
+    }
+    catch (EOFException e) {
+    }
+  }
+
+  @Test
+  public void deepWrite() throws IOException, ParseException {
+    byte[] bytes = ParseXmlTest.deep(16000);
+    String text = new String(bytes, "utf-8");
+    XmlNode root = XmlNode.parse(bytes);
+    Assert.assertEquals(text, root.toString());
+    Assert.assertTrue(Arrays.equals(bytes, root.getBytes()));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    root.write(output);
+    Assert.assertTrue(Arrays.equals(bytes, output.toByteArray()));
+    bytes = ParseXmlTest.deep(2000);
+    root = XmlNode.parse(bytes).setByteCache(true);
+    Assert.assertTrue(Arrays.equals(bytes, root.getBytes()));
+    XmlNode node = root;
+    for (int n = 1; n < 2000; n++) {
+      node = node.getNodes().get(0);
+    }
+    node.setContent("u");
+    Assert.assertTrue(new String(root.getBytes(), "utf-8").contains(
+      "t<a x=\"1\">u</a></a>"));
+    Assert.assertEquals(root.toString(), new String(root.getBytes(), "utf-8"));
+  }
+
+  @Test
+  public void binaryDeep() throws IOException, ParseException {
+    int depth = 16000;
+    XmlNode root = XmlNode.parse(ParseXmlTest.deep(depth));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    root.writeBinary(output);
+    XmlNode copy =
+      XmlNode.readBinary(new ByteArrayInputStream(output.toByteArray()));
+    Assert.assertEquals(root, copy);
+    XmlNode node = copy;
+    for (int n = 1; n < depth; n++) {
+      node = node.getNodes().get(0);
+    }
+    Assert.assertEquals("1", node.getAttribute("x"));
+    Assert.assertEquals("t", node.getContent());
+  }
+
+  @Test
+  public void binaryCorrupt() throws IOException, ParseException {
+    int[] chain = new int[3 + 4 * 200000];
+    chain[1] = 3;
+    for (int n = 3; n < chain.length; n += 4) {
+      chain[n] = 1;
+      chain[n + 2] = 3;
+    }
+    int[][] bodies = {
+        { 0, 1, 0xF0, 0xFF, 0xFF, 0xFF, 0x07, 'x' },
+        { 0x80, 0x80, 0x80, 0x80, 0x04, 0, 2, 'a', 2, 'v' },
+        { 0, 0x82, 0x80, 0x80, 0x80, 0x04, 2, 'y' },
+        { 0, 0x80, 0x80, 0x80, 0x80, 0x1F }, chain };
+    for (int[] body : bodies) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      output.write(new byte[] { 'X', 'M', 'L', 'B', 1, 0, 2, 'r' });
+      for (int b : body) {
+        output.write(b);
+      }
+      try {
+        XmlNode.readBinary(new ByteArrayInputStream(output.toByteArray()));
+        Assert.fail("arquivo corrompido");
+      }
+      catch (IOException e) {
+      }
+    }
+  }
+
+  @Test
+  public void writer() throws IOException, ParseException {
+    XmlNode node = new XmlNode("p").setContent("pronto");
+    CountingOutputStream output = new CountingOutputStream();
+    XmlWriter writer = new XmlWriter(output);
+    writer.startElement("r").attribute("a", "x\"<y>&z");
+    writer.startElement("v").endElement();
+    writer.startElement("t").text("1 < 2 & ação").endElement();
+    writer.writeNode(node);
+    for (int n = 0; n < 3; n++) {
+      writer.startElement("i").attribute("n", String.valueOf(n)).text("😀");
+      writer.endElement();
+    }
+    Assert.assertEquals(0, output.writes);
+    writer.close();
+    String expected =
+      "<r a=\"x&quot;&lt;y&gt;&amp;z\"><v/><t>1 &lt; 2 &amp; ação</t>"
+        + "<p>pronto</p><i n=\"0\">😀</i><i n=\"1\">😀</i><i n=\"2\">😀</i></r>";
+    byte[] bytes = output.toByteArray();
+    Assert.assertEquals(expected, new String(bytes, "utf-8"));
+    XmlNode root = XmlNode.parse(bytes);
+    Assert.assertEquals("x\"<y>&z", root.getAttribute("a"));
+    Assert.assertEquals("1 < 2 & ação", root.getNodeByTagName("t")
+      .getContent());
+    Assert.assertEquals(0, writer.getDepth());
+  }
+
+  @Test
+  public void writerChannel() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    XmlWriter writer = new XmlWriter(Channels.newChannel(output));
+    writer.startElement("r");
+    for (int n = 0; n < 5000; n++) {
+      writer.startElement("i").text("item " + n).endElement();
+    }
+    writer.close();
+    String text = new String(output.toByteArray(), "utf-8");
+    Assert.assertTrue(text.startsWith("<r><i>item 0</i>"));
+    Assert.assertTrue(text.endsWith("<i>item 4999</i></r>"));
+  }
+
+  @Test
+  public void writerAttributeAfterText() throws IOException {
+    XmlWriter writer = new XmlWriter(new ByteArrayOutputStream());
+    writer.startElement("r").text("a");
+    try {
+      writer.attribute("b", "c");
+      Assert.fail("atributo depois do texto");
+    }
+    catch (IllegalStateException e) {
+    }
+  }
+
+  @Test
+  public void utf8() throws IOException, ParseException {
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < 2000; n++) {
+      sb.append("texto ").append(n).append(" ação \u20ac \ud83d\ude00 ");
+    }
+    String text = sb.toString();
+    byte[] expected = text.getBytes("utf-8");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Utf8Writer writer = new Utf8Writer(output);
+    for (int n = 0; n < text.length(); n += 5) {
+      writer.write(text, n, Math.min(5, text.length() - n));
+    }
+    writer.close();
+    Assert.assertArrayEquals(expected, output.toByteArray());
+    Utf8Reader reader =
+      new Utf8Reader(new StreamXmlTest.SlowInputStream(expected), 16);
+    StringBuilder read = new StringBuilder();
+    char[] chars = new char[3];
+    for (int n; (n = reader.read(chars, 0, chars.length)) != -1;) {
+      read.append(chars, 0, n);
+    }
+    Assert.assertEquals(text, read.toString());
+    XmlNode node =
+      new XmlNode("a").setContent(new ByteArrayInputStream(expected));
+    Assert.assertEquals(text, node.getContent());
+    output = new ByteArrayOutputStream();
+    node.write(output);
+    Assert.assertEquals("<a>" + text + "</a>", new String(output
+      .toByteArray(), "utf-8"));
+  }
+
+  @Test
+  public void utf8Malformed() throws IOException {
+    byte[] bytes =
+      { 'a', (byte) 0xC3, 'b', (byte) 0xE2, (byte) 0x82, (byte) 0xC0,
+          (byte) 0xAF, (byte) 0xED, (byte) 0xA0, (byte) 0x80, (byte) 0xF0,
+          (byte) 0x9F };
+    Utf8Reader reader = new Utf8Reader(new ByteArrayInputStream(bytes));
+    StringBuilder read = new StringBuilder();
+    for (int c; (c = reader.read()) != -1;) {
+      read.append((char) c);
+    }
+    Assert.assertEquals("a\ufffdb\ufffd\ufffd\ufffd\ufffd\ufffd", read
+      .toString());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Utf8Writer writer = new Utf8Writer(output);
+    writer.write("x\ud83d");
+    writer.write('y');
+    writer.write("\ude00");
+    writer.close();
+    Assert.assertEquals("x?y?", new String(output.toByteArray(), "utf-8"));
+  }
+
+  @Test
+  public void contentSource() throws IOException, ParseException {
+    final byte[] bytes = ParseXmlTest.bytes("xx dados ação \ud83d\ude00 yy");
+    Path path = Files.createTempFile("conteudo", ".txt");
+    try {
+      Files.write(path, bytes);
+      XmlContentSource[] sources =
+        {
+            XmlContentSource.of(path, 3, bytes.length - 6),
+            XmlContentSource.of(ByteBuffer.wrap(bytes, 3, bytes.length - 6)),
+            XmlContentSource.of(new Callable<InputStream>() {
+              @Override
+              public InputStream call() {
+                return new ByteArrayInputStream(bytes, 3, bytes.length - 6);
+              }
+            }, -1) };
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes).position(3).limit(bytes.length - 3);
+      String expected = "<a><b>dados ação \ud83d\ude00</b></a>";
+      for (XmlContentSource source : sources) {
+        XmlNode node = new XmlNode("a").addNode(new XmlNode("b"));
+        node.getNodeByTagName("b").setContent(source);
+        Assert.assertEquals("dados ação \ud83d\ude00", node.getNodeByTagName(
+          "b").getContent());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        node.write(output);
+        Assert.assertEquals(expected, new String(output.toByteArray(),
+          "utf-8"));
+        Assert.assertEquals(expected, new String(node.getBytes(), "utf-8"));
+        Assert.assertEquals(node.getNodeByTagName("b"), XmlNode.parse(
+          output.toByteArray()).getNodeByTagName("b"));
+      }
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      XmlWriter writer = new XmlWriter(output);
+      writer.startElement("b").text(XmlContentSource.of(direct));
+      writer.close();
+      Assert.assertEquals("<b>dados ação \ud83d\ude00</b>", new String(output
+        .toByteArray(), "utf-8"));
+      Assert.assertEquals(3, direct.position());
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * Conta as chamadas de escrita
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    /** Bytes escritos */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    /** Quantidade de chamadas */
+    private int writes;
+
+    @Override
+    public void write(int b) {
+      this.writes++;
+      this.bytes.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      this.writes++;
+      this.bytes.write(b, off, len);
+    }
+
+    /**
+     * @return bytes escritos
+     */
+    public byte[] toByteArray() {
+      return this.bytes.toByteArray();
+    }
+
+  }
+
+}
@@ -0,0 +1,258 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import org.breder.xml.XmlDocument;
+import org.breder.xml.XmlNode;
+import org.breder.xml.XmlSnapshot;
+
+/**
+ * Mede a vazão dos caminhos de parse. Não é executado pelos testes.
+ * 
+ * @author bernardobreder
+ */
+public class XmlBenchmark {
+
+  /**
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    byte[] records = records(count);
+    System.out.println("registros: " + records.length / 1024 + " KB");
+    for (int round = 0; round < 5; round++) {
+      report("jaxp", records.length, jaxp(records));
+      report("nativo", records.length, parse(records));
+      report("preguiçoso", records.length, lazy(records));
+      report("documento", records.length, document(records));
+    }
+    XmlNode tree = XmlNode.parse(records);
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    tree.writeBinary(binary);
+    byte[] binaryRecords = binary.toByteArray();
+    System.out.println("binário: " + binaryRecords.length / 1024 + " KB");
+    for (int round = 0; round < 5; round++) {
+      report("jaxp", records.length, jaxp(records));
+      report("binário", records.length, binary(binaryRecords));
+    }
+    for (int round = 0; round < 5; round++) {
+      report("escrita", records.length, write(tree, false));
+      report("escrita guarda", records.length, write(tree, true));
+    }
+    Path path = Files.createTempFile("registros", ".xmls");
+    try {
+      XmlSnapshot.write(tree, path);
+      for (int round = 0; round < 5; round++) {
+        report("snapshot", Files.size(path), snapshot(path, count - 1));
+      }
+    }
+    finally {
+      Files.delete(path);
+    }
+    for (int depth = 1000; depth <= 8000; depth *= 2) {
+      byte[] nested = nested(depth);
+      report("profundo " + depth, nested.length, deep(nested));
+    }
+    System.out.printf("heap XmlNode    %8.1f MB%n", heap(records, false)
+      / 1048576.);
+    System.out.printf("heap XmlDocument %7.1f MB%n", heap(records, true)
+      / 1048576.);
+  }
+
+  /**
+   * @param records
+   * @return tempo em nanossegundos
+   * @throws IOException
+   * @throws ParseException
+   */
+  private static long jaxp(byte[] records) throws IOException,
+    ParseException {
+    System.gc();
+    long time = System.nanoTime();
+    new XmlNode(new ByteArrayInputStream(records));
+    return System.nanoTime() - time;
+  }
+
+  /**
+   * @param binary
+   * @return tempo em nanossegundos
+   * @throws IOException
+   * @throws ParseException
+   */
+  private static long binary(byte[] binary) throws IOException,
+    ParseException {
+    System.gc();
+    long time = System.nanoTime();
+    XmlNode.readBinary(new ByteArrayInputStream(binary));
+    return System.nanoTime() - time;
+  }
+
+  /**
+   * Abre o snapshot e lê um único registro
+   * 
+   * @param path
+   * @param id
+   * @return tempo em nanossegundos
+   * @throws IOException
+   * @throws ParseException
+   */
+  private static long snapshot(Path path, int id) throws IOException,
+    ParseException {
+    System.gc();
+    long time = System.nanoTime();
+    XmlSnapshot.open(path).getRoot().getNodeByAttributeValue("id",
+      String.valueOf(id)).toXmlNode();
+    return System.nanoTime() - time;
+  }
+
+  /**
+   * @param records
+   * @return tempo em nanossegundos
+   * @throws ParseException
+   */
+  private static long parse(byte[] records) throws ParseException {
+    System.gc();
+    long time = System.nanoTime();
+    XmlNode.parse(records);
+    return System.nanoTime() - time;
+  }
+
+  /**
+   * Parse preguiçoso lendo apenas o primeiro registro
+   * 
+   * @param records
+   * @return tempo em nanossegundos
+   * @throws ParseException
+   */
+  private static long lazy(byte[] records) throws ParseException {
+    System.gc();
+    long time = System.nanoTime();
+    XmlNode.parseLazy(records).getNodeByTagName("record").getNodeByTagName(
+      "name").getContent();
+    return System.nanoTime() - time;
+  }
+
+  /**
+   * @param records
+   * @return tempo em nanossegundos
+   * @throws ParseException
+   */
+  private static long document(byte[] records) throws ParseException {
+    System.gc();
+    long time = System.nanoTime();
+    XmlDocument.parse(records);
+    return System.nanoTime() - time;
+  }
+
+  /**
+   * Escrita repetida da mesma árvore
+   * 
+   * @param tree
+   * @param cache liga a guarda dos bytes
+   * @return tempo médio em nanossegundos
+   * @throws IOException
+   */
+  private static long write(XmlNode tree, boolean cache) throws IOException {
+    tree.setByteCache(cache);
+    tree.write(new ByteArrayOutputStream());
+    System.gc();
+    long time = System.nanoTime();
+    for (int n = 0; n < 10; n++) {
+      tree.write(new ByteArrayOutputStream());
+    }
+    return (System.nanoTime() - time) / 10;
+  }
+
+  /**
+   * Parse de um documento com tags muito aninhadas. O tempo deve crescer de
+   * forma linear com a profundidade.
+   * 
+   * @param bytes
+   * @return tempo em nanossegundos
+   * @throws ParseException
+   */
+  private static long deep(byte[] bytes) throws ParseException {
+    XmlNode.parse(bytes);
+    System.gc();
+    long time = System.nanoTime();
+    for (int n = 0; n < 10; n++) {
+      XmlNode.parse(bytes);
+    }
+    return (System.nanoTime() - time) / 10;
+  }
+
+  /**
+   * @param depth
+   * @return documento com as tags aninhadas na profundidade, cada uma com um
+   *         texto
+   */
+  private static byte[] nested(int depth) {
+    StringBuilder sb = new StringBuilder();
+    for (int n = 0; n < depth; n++) {
+      sb.append("<n>texto da tag ").append(n);
+    }
+    for (int n = 0; n < depth; n++) {
+      sb.append("</n>");
+    }
+    return sb.toString().getBytes(Charset.forName("utf-8"));
+  }
+
+  /**
+   * Memória aproximada retida pela árvore
+   * 
+   * @param records
+   * @param compact usa o {@link XmlDocument}
+   * @return bytes
+   * @throws ParseException
+   */
+  private static long heap(byte[] records, boolean compact)
+    throws ParseException {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    Object tree =
+      compact ? XmlDocument.parse(records) : XmlNode.parse(records);
+    System.gc();
+    long after = runtime.totalMemory() - runtime.freeMemory();
+    return tree == null ? 0 : after - before;
+  }
+
+  /**
+   * @param name
+   * @param bytes
+   * @param nanos
+   */
+  static void report(String name, long bytes, long nanos) {
+    System.out.printf("%-12s %8.1f ms %8.1f MB/s%n", name, nanos / 1e6, bytes
+      / 1048576. / (nanos / 1e9));
+  }
+
+  /**
+   * @param count
+   * @return documento com registros
+   * @throws IOException
+   */
+  static byte[] records(int count) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    StringBuilder sb = new StringBuilder("<root>\n");
+    for (int n = 0; n < count; n++) {
+      sb.append("  <record id=\"").append(n).append(
+        "\" type=\"item\"><name>Registro ").append(n).append(
+        "</name><value unit=\"R$\">").append(n * 3).append(
+        ".50</value><note>ação &amp; reação</note></record>\n");
+      if (sb.length() > 65536) {
+        output.write(sb.toString().getBytes("utf-8"));
+        sb.setLength(0);
+      }
+    }
+    sb.append("</root>\n");
+    output.write(sb.toString().getBytes("utf-8"));
+    return output.toByteArray();
+  }
+
+}
@@ -0,0 +1,81 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XmlSnapshotTest {
+
+  /** Documento com nomes, atributos e textos de vários tamanhos */
+  private static final String DOCUMENT = "<html><body>"
+    + "<div id=\"a\" class=\"x\"><p>um</p><p id=\"b\">dois ação 😀</p></div>"
+    + "texto entre <div id=\"c\" title=\"um título bem mais comprido\">"
+    + "<span class=\"x y\">três</span><p>quatro</p></div>"
+    + "<ul><li n=\"1\"/><li n=\"22\"/><li n=\"333\"/><li n=\"4444\"/></ul>"
+    + "</body></html>";
+
+  @Test
+  public void chunks() throws IOException, ParseException {
+    XmlNode root = XmlNode.parse(DOCUMENT.getBytes("utf-8"));
+    Path path = Files.createTempFile("snapshot", ".xmls");
+    try {
+      XmlSnapshot.write(root, path);
+      for (int shift : new int[] { 3, 4, 7 }) {
+        XmlSnapshot snapshot = XmlSnapshot.open(path, shift);
+        String message = "bloco " + (1 << shift);
+        XmlSnapshotElement body =
+          snapshot.getRoot().getNodeByTagName("body");
+        Assert.assertEquals(message, "body", body.getName());
+        XmlSnapshotElement c = body.getNodeByAttributeValue("id", "c");
+        Assert.assertEquals(message, "um título bem mais comprido", c
+          .getAttribute("title"));
+        Assert.assertEquals(message, "três", c.getNodeByTagName("span")
+          .getContent());
+        Assert.assertEquals(message, "dois ação 😀", body
+          .getNodeByAttributeValue("id", "a").getNodes().get(1).getContent());
+        Assert.assertEquals(message, 4, body.getNodeByTagName("ul")
+          .getNodesByTagName("li").size());
+        Assert.assertEquals(message, root, snapshot.getRoot().toXmlNode());
+        Assert.assertEquals(message, root.toString(), snapshot.getRoot()
+          .toString());
+      }
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void deep() throws IOException, ParseException {
+    int depth = 16000;
+    XmlNode root = new XmlNode("a");
+    XmlNode node = root;
+    for (int n = 1; n < depth; n++) {
+      XmlNode child = new XmlNode("a").setAttribute("n", String.valueOf(n));
+      node.addNode(child);
+      node = child;
+    }
+    node.setContent("fim");
+    Path path = Files.createTempFile("snapshot", ".xmls");
+    try {
+      XmlSnapshot.write(root, path);
+      XmlSnapshot snapshot = XmlSnapshot.open(path, 7);
+      XmlNode copy = snapshot.getRoot().toXmlNode();
+      Assert.assertEquals(root, copy);
+      Assert.assertEquals("fim", snapshot.getRoot().getContent());
+      for (int n = 1; n < depth; n++) {
+        copy = copy.getNodes().get(0);
+      }
+      Assert.assertEquals("15999", copy.getAttribute("n"));
+      Assert.assertEquals("fim", copy.getContent());
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+}
@@ -0,0 +1,42 @@
+package org.breder.xml;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XmlTokenizerTest {
+
+  /** Documento com texto multibyte, CDATA e comentários */
+  private static final String DOCUMENT = "<?xml version=\"1.0\"?>"
+    + "<!-- início 😀 -->"
+    + "<raiz nome=\"ação 😀\" outro='çã'>"
+    + "<a>texto com acentuação: ação, coração, 😀😀 e &lt;&amp;&gt;</a>"
+    + "<!-- comentário -- entre > tags -->"
+    + "<b><![CDATA[<x> ]] ]> ção 😀 ]]></b>"
+    + "antes<c/>depois ção<d x=\"é\">ü<![CDATA[ö]]>ï</d>"
+    + "</raiz><!-- fim ç -->";
+
+  @Test
+  public void window() throws IOException, ParseException {
+    byte[] bytes = DOCUMENT.getBytes("utf-8");
+    XmlNode expected = XmlNode.parse(bytes);
+    Path path = Files.createTempFile("window", ".xml");
+    try {
+      Files.write(path, bytes);
+      for (int window = 1; window <= bytes.length + 1; window++) {
+        XmlNode node = XmlNode.parse(path, window);
+        Assert.assertEquals("janela " + window, expected, node);
+        Assert.assertEquals("janela " + window, expected.toString(), node
+          .toString());
+      }
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+}